@@ -0,0 +1,23 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.bterminal;
+
+import com.bsapundzhiev.console.IConsoleLogger;
+import android.util.Log;
+
+/**
+ * Console engine log to logcat
+ */
+public class ConsoleLogcatLogger implements IConsoleLogger {
+
+	@Override
+	public void debug(String tag, String message) {
+		Log.d(tag, String.valueOf(message));
+	}
+}
@@ -9,8 +9,11 @@
 package com.bsapundzhiev.bterminal;
 
 import com.bsapundzhiev.console.ConsoleCommandExecuter;
+import com.bsapundzhiev.console.ConsoleCompletion;
+import com.bsapundzhiev.console.ConsoleLog;
 import com.bsapundzhiev.console.IConsoleCommandExecuterCallback;
 import com.bsapundzhiev.controls.ConsoleCommandListener;
+import com.bsapundzhiev.controls.ConsoleHandlerDispatcher;
 import com.bsapundzhiev.controls.ConsoleView;
 import android.support.v7.app.ActionBarActivity;
 import android.app.AlertDialog;
@@ -66,7 +69,7 @@ public class MainActivity extends AppCompatActivity {
 			@Override
 			public void onClearScreen() {
 
-				console.getText().clear();
+				console.clearScreen();
 			}
 
 			@Override
@@ -78,7 +81,8 @@ public class MainActivity extends AppCompatActivity {
 		Log.d(DEBUG_TAG, "OnCreate");
 
 		if(commandExecuter == null) { 
-			commandExecuter = new ConsoleCommandExecuter(); 
+			ConsoleLog.setLogger(new ConsoleLogcatLogger());
+			commandExecuter = new ConsoleCommandExecuter(new ConsoleHandlerDispatcher());
 			String hello = String.format("echo %s v%s type help for more.", getString(R.string.app_name), getString(R.string.version));
 			commandExecuter.execute(hello, iccec);
 		}
@@ -97,6 +101,25 @@ public class MainActivity extends AppCompatActivity {
 				super.onCommandBreak(type);	
 				commandExecuter.Break();
 			} 
+
+			@Override
+			public void onControl(char c) {
+				super.onControl(c);
+				commandExecuter.sendControl(c);
+			}
+
+			@Override
+			public void onWindowSizeChanged(int rows, int columns) {
+				super.onWindowSizeChanged(rows, columns);
+				commandExecuter.setWindowSize(rows, columns);
+			}
+
+			@Override
+			public void onComplete(String line) {
+				super.onComplete(line);
+				ConsoleCompletion completion = commandExecuter.complete(line);
+				console.showCompletion(completion.getText(), completion.getCandidates());
+			}
 		});
 	}
 
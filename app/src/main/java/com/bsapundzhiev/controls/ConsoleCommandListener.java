@@ -55,4 +55,36 @@ public class ConsoleCommandListener implements EventListener {
 	public void onCommandBreak(ConsoleBreak type) {
 		Log.d("ConsoleCommandListener.onCommandBreak", type.toString());
 	}
+
+	/**
+	 * Console size in cells changed
+	 * 
+	 * @param rows
+	 * @param columns
+	 * @return none
+	 */
+	public void onWindowSizeChanged(int rows, int columns) {
+		Log.d("ConsoleCommandListener.onWindowSizeChanged", rows + "x" + columns);
+	}
+
+	/**
+	 * Tab completion requested, answer with
+	 * {@link ConsoleView#showCompletion(String, java.util.List)}
+	 * 
+	 * @param line command line typed so far
+	 * @return none
+	 */
+	public void onComplete(String line) {
+		Log.d("ConsoleCommandListener.onComplete", line);
+	}
+
+	/**
+	 * Control char typed for the running command
+	 * 
+	 * @param c 1 for ctrl+a
+	 * @return none
+	 */
+	public void onControl(char c) {
+		Log.d("ConsoleCommandListener.onControl", Integer.toString(c));
+	}
 }
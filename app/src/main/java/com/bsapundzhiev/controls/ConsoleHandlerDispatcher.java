@@ -0,0 +1,30 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+import com.bsapundzhiev.console.IConsoleDispatcher;
+import android.os.Handler;
+
+/**
+ * Runs the console callbacks on the UI thread, create it there
+ */
+public class ConsoleHandlerDispatcher implements IConsoleDispatcher {
+
+	private final Handler handler = new Handler();
+
+	@Override
+	public void post(Runnable task) {
+		handler.post(task);
+	}
+
+	@Override
+	public void postDelayed(Runnable task, long delayMillis) {
+		handler.postDelayed(task, delayMillis);
+	}
+}
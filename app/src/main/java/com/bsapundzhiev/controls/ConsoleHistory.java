@@ -0,0 +1,508 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import android.util.Log;
+
+/**
+ * Persistent command history.
+ * Commands are appended to a UTF-8 file, one per line, on a background
+ * thread. The file is memory-mapped on that thread when the history is
+ * created and only a table of line offsets and hashes is built, a command
+ * is decoded when it is shown. A repeated command moves to the end, the
+ * older copy is marked deleted; deleted entries and those over the size
+ * cap are dropped when the file is compacted. Commands added after the
+ * file was mapped are kept in a byte array and indexed the same way, so a
+ * search scans the bytes of both without decoding anything.
+ * Entries are numbered from the oldest, deleted numbers are skipped.
+ */
+public class ConsoleHistory {
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+	private static final String DEBUG_TAG = "ConsoleHistory";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final int maxEntries;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor();
+	private final Future<?> loaded;
+
+	/** the mapped file holds entries [0, mappedCount) */
+	private ByteBuffer mapped = ByteBuffer.allocate(0);
+	private int mappedCount = 0;
+	/** entries [mappedCount, count) */
+	private byte[] tail = new byte[1024];
+	private int tailLength = 0;
+	private int[] starts = new int[256];
+	private int[] lengths = new int[256];
+	private int[] hashes = new int[256];
+	private final BitSet deleted = new BitSet();
+	private int count = 0;
+	private int live = 0;
+	/** counts the added commands, a compaction of an older state is dropped */
+	private int generation = 0;
+	private boolean compacting = false;
+
+	/**
+	 * @param file history file, created on the first command
+	 * @param maxEntries
+	 */
+	public ConsoleHistory(File file, int maxEntries) {
+
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.loaded = writer.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	/**
+	 * Add a command, an older copy of it is removed
+	 * @param command
+	 */
+	public synchronized void add(String command) {
+
+		awaitLoaded();
+		final byte[] bytes = command.replace('\n', ' ').getBytes(UTF8);
+		if (bytes.length == 0) {
+			return;
+		}
+		int hash = hash(bytes, 0, bytes.length);
+		for (int i = count - 1; i >= 0; i--) {
+			if (hashes[i] == hash && !deleted.get(i) && equals(i, bytes)) {
+				delete(i);
+				break;
+			}
+		}
+		if (tailLength + bytes.length > tail.length) {
+			tail = Arrays.copyOf(tail, Math.max(tail.length * 2, tailLength + bytes.length));
+		}
+		System.arraycopy(bytes, 0, tail, tailLength, bytes.length);
+		addEntry(tailLength, bytes.length, hash);
+		tailLength += bytes.length;
+		while (live > maxEntries) {
+			delete(deleted.nextClearBit(0));
+		}
+		generation++;
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				append(bytes);
+			}
+		});
+		if (!compacting && count - live > maxEntries / 4) {
+			compacting = true;
+			writer.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					compact();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return number past the newest entry
+	 */
+	public synchronized int size() {
+
+		awaitLoaded();
+		return count;
+	}
+
+	/**
+	 * @return the command of an entry
+	 */
+	public synchronized String get(int index) {
+
+		awaitLoaded();
+		byte[] bytes = new byte[lengths[index]];
+		if (index < mappedCount) {
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = mapped.get(starts[index] + i);
+			}
+		} else {
+			System.arraycopy(tail, starts[index], bytes, 0, bytes.length);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * @return the newest entry before index, -1 when there is none
+	 */
+	public synchronized int previous(int index) {
+
+		awaitLoaded();
+		for (int i = Math.min(index, count) - 1; i >= 0; i--) {
+			if (!deleted.get(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the oldest entry after index, -1 when there is none
+	 */
+	public synchronized int next(int index) {
+
+		awaitLoaded();
+		int i = deleted.nextClearBit(Math.max(0, index + 1));
+		return (i < count) ? i : -1;
+	}
+
+	/**
+	 * Reverse substring search
+	 * @param query
+	 * @param before search the entries older than this one
+	 * @return the newest entry containing query, -1 when there is none
+	 */
+	public synchronized int search(String query, int before) {
+
+		awaitLoaded();
+		byte[] pattern = query.getBytes(UTF8);
+		int m = pattern.length;
+		int[] skip = new int[256];
+		Arrays.fill(skip, Math.max(1, m));
+		for (int k = 0; k < m - 1; k++) {
+			skip[pattern[k] & 0xff] = m - 1 - k;
+		}
+		for (int i = Math.min(before, count) - 1; i >= 0; i--) {
+			if (!deleted.get(i) && contains(i, pattern, skip)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param max
+	 * @return up to max commands, the newest first
+	 */
+	public synchronized List<String> recent(int max) {
+
+		List<String> commands = new ArrayList<String>();
+		for (int i = previous(Integer.MAX_VALUE); i >= 0 && commands.size() < max; i = previous(i)) {
+			commands.add(get(i));
+		}
+		return commands;
+	}
+
+	private boolean contains(int index, byte[] pattern, int[] skip) {
+
+		int m = pattern.length;
+		int start = starts[index];
+		int last = start + lengths[index] - m;
+		boolean isMapped = index < mappedCount;
+		for (int i = start; i <= last; ) {
+			int j = m - 1;
+			while (j >= 0 && pattern[j] == (isMapped ? mapped.get(i + j) : tail[i + j])) {
+				j--;
+			}
+			if (j < 0) {
+				return true;
+			}
+			i += skip[(isMapped ? mapped.get(i + m - 1) : tail[i + m - 1]) & 0xff];
+		}
+		return m == 0;
+	}
+
+	private boolean equals(int index, byte[] bytes) {
+
+		if (lengths[index] != bytes.length) {
+			return false;
+		}
+		int start = starts[index];
+		for (int i = 0; i < bytes.length; i++) {
+			if ((index < mappedCount ? mapped.get(start + i) : tail[start + i]) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addEntry(int start, int length, int hash) {
+
+		if (count == starts.length) {
+			int capacity = count * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		starts[count] = start;
+		lengths[count] = length;
+		hashes[count] = hash;
+		count++;
+		live++;
+	}
+
+	private void delete(int index) {
+		deleted.set(index);
+		live--;
+	}
+
+	private static int hash(byte[] bytes, int start, int end) {
+
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + bytes[i];
+		}
+		return h;
+	}
+
+	private void awaitLoaded() {
+
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				loaded.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				Log.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Map the file and index its lines, runs on the writer thread before
+	 * anything else touches the fields
+	 */
+	private void load() {
+
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.getChannel().size());
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			return;
+		}
+		int size = mapped.limit();
+		int start = 0;
+		int h = 0;
+		for (int i = 0; i < size; i++) {
+			byte b = mapped.get(i);
+			if (b == '\n') {
+				if (i > start) {
+					addEntry(start, i - start, h);
+				}
+				start = i + 1;
+				h = 0;
+			} else {
+				h = 31 * h + b;
+			}
+		}
+		if (size > start) {
+			// the last write was cut short
+			addEntry(start, size - start, h);
+		}
+		mappedCount = count;
+		removeDuplicates();
+		while (live > maxEntries) {
+			delete(deleted.nextClearBit(0));
+		}
+		if (count - live > maxEntries / 4) {
+			// after the load completes, the UI thread may be waiting for it
+			// while holding the lock
+			compacting = true;
+			writer.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					compact();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Keep the newest copy of each command: entries are sorted by hash
+	 * and, for equal hashes, compared from the newest
+	 */
+	private void removeDuplicates() {
+
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = ((long)hashes[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		List<Integer> kept = new ArrayList<Integer>();
+		for (int end = count; end > 0; ) {
+			int hash = (int)(keys[end - 1] >> 32);
+			int start = end - 1;
+			while (start > 0 && (int)(keys[start - 1] >> 32) == hash) {
+				start--;
+			}
+			if (end - start > 1) {
+				kept.clear();
+				for (int k = end - 1; k >= start; k--) {
+					int index = (int)keys[k];
+					boolean duplicate = false;
+					for (int newer : kept) {
+						if (sameEntry(index, newer)) {
+							duplicate = true;
+							break;
+						}
+					}
+					if (duplicate) {
+						delete(index);
+					} else {
+						kept.add(index);
+					}
+				}
+			}
+			end = start;
+		}
+	}
+
+	private boolean sameEntry(int a, int b) {
+
+		if (lengths[a] != lengths[b]) {
+			return false;
+		}
+		for (int i = 0; i < lengths[a]; i++) {
+			if (mapped.get(starts[a] + i) != mapped.get(starts[b] + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void append(byte[] bytes) {
+
+		try {
+			OutputStream out = new FileOutputStream(file, true);
+			try {
+				out.write(bytes);
+				out.write('\n');
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Log.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+		}
+	}
+
+	/**
+	 * Rewrite the file with the live entries and map it again. Runs on the
+	 * writer thread, a command added meanwhile cancels the swap and the
+	 * next one retries.
+	 */
+	private void compact() {
+
+		byte[] data;
+		int[] entries;
+		int snapshot;
+		synchronized (this) {
+			snapshot = generation;
+			entries = new int[live];
+			int size = 0;
+			for (int i = 0, n = 0; i < count; i++) {
+				if (!deleted.get(i)) {
+					entries[n++] = i;
+					size += lengths[i] + 1;
+				}
+			}
+			data = new byte[size];
+			int offset = 0;
+			for (int index : entries) {
+				for (int i = 0; i < lengths[index]; i++) {
+					data[offset + i] = (index < mappedCount) ? mapped.get(starts[index] + i)
+							: tail[starts[index] + i];
+				}
+				offset += lengths[index];
+				data[offset++] = '\n';
+			}
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		ByteBuffer map;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(data);
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			FileInputStream in = new FileInputStream(temp);
+			try {
+				map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			temp.delete();
+			synchronized (this) {
+				compacting = false;
+			}
+			return;
+		}
+		synchronized (this) {
+			compacting = false;
+			if (snapshot != generation || !temp.renameTo(file)) {
+				temp.delete();
+				return;
+			}
+			int[] newStarts = new int[Math.max(256, entries.length * 2)];
+			int[] newLengths = new int[newStarts.length];
+			int[] newHashes = new int[newStarts.length];
+			int offset = 0;
+			for (int n = 0; n < entries.length; n++) {
+				newStarts[n] = offset;
+				newLengths[n] = lengths[entries[n]];
+				newHashes[n] = hashes[entries[n]];
+				offset += newLengths[n] + 1;
+			}
+			starts = newStarts;
+			lengths = newLengths;
+			hashes = newHashes;
+			mapped = map;
+			count = entries.length;
+			mappedCount = count;
+			live = count;
+			deleted.clear();
+			tailLength = 0;
+		}
+	}
+}
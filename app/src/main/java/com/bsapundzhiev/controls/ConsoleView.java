@@ -3,43 +3,103 @@
  * @version 0.1
  *
  *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
- * 
- *  Licensed under GNU General Public License 3.0 or later. 
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
  *  Some rights reserved. See COPYING, AUTHORS.
  */
 package com.bsapundzhiev.controls;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.bsapundzhiev.console.ConsoleMetrics;
 import com.bsapundzhiev.controls.ConsoleCommandListener.ConsoleBreak;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.text.InputType;
-import android.text.method.ScrollingMovementMethod;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.view.Gravity;
+import android.util.TypedValue;
+import android.view.GestureDetector;
 import android.view.KeyEvent;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
-import android.view.inputmethod.InputConnectionWrapper;
-import android.widget.EditText;
+import android.view.inputmethod.InputMethodManager;
 
 import android.widget.Toast;
 
-public class ConsoleView extends EditText {
+/**
+ * Fixed-cell console view.
+ * Output goes through the {@link ConsoleEscapeParser} into the
+ * {@link ConsoleScreen}, whose tail is drawn as a monospaced grid. Long
+ * lines are wrapped at the column count. The viewport is anchored to
+ * an absolute line and a wrapped row in it, so drawing and scrolling cost
+ * depends on the screen size and not on the amount of scrollback.
+ */
+public class ConsoleView extends View {
 
 	public static String propmptSign = "$ ";
 	private String DEBUG_TAG = "ConsoleView";
 	private String _promptString;
-	private static ArrayList<String> _history = new ArrayList<>();
-    private static StringBuilder _commandBuilder = new StringBuilder();
+	private static final String HISTORY_FILE = "history";
+	/** commands offered in the long press menu */
+	private static final int MENU_HISTORY_SIZE = 20;
+	private static ConsoleHistory _history;
+	/** entry shown by up/down, past the newest while typing a new one */
+	private int _historyIndex = Integer.MAX_VALUE;
+	/** reverse search query, null when not searching */
+	private StringBuilder _searchQuery;
+	private int _searchMatch = -1;
+	/** scrollback find query, null when not finding */
+	private StringBuilder _findQuery;
+	/** shown match, newest is 0 */
+	private int _findIndex = -1;
+	private ConsoleScrollbackSearch _find;
+	private static StringBuilder _commandBuilder = new StringBuilder();
+	/**
+	 * Session text
+	 */
+	private static ConsoleScreen _screen = new ConsoleScreen(new ConsoleScrollback());
+	private static ConsoleEscapeParser _parser = new ConsoleEscapeParser(_screen);
+
+	private final Paint _textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint _cursorPaint = new Paint();
+	private float _cellWidth = 1;
+	private float _cellHeight = 1;
+	private float _baseline = 0;
+	private int _columns = 1;
+	private int _rows = 1;
+	/**
+	 * Viewport top, absolute line number and wrapped row in that line
+	 */
+	private long _topLine = 0;
+	private int _topRow = 0;
+	/**
+	 * Viewport sticks to the last line
+	 */
+	private boolean _follow = true;
+	/**
+	 * Model extent at the last content change
+	 */
+	private long _drawnFirstLine = -1;
+	private int _drawnLineCount = 0;
+	private float _scrollRemainder = 0;
+	private char[] _lineBuffer = new char[256];
+	private int[] _styleBuffer = new int[256];
+	private final Paint _backgroundPaint = new Paint();
+	private final Paint _matchPaint = new Paint();
+	private final Rect _clip = new Rect();
+	private GestureDetector _gestures;
 	/**
 	 * command interface
 	 */
@@ -63,27 +123,54 @@ public class ConsoleView extends EditText {
 		ConsoleViewInit();
 	}
 
+	/**
+	 * Lines are kept whole and wrapped when drawn, so a new size costs the
+	 * visible rows only. The typed command and the scrollback stay, rows
+	 * that no longer fit on the screen go to the scrollback.
+	 */
 	@Override
-	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
 
-		// TODO fixme
-		if (_commandBuilder.length() > 0) {
-			onCommand("clear");
-			_commandBuilder.delete(0, _commandBuilder.length());
+		super.onSizeChanged(w, h, oldw, oldh);
+		int columns = Math.max(1, (int)((w - getPaddingLeft() - getPaddingRight()) / _cellWidth));
+		int rows = Math.max(1, (int)((h - getPaddingTop() - getPaddingBottom()) / _cellHeight));
+		if (columns == _columns && rows == _rows && oldw != 0) {
+			return;
+		}
+		// the top row starts at the same char of its line in the new width
+		_topRow = _topRow * _columns / columns;
+		_columns = columns;
+		_rows = rows;
+		_screen.resize(_rows);
+		if (_follow) {
+			scrollToBottom();
+		}
+		invalidate();
+		for (ConsoleCommandListener commandListener : commandListeners) {
+			commandListener.onWindowSizeChanged(_rows, _columns);
 		}
-		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+	}
+
+	@Override
+	public boolean onCheckIsTextEditor() {
+		return true;
 	}
 
 	@Override
 	public InputConnection onCreateInputConnection(EditorInfo outAttrs) {
-		return new ConsoleInputConnection(
-				super.onCreateInputConnection(outAttrs), true);
+
+		outAttrs.inputType = InputType.TYPE_CLASS_TEXT
+				| InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS
+				| InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD;
+		// FIXME: this fix style changes when soft keyboard appears
+		outAttrs.imeOptions = EditorInfo.IME_FLAG_NO_EXTRACT_UI;
+		return new ConsoleInputConnection(this, false);
 	}
 
-	private class ConsoleInputConnection extends InputConnectionWrapper {
+	private class ConsoleInputConnection extends BaseInputConnection {
 
-		public ConsoleInputConnection(InputConnection target, boolean mutable) {
-			super(target, mutable);
+		public ConsoleInputConnection(View target, boolean fullEditor) {
+			super(target, fullEditor);
 		}
 
 		@Override
@@ -92,40 +179,234 @@ public class ConsoleView extends EditText {
 			if (event.getAction() == KeyEvent.ACTION_DOWN
 						&& event.getKeyCode() == KeyEvent.KEYCODE_DEL) {
 				// cancel the backspace if buffer is empty
-				if (_commandBuilder.length() == 0) {
-					return false;
-				}
-				_commandBuilder.deleteCharAt(_commandBuilder.length() - 1);
+				return deleteLastChar();
 			}
 
 			if(event.getAction() == KeyEvent.ACTION_DOWN
 						&& event.getKeyCode() == KeyEvent.KEYCODE_ENTER) {
 				Log.d(DEBUG_TAG, "Enter");
-				if(!performCommand()) {
+				return performEnter();
+			}
+			return super.sendKeyEvent(event);
+		}
+
+		@Override
+		public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+
+			for (int i = 0; i < beforeLength; i++) {
+				if (!deleteLastChar()) {
 					return false;
 				}
 			}
-			return super.sendKeyEvent(event);
+			return true;
 		}
 
 		@Override
 		public boolean commitText(CharSequence text, int newCursorPosition) {
 
 			//Log.d(DEBUG_TAG, "commitText:[" + text.toString() +"]");
-			_commandBuilder.append(text);
-			return super.commitText(text, newCursorPosition);
+			if (text.toString().equals("\t")) {
+				onComplete();
+			} else {
+				typeText(text);
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public boolean onKeyDown(int keyCode, KeyEvent event) {
+
+		if (event.isCtrlPressed() && keyCode == KeyEvent.KEYCODE_R) {
+			endFind();
+			searchHistory();
+			return true;
+		}
+		if (event.isCtrlPressed() && keyCode == KeyEvent.KEYCODE_F) {
+			findText();
+			return true;
+		}
+		if (_findQuery != null && keyCode == KeyEvent.KEYCODE_DPAD_UP) {
+			showMatch(_findIndex + 1);
+			return true;
+		}
+		if (_findQuery != null && keyCode == KeyEvent.KEYCODE_DPAD_DOWN) {
+			showMatch(_findIndex - 1);
+			return true;
+		}
+		if (event.isCtrlPressed() && keyCode >= KeyEvent.KEYCODE_A && keyCode <= KeyEvent.KEYCODE_Z) {
+			onControl((char)(keyCode - KeyEvent.KEYCODE_A + 1));
+			return true;
+		}
+		if (event.isCtrlPressed() && keyCode == KeyEvent.KEYCODE_BACKSLASH) {
+			onControl('\u001c');
+			return true;
+		}
+		switch (keyCode) {
+		case KeyEvent.KEYCODE_DEL:
+			deleteLastChar();
+			return true;
+		case KeyEvent.KEYCODE_ENTER:
+			performEnter();
+			return true;
+		case KeyEvent.KEYCODE_TAB:
+			onComplete();
+			return true;
+		case KeyEvent.KEYCODE_DPAD_UP:
+			endSearch();
+			showHistory(_history.previous(_historyIndex));
+			return true;
+		case KeyEvent.KEYCODE_DPAD_DOWN:
+			endSearch();
+			if (_historyIndex != Integer.MAX_VALUE) {
+				int next = _history.next(_historyIndex);
+				if (next < 0) {
+					// past the newest, back to an empty line
+					_historyIndex = Integer.MAX_VALUE;
+					replaceCommand("");
+				} else {
+					showHistory(next);
+				}
+			}
+			return true;
+		case KeyEvent.KEYCODE_ESCAPE:
+			endSearch();
+			endFind();
+			return true;
+		default:
+			int c = event.getUnicodeChar();
+			if (c != 0) {
+				typeText(String.valueOf((char)c));
+				return true;
+			}
+			return super.onKeyDown(keyCode, event);
 		}
 	}
 
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		return _gestures.onTouchEvent(event) || super.onTouchEvent(event);
+	}
+
 	@Override
 	protected void onDraw(Canvas canvas) {
 
-		setSelection(getText().length());
+		long drawStart = System.nanoTime();
 		super.onDraw(canvas);
+		canvas.getClipBounds(_clip);
+		final int top = getPaddingTop();
+		final int left = getPaddingLeft();
+		final int fromRow = Math.max(0, (int)((_clip.top - top) / _cellHeight));
+		final int toRow = Math.min(_rows, (int)Math.ceil((_clip.bottom - top) / _cellHeight));
+		final int lastLine = _screen.getLineCount() - 1;
+		final int cursorLine = _screen.getCursorLine();
+		final int cursorColumn = _screen.getCursorColumn();
+		int matchLine = -1;
+		int matchColumn = 0;
+		if (_findIndex >= 0) {
+			ConsoleScrollbackSearch.Matches matches = _find.getMatches();
+			matchLine = (int)Math.max(-1, matches.getLine(_findIndex) - _screen.getFirstLine());
+			matchColumn = matches.getColumn(_findIndex);
+		}
+
+		int line = topLineIndex();
+		int row = topRowIndex();
+		int loaded = -1;
+		int length = 0;
+		for (int y = 0; y < toRow && line <= lastLine; y++) {
+
+			if (y >= fromRow) {
+				if (loaded != line) {
+					length = loadLine(line);
+					loaded = line;
+				}
+				int start = row * _columns;
+				int end = Math.min(length, start + _columns);
+				float baseline = top + y * _cellHeight + _baseline;
+				if (end > start) {
+					drawRow(canvas, start, end, left, top + y * _cellHeight, baseline);
+				}
+				if (line == matchLine) {
+					int from = Math.max(start, matchColumn);
+					int to = Math.min(start + _columns, matchColumn + _find.getLength());
+					if (from < to) {
+						float cy = top + y * _cellHeight;
+						canvas.drawRect(left + (from - start) * _cellWidth, cy,
+								left + (to - start) * _cellWidth, cy + _cellHeight, _matchPaint);
+					}
+				}
+				if (line == cursorLine && row == cursorColumn / _columns) {
+					float x = left + (cursorColumn % _columns) * _cellWidth;
+					float cy = top + y * _cellHeight;
+					canvas.drawRect(x, cy, x + _cellWidth, cy + _cellHeight, _cursorPaint);
+				}
+			}
+			if (++row >= rowsOf(line)) {
+				row = 0;
+				line++;
+			}
+		}
+		ConsoleMetrics.RENDER.recordSince(drawStart);
+	}
+
+	/**
+	 * Draw the loaded line cells [start, end), one text run per style span
+	 */
+	private void drawRow(Canvas canvas, int start, int end, float left, float top, float baseline) {
+
+		int run = start;
+		while (run < end) {
+			int style = _styleBuffer[run];
+			int next = run + 1;
+			while (next < end && _styleBuffer[next] == style) {
+				next++;
+			}
+			float x = left + (run - start) * _cellWidth;
+			if (style == ConsoleStyle.DEFAULT) {
+				_textPaint.setColor(Color.GREEN);
+				_textPaint.setFakeBoldText(false);
+				_textPaint.setUnderlineText(false);
+			} else {
+				int fg = ConsoleStyle.foreground(style);
+				int bg = ConsoleStyle.background(style);
+				int fgColor = (fg < 0) ? Color.GREEN : ConsoleStyle.color(fg);
+				int bgColor = (bg < 0) ? Color.BLACK : ConsoleStyle.color(bg);
+				if ((style & ConsoleStyle.INVERSE) != 0) {
+					int swap = fgColor;
+					fgColor = bgColor;
+					bgColor = swap;
+				}
+				if (bg >= 0 || (style & ConsoleStyle.INVERSE) != 0) {
+					_backgroundPaint.setColor(bgColor);
+					canvas.drawRect(x, top, x + (next - run) * _cellWidth, top + _cellHeight, _backgroundPaint);
+				}
+				_textPaint.setColor(fgColor);
+				_textPaint.setFakeBoldText((style & ConsoleStyle.BOLD) != 0);
+				_textPaint.setUnderlineText((style & ConsoleStyle.UNDERLINE) != 0);
+			}
+			canvas.drawText(_lineBuffer, run, next - run, x, baseline, _textPaint);
+			run = next;
+		}
+	}
+
+	@Override
+	protected int computeVerticalScrollRange() {
+		return Math.max(_screen.getLineCount(), _rows);
+	}
+
+	@Override
+	protected int computeVerticalScrollOffset() {
+		return topLineIndex();
+	}
+
+	@Override
+	protected int computeVerticalScrollExtent() {
+		return _rows;
 	}
 
     private boolean performCommand() {
 
+		_historyIndex = Integer.MAX_VALUE;
 		if (_commandBuilder.length() > 0) {
 			onCommand(_commandBuilder.toString());
 			_commandBuilder.delete(0, _commandBuilder.length());
@@ -136,86 +417,576 @@ public class ConsoleView extends EditText {
 		}
 	}
 
+	private boolean performEnter() {
+
+		if (_findQuery != null) {
+			showMatch(_findIndex + 1);
+			return true;
+		}
+		endSearch();
+		if (!performCommand()) {
+			return false;
+		}
+		_screen.lineFeed();
+		onContentChanged();
+		return true;
+	}
+
+	private void typeText(CharSequence text) {
+
+		if (_findQuery != null) {
+			_findQuery.append(text);
+			updateFind();
+			return;
+		}
+		if (_searchQuery != null) {
+			_searchQuery.append(text);
+			updateSearch();
+			return;
+		}
+		_commandBuilder.append(text);
+		append(text);
+	}
+
+	private boolean deleteLastChar() {
+
+		if (_findQuery != null) {
+			if (_findQuery.length() == 0) {
+				return false;
+			}
+			_findQuery.deleteCharAt(_findQuery.length() - 1);
+			updateFind();
+			return true;
+		}
+		if (_searchQuery != null) {
+			if (_searchQuery.length() == 0) {
+				return false;
+			}
+			_searchQuery.deleteCharAt(_searchQuery.length() - 1);
+			updateSearch();
+			return true;
+		}
+		if (_commandBuilder.length() == 0) {
+			return false;
+		}
+		_commandBuilder.deleteCharAt(_commandBuilder.length() - 1);
+		// back one cell and erase to the end of line
+		append("\b\u001b[K");
+		return true;
+	}
+
+	/**
+	 * Erase the command line and type another one
+	 */
+	private void replaceCommand(String command) {
+
+		StringBuilder erase = new StringBuilder();
+		for (int i = 0; i < _commandBuilder.length(); i++) {
+			erase.append('\b');
+		}
+		erase.append("\u001b[K");
+		_commandBuilder.setLength(0);
+		append(erase);
+		typeText(command);
+	}
+
+	private void showHistory(int index) {
+
+		if (index >= 0) {
+			_historyIndex = index;
+			replaceCommand(_history.get(index));
+		}
+	}
+
+	/**
+	 * Ctrl-R: start a reverse search, or go on to an older match
+	 */
+	private void searchHistory() {
+
+		if (_searchQuery == null) {
+			_searchQuery = new StringBuilder();
+			_searchMatch = -1;
+		} else if (_searchMatch >= 0) {
+			int match = _history.search(_searchQuery.toString(), _searchMatch);
+			if (match >= 0) {
+				_searchMatch = match;
+			}
+		}
+		showSearch();
+	}
+
+	/**
+	 * The query changed, search again from the newest entry
+	 */
+	private void updateSearch() {
+
+		_searchMatch = (_searchQuery.length() > 0)
+				? _history.search(_searchQuery.toString(), Integer.MAX_VALUE) : -1;
+		showSearch();
+	}
+
+	private void showSearch() {
+
+		boolean failed = _searchMatch < 0 && _searchQuery.length() > 0;
+		append("\r\u001b[K" + (failed ? "(failed reverse-i-search)`" : "(reverse-i-search)`")
+				+ _searchQuery + "': " + (_searchMatch >= 0 ? _history.get(_searchMatch) : ""));
+	}
+
+	/**
+	 * Leave the search with the match on the command line
+	 */
+	private void endSearch() {
+
+		if (_searchQuery == null) {
+			return;
+		}
+		if (_searchMatch >= 0) {
+			_historyIndex = _searchMatch;
+			_commandBuilder.setLength(0);
+			_commandBuilder.append(_history.get(_searchMatch));
+		}
+		_searchQuery = null;
+		append("\r\u001b[K" + _promptString + propmptSign + _commandBuilder);
+	}
+
+	/**
+	 * Ctrl-F: find in the scrollback, or go on to an older match
+	 */
+	private void findText() {
+
+		endSearch();
+		if (_findQuery == null) {
+			_findQuery = new StringBuilder();
+			_findIndex = -1;
+			showFind();
+		} else {
+			showMatch(_findIndex + 1);
+		}
+	}
+
+	/**
+	 * The query changed, search again from the newest line
+	 */
+	private void updateFind() {
+
+		_findIndex = -1;
+		_find.start(_findQuery.toString());
+		if (_find.getMatches().size() > 0) {
+			showMatch(0);
+		} else {
+			invalidate();
+			showFind();
+		}
+	}
+
+	/**
+	 * Scroll a match to the middle of the view
+	 * @param index newest is 0
+	 */
+	private void showMatch(int index) {
+
+		ConsoleScrollbackSearch.Matches matches = _find.getMatches();
+		if (index < 0 || index >= matches.size()) {
+			return;
+		}
+		_findIndex = index;
+		long line = matches.getLine(index);
+		if (line >= _screen.getFirstLine()) {
+			_topLine = line;
+			_topRow = matches.getColumn(index) / _columns;
+			scrollRows(-_rows / 2);
+		}
+		showFind();
+	}
+
+	private void showFind() {
+
+		int count = _find.getMatches().size();
+		String status;
+		if (_findQuery.length() == 0) {
+			status = "";
+		} else if (count == 0) {
+			status = _find.isDone() ? "not found" : "searching";
+		} else {
+			status = String.format("%d/%d%s", _findIndex + 1, count, _find.isDone() ? "" : "+");
+		}
+		append("\r\u001b[K(find)`" + _findQuery + "': " + status);
+	}
+
+	/**
+	 * Leave the search and follow the output again
+	 */
+	private void endFind() {
+
+		if (_findQuery == null) {
+			return;
+		}
+		_find.cancel();
+		_findQuery = null;
+		_findIndex = -1;
+		_follow = true;
+		append("\r\u001b[K" + _promptString + propmptSign + _commandBuilder);
+		scrollToBottom();
+		invalidate();
+	}
+
 	private void ConsoleViewInit() {
 		Log.d(DEBUG_TAG, "ConsoleViewInit");
-		setGravity(Gravity.TOP);
 		setBackgroundColor(Color.BLACK);
-		setTextColor(Color.GREEN);
-		setTextSize(11);
-		setTypeface(Typeface.MONOSPACE);
-        //setCursorVisible(false);
+		setFocusable(true);
+		setFocusableInTouchMode(true);
+		if (_history == null) {
+			_history = new ConsoleHistory(new File(getContext().getFilesDir(), HISTORY_FILE),
+					ConsoleHistory.DEFAULT_MAX_ENTRIES);
+		}
 
-		setInputType(InputType.TYPE_CLASS_TEXT
-				| InputType.TYPE_TEXT_FLAG_MULTI_LINE
-				| InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS
-				| InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD);
+		_textPaint.setColor(Color.GREEN);
+		_textPaint.setTypeface(Typeface.MONOSPACE);
+		_textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP,
+				11, getContext().getResources().getDisplayMetrics()));
+		_cursorPaint.setColor(Color.GRAY);
+		_matchPaint.setColor(0x80FFFF00);
+		_find = new ConsoleScrollbackSearch(_screen, new ConsoleHandlerDispatcher(), new ConsoleScrollbackSearch.Listener() {
 
-		// FIXME: this fix style changes when soft keyboard appears
-		setImeOptions(EditorInfo.IME_FLAG_NO_EXTRACT_UI);
-		setMovementMethod(new ScrollingMovementMethod());
+			@Override
+			public void onSearchProgress(ConsoleScrollbackSearch search) {
+
+				if (_findQuery == null) {
+					return;
+				}
+				if (_findIndex < 0 && search.getMatches().size() > 0) {
+					showMatch(0);
+				} else {
+					showFind();
+				}
+			}
+		});
+		Paint.FontMetrics fm = _textPaint.getFontMetrics();
+		_cellWidth = Math.max(1, _textPaint.measureText("M"));
+		_cellHeight = Math.max(1, (float)Math.ceil(fm.descent - fm.ascent));
+		_baseline = -fm.ascent;
+
+		_gestures = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+
+			@Override
+			public boolean onDown(MotionEvent e) {
+				_scrollRemainder = 0;
+				return true;
+			}
+
+			@Override
+			public boolean onSingleTapUp(MotionEvent e) {
+
+				requestFocus();
+				InputMethodManager imm = (InputMethodManager)getContext()
+						.getSystemService(Context.INPUT_METHOD_SERVICE);
+				imm.showSoftInput(ConsoleView.this, InputMethodManager.SHOW_IMPLICIT);
+				return true;
+			}
+
+			@Override
+			public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+
+				_scrollRemainder += distanceY / _cellHeight;
+				int rows = (int)_scrollRemainder;
+				if (rows != 0) {
+					_scrollRemainder -= rows;
+					scrollRows(rows);
+				}
+				return true;
+			}
+
+			@Override
+			public void onLongPress(MotionEvent e) {
+				performLongClick();
+			}
+		});
 
 		setOnLongClickListener(new OnLongClickListener() {
 
 			@Override
 			public boolean onLongClick(View v) {
 
-				ArrayList<String> tmp = new ArrayList<String>(_history);
+				ArrayList<String> tmp = new ArrayList<String>(_history.recent(MENU_HISTORY_SIZE));
 				tmp.add(0, "ctrl+c");
 				tmp.add(1, "clear");
+				tmp.add(2, "tab");
+				tmp.add(3, "find");
 				final String[] items =tmp.toArray(new String[0]);
-				
-				AlertDialog.Builder builder = new AlertDialog.Builder(getContext());    
+
+				AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
 				builder.setItems(items, new DialogInterface.OnClickListener() {
-				            
-					public void onClick(DialogInterface dialog, int which) {    
-						
+
+					public void onClick(DialogInterface dialog, int which) {
+
 						switch (which) {
 						case 0:
 							onCommandBreak(ConsoleBreak.CTRLC);
 							break;
+						case 2:
+							onComplete();
+							break;
+						case 3:
+							findText();
+							break;
 						case 1:
 							onCommand(items[which]);
 						default:
-							append(items[which]);
-							_commandBuilder.append(items[which]); 
+							typeText(items[which]);
 							break;
-						}    
-						
-						Toast.makeText(getContext(), 
+						}
+
+						Toast.makeText(getContext(),
 								"Send "+ items[which], Toast.LENGTH_SHORT).show();
-					}       
+					}
 				});
-				
+
 				return builder.show().isShowing();
 			}
 		});
 	}
 
+	/**
+	 * Append text to the console
+	 * @param text
+	 */
+	public void append(CharSequence text) {
+
+		_parser.append(text);
+		onContentChanged();
+	}
+
 	public void appendLine(String text) {
 
-		if (text.length() == 0) 
+		if (text.length() == 0)
 			return;
 
-		if (!text.endsWith("\n")) {	
+		if (!text.endsWith("\n")) {
 			text = "\n" + text;
 		}
 
 		append(text);
 	}
 
+	/**
+	 * Clear screen and scrollback
+	 */
+	public void clearScreen() {
+
+		_screen.clear();
+		onContentChanged();
+	}
+
+	/**
+	 * Set the scrollback limit
+	 * @param lines
+	 */
+	public void setScrollbackLines(int lines) {
+
+		_screen.getHistory().setMaxLines(lines);
+		onContentChanged();
+	}
+
 	public void set_promptString(String prompt) {
 
 		_promptString = prompt;
 		append(String.format("%s%s", _promptString, ConsoleView.propmptSign));
 	}
 
+	/**
+	 * Add a command to the history file
+	 * @param command
+	 */
 	public void addToHistory(String command) {
 		_history.add(command);
 	}
-	
+
+	/**
+	 * Complete the command line
+	 * @param text added to the line, may be empty
+	 * @param candidates listed below the line when there is no text and
+	 * more than one
+	 */
+	public void showCompletion(String text, List<String> candidates) {
+
+		if (text.length() > 0) {
+			typeText(text);
+			return;
+		}
+		if (candidates.size() < 2) {
+			return;
+		}
+		int width = 0;
+		for (String candidate : candidates) {
+			width = Math.max(width, candidate.length() + 2);
+		}
+		int perRow = Math.max(1, _columns / width);
+		StringBuilder list = new StringBuilder("\n");
+		for (int i = 0; i < candidates.size(); i++) {
+			String candidate = candidates.get(i);
+			list.append(candidate);
+			if ((i + 1) % perRow == 0 || i == candidates.size() - 1) {
+				list.append('\n');
+			} else {
+				for (int pad = candidate.length(); pad < width; pad++) {
+					list.append(' ');
+				}
+			}
+		}
+		// the prompt and the line again
+		list.append(_promptString).append(propmptSign).append(_commandBuilder);
+		append(list);
+	}
+
+	/**
+	 * Redraw after a model change. When no lines were added or evicted only
+	 * the rows from the first changed line down are invalidated.
+	 */
+	private void onContentChanged() {
+
+		int from = _screen.getDirtyFrom();
+		_screen.clearDirty();
+		if (_screen.getFirstLine() != _drawnFirstLine || _screen.getLineCount() != _drawnLineCount) {
+			_drawnFirstLine = _screen.getFirstLine();
+			_drawnLineCount = _screen.getLineCount();
+			if (_follow) {
+				scrollToBottom();
+			}
+			invalidate();
+			awakenScrollBars();
+			return;
+		}
+		if (from < 0) {
+			return;
+		}
+		int y = 0;
+		for (int i = topLineIndex(), row = topRowIndex(); y < _rows && i <= from; y++) {
+			if (i == from) {
+				invalidate(0, (int)(getPaddingTop() + y * _cellHeight), getWidth(), getHeight());
+				return;
+			}
+			if (++row >= rowsOf(i)) {
+				row = 0;
+				i++;
+			}
+		}
+		if (from < topLineIndex()) {
+			invalidate();
+		}
+	}
+
+	/**
+	 * Move the viewport
+	 * @param delta rows, positive scrolls towards the end
+	 */
+	private void scrollRows(int delta) {
+
+		int line = topLineIndex();
+		int row = topRowIndex();
+		int last = _screen.getLineCount() - 1;
+		while (delta < 0) {
+			if (row > 0) {
+				row--;
+			} else if (line > 0) {
+				line--;
+				row = rowsOf(line) - 1;
+			} else {
+				break;
+			}
+			delta++;
+		}
+		while (delta > 0 && line <= last) {
+			if (++row >= rowsOf(line)) {
+				row = 0;
+				line++;
+			}
+			delta--;
+		}
+		_topLine = _screen.getFirstLine() + line;
+		_topRow = row;
+		// clamp at the bottom and resume following the output
+		long bottomLine = _topLine;
+		int bottomRow = _topRow;
+		scrollToBottom();
+		if (bottomLine < _topLine || (bottomLine == _topLine && bottomRow < _topRow)) {
+			_topLine = bottomLine;
+			_topRow = bottomRow;
+			_follow = false;
+		} else {
+			_follow = true;
+		}
+		invalidate();
+		awakenScrollBars();
+	}
+
+	/**
+	 * Anchor the viewport so the last line ends on the last row
+	 */
+	private void scrollToBottom() {
+
+		int line = _screen.getLineCount() - 1;
+		int rows = rowsOf(line);
+		int remaining = _rows;
+		while (rows < remaining && line > 0) {
+			remaining -= rows;
+			line--;
+			rows = rowsOf(line);
+		}
+		_topLine = _screen.getFirstLine() + line;
+		_topRow = Math.max(0, rows - remaining);
+	}
+
+	/**
+	 * @return scrollback index of the viewport top line
+	 */
+	private int topLineIndex() {
+
+		long index = _topLine - _screen.getFirstLine();
+		if (index < 0) {
+			// anchor was evicted
+			return 0;
+		}
+		return (int)Math.min(index, _screen.getLineCount() - 1);
+	}
+
+	/**
+	 * @return wrapped row of the viewport top line
+	 */
+	private int topRowIndex() {
+
+		if (_topLine < _screen.getFirstLine()) {
+			return 0;
+		}
+		return Math.min(_topRow, rowsOf(topLineIndex()) - 1);
+	}
+
+	/**
+	 * @return number of screen rows a scrollback line takes
+	 */
+	private int rowsOf(int line) {
+
+		int rows = Math.max(1, (_screen.getLineLength(line) + _columns - 1) / _columns);
+		if (line == _screen.getCursorLine()) {
+			// room for the cursor
+			rows = Math.max(rows, _screen.getCursorColumn() / _columns + 1);
+		}
+		return rows;
+	}
+
+	private int loadLine(int line) {
+
+		int length = _screen.getLineLength(line);
+		if (length > _lineBuffer.length) {
+			_lineBuffer = new char[Math.max(length, _lineBuffer.length * 2)];
+			_styleBuffer = new int[_lineBuffer.length];
+		}
+		_screen.getStyles(line, _styleBuffer, 0);
+		return _screen.getLine(line, _lineBuffer, 0);
+	}
+
 	/**
 	 * {@link ConsoleCommandListener}
-	 * 
+	 *
 	 * @param ConsoleCommandListener
 	 */
 	public void addConsoleCommandListener(ConsoleCommandListener listener) {
@@ -229,12 +1000,28 @@ public class ConsoleView extends EditText {
 	}
 
 	void onCommand(String command) {
-		
+
 		for (ConsoleCommandListener commandListener : commandListeners) {
 			commandListener.onCommand(command);
 		}
 	}
 
+	void onComplete() {
+
+		endSearch();
+		endFind();
+		for (ConsoleCommandListener commandListener : commandListeners) {
+			commandListener.onComplete(_commandBuilder.toString());
+		}
+	}
+
+	void onControl(char c) {
+
+		for (ConsoleCommandListener commandListener : commandListeners) {
+			commandListener.onControl(c);
+		}
+	}
+
 	void onCommandBreak(ConsoleBreak type) {
 
 		for (ConsoleCommandListener commandListener : commandListeners) {
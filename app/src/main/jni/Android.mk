@@ -1,8 +1,8 @@
 LOCAL_PATH := $(call my-dir)
 include $(CLEAR_VARS) 
 # give module name
-LOCAL_MODULE    := hello 
+LOCAL_MODULE    := bterminal
 # list your C files to compile
-LOCAL_SRC_FILES := hello.c
-# this option will build executables instead of building library for android application.
-include $(BUILD_EXECUTABLE)
+LOCAL_SRC_FILES := pty.c
+# pseudo-terminal support library loaded by com.bsapundzhiev.console.ConsolePty
+include $(BUILD_SHARED_LIBRARY)
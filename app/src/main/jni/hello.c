@@ -1,7 +0,0 @@
-#include <stdio.h>
-#include <unistd.h>
-#include <sys/types.h>
-int main() {
-	printf("Hello %d:%d\n", getuid(), getgid() );
-	return 0;
-}
\ No newline at end of file
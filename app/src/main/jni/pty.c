@@ -0,0 +1,474 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ *
+ * Pseudo-terminal sessions for com.bsapundzhiev.console.ConsolePty
+ */
+#define _GNU_SOURCE
+#include <jni.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <signal.h>
+#include <termios.h>
+#include <unistd.h>
+#include <poll.h>
+#include <sys/ioctl.h>
+#include <sys/types.h>
+#include <sys/wait.h>
+
+extern char **environ;
+
+/* no new exception while one is pending, e.g. OutOfMemoryError from the VM */
+static void throw_io_exception(JNIEnv *env, const char *what)
+{
+	char msg[256];
+	jclass cls;
+
+	if ((*env)->ExceptionCheck(env)) {
+		return;
+	}
+	snprintf(msg, sizeof(msg), "%s: %s", what, strerror(errno));
+	cls = (*env)->FindClass(env, "java/io/IOException");
+	if (cls != NULL) {
+		(*env)->ThrowNew(env, cls, msg);
+	}
+}
+
+static void free_strings(char **strings);
+
+/*
+ * copy a java String[] into a NULL terminated array, free with free_strings
+ * returns 0, or -1 when out of memory. A null array gives NULL.
+ */
+static int copy_strings(JNIEnv *env, jobjectArray array, char ***result)
+{
+	int i, count;
+	char **strings;
+
+	*result = NULL;
+	if (array == NULL) {
+		return 0;
+	}
+	count = (*env)->GetArrayLength(env, array);
+	strings = calloc(count + 1, sizeof(char *));
+	if (strings == NULL) {
+		return -1;
+	}
+	for (i = 0; i < count; i++) {
+		jstring s = (jstring) (*env)->GetObjectArrayElement(env, array, i);
+		const char *utf = (*env)->GetStringUTFChars(env, s, NULL);
+		if (utf != NULL) {
+			strings[i] = strdup(utf);
+			(*env)->ReleaseStringUTFChars(env, s, utf);
+		}
+		(*env)->DeleteLocalRef(env, s);
+		if (strings[i] == NULL) {
+			free_strings(strings);
+			return -1;
+		}
+	}
+	*result = strings;
+	return 0;
+}
+
+static void free_strings(char **strings)
+{
+	char **p;
+
+	if (strings == NULL) {
+		return;
+	}
+	for (p = strings; *p != NULL; p++) {
+		free(*p);
+	}
+	free(strings);
+}
+
+/* path of cmd in the PATH of envv, or of this process when envv is NULL */
+static char *find_command(const char *cmd, char **envv)
+{
+	const char *dirs = NULL, *dir, *end;
+	size_t len = strlen(cmd);
+	char **e, *path;
+
+	if (strchr(cmd, '/') != NULL) {
+		return strdup(cmd);
+	}
+	if (envv == NULL) {
+		dirs = getenv("PATH");
+	}
+	for (e = envv; e != NULL && *e != NULL; e++) {
+		if (strncmp(*e, "PATH=", 5) == 0) {
+			dirs = *e + 5;
+			break;
+		}
+	}
+	for (dir = (dirs == NULL) ? "" : dirs; *dir != '\0'; dir = (*end == '\0') ? end : end + 1) {
+		end = strchr(dir, ':');
+		if (end == NULL) {
+			end = dir + strlen(dir);
+		}
+		if (end == dir) {
+			continue;
+		}
+		path = malloc((end - dir) + len + 2);
+		if (path == NULL) {
+			return NULL;
+		}
+		memcpy(path, dir, end - dir);
+		path[end - dir] = '/';
+		memcpy(path + (end - dir) + 1, cmd, len + 1);
+		if (access(path, X_OK) == 0) {
+			return path;
+		}
+		free(path);
+	}
+	/* not found, execve reports it */
+	return strdup(cmd);
+}
+
+/* write to stderr in the child, async-signal-safe */
+static void child_write(const char *s)
+{
+	size_t len = strlen(s);
+
+	while (len > 0) {
+		ssize_t n = write(2, s, len);
+		if (n <= 0) {
+			if (n < 0 && errno == EINTR) {
+				continue;
+			}
+			return;
+		}
+		s += n;
+		len -= n;
+	}
+}
+
+/* report a failure in the child, strerror is not async-signal-safe */
+static void child_error(const char *what, int err)
+{
+	const char *msg;
+
+	switch (err) {
+	case ENOENT:
+		msg = "No such file or directory";
+		break;
+	case EACCES:
+		msg = "Permission denied";
+		break;
+	case ENOEXEC:
+		msg = "Exec format error";
+		break;
+	case ENOTDIR:
+		msg = "Not a directory";
+		break;
+	case E2BIG:
+		msg = "Argument list too long";
+		break;
+	default:
+		msg = "Can not execute";
+		break;
+	}
+	child_write(what);
+	child_write(": ");
+	child_write(msg);
+	child_write("\n");
+}
+
+static int open_master(void)
+{
+	struct termios tios;
+	int ptm = open("/dev/ptmx", O_RDWR);
+
+	if (ptm < 0) {
+		return -1;
+	}
+	fcntl(ptm, F_SETFD, FD_CLOEXEC);
+	/* reads and writes wait in poll, where closing the wake pipe ends them */
+	fcntl(ptm, F_SETFL, fcntl(ptm, F_GETFL) | O_NONBLOCK);
+	if (grantpt(ptm) != 0 || unlockpt(ptm) != 0 || ptsname(ptm) == NULL) {
+		close(ptm);
+		return -1;
+	}
+	/* the view echoes the command line itself */
+	if (tcgetattr(ptm, &tios) == 0) {
+		tios.c_lflag &= ~(ECHO | ECHONL);
+		tcsetattr(ptm, TCSANOW, &tios);
+	}
+	return ptm;
+}
+
+/*
+ * int createSubprocess(String cmd, String[] args, String[] env, String cwd,
+ *         int rows, int cols, int[] processId)
+ */
+JNIEXPORT jint JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_createSubprocess(JNIEnv *env, jclass clazz,
+		jstring cmd, jobjectArray args, jobjectArray envp, jstring cwd,
+		jint rows, jint cols, jintArray processId)
+{
+	struct winsize size;
+	const char *cmd_utf = NULL, *cwd_utf = NULL;
+	const char *what = "fork";
+	char *slave_name, *path = NULL;
+	char **argv = NULL, **envv = NULL;
+	sigset_t unblocked;
+	pid_t pid = -1;
+	int ptm, err;
+
+	ptm = open_master();
+	if (ptm < 0) {
+		throw_io_exception(env, "open /dev/ptmx");
+		return -1;
+	}
+
+	memset(&size, 0, sizeof(size));
+	size.ws_row = rows;
+	size.ws_col = cols;
+	ioctl(ptm, TIOCSWINSZ, &size);
+
+	/* everything the child needs is prepared here, after fork it may
+	 * only make async-signal-safe calls */
+	slave_name = strdup(ptsname(ptm));
+	cmd_utf = (*env)->GetStringUTFChars(env, cmd, NULL);
+	if (cwd != NULL) {
+		cwd_utf = (*env)->GetStringUTFChars(env, cwd, NULL);
+	}
+	if (slave_name == NULL || cmd_utf == NULL || (cwd != NULL && cwd_utf == NULL)
+			|| copy_strings(env, args, &argv) != 0 || copy_strings(env, envp, &envv) != 0
+			|| (path = find_command(cmd_utf, envv)) == NULL) {
+		what = "createSubprocess";
+		errno = ENOMEM;
+		goto out;
+	}
+	sigemptyset(&unblocked);
+
+	pid = fork();
+	if (pid == 0) {
+		int fd, pts;
+
+		/* new session, the slave becomes the controlling terminal */
+		setsid();
+		pts = open(slave_name, O_RDWR);
+		if (pts < 0) {
+			_exit(127);
+		}
+		dup2(pts, 0);
+		dup2(pts, 1);
+		dup2(pts, 2);
+		for (fd = sysconf(_SC_OPEN_MAX) - 1; fd > 2; fd--) {
+			close(fd);
+		}
+		/* the mask and the ignored signals of the VM are inherited */
+		signal(SIGINT, SIG_DFL);
+		signal(SIGQUIT, SIG_DFL);
+		signal(SIGPIPE, SIG_DFL);
+		sigprocmask(SIG_SETMASK, &unblocked, NULL);
+		if (cwd_utf != NULL && chdir(cwd_utf) != 0) {
+			child_error(cwd_utf, errno);
+			_exit(127);
+		}
+		execve(path, argv, (envv != NULL) ? envv : environ);
+		child_error(cmd_utf, errno);
+		_exit(127);
+	}
+
+out:
+	err = errno;
+	if (cmd_utf != NULL) {
+		(*env)->ReleaseStringUTFChars(env, cmd, cmd_utf);
+	}
+	if (cwd_utf != NULL) {
+		(*env)->ReleaseStringUTFChars(env, cwd, cwd_utf);
+	}
+	free_strings(argv);
+	free_strings(envv);
+	free(slave_name);
+	free(path);
+
+	if (pid < 0) {
+		errno = err;
+		throw_io_exception(env, what);
+		close(ptm);
+		return -1;
+	}
+	(*env)->SetIntArrayRegion(env, processId, 0, 1, (jint *) &pid);
+	return ptm;
+}
+
+/*
+ * wait until fd is ready or the wake pipe is closed
+ * returns 1 when ready, 0 when woken, -1 on error
+ */
+static int wait_ready(int fd, short events, int wake)
+{
+	struct pollfd fds[2];
+
+	fds[0].fd = fd;
+	fds[0].events = events;
+	fds[1].fd = wake;
+	fds[1].events = POLLIN;
+	while (poll(fds, 2, -1) < 0) {
+		if (errno != EINTR) {
+			return -1;
+		}
+	}
+	return (fds[1].revents != 0) ? 0 : 1;
+}
+
+/*
+ * void createPipe(int[] fds)
+ */
+JNIEXPORT void JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_createPipe(JNIEnv *env, jclass clazz, jintArray fds)
+{
+	int p[2];
+
+	if (pipe(p) != 0) {
+		throw_io_exception(env, "pipe");
+		return;
+	}
+	fcntl(p[0], F_SETFD, FD_CLOEXEC);
+	fcntl(p[1], F_SETFD, FD_CLOEXEC);
+	(*env)->SetIntArrayRegion(env, fds, 0, 2, (jint *) p);
+}
+
+/*
+ * int read(int fd, int wake, byte[] buffer, int offset, int length)
+ * returns -1 at the end of output, once the slave is closed, or when woken
+ */
+JNIEXPORT jint JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_read(JNIEnv *env, jclass clazz,
+		jint fd, jint wake, jbyteArray buffer, jint offset, jint length)
+{
+	jbyte buf[8192];
+	ssize_t n;
+
+	if (length <= 0) {
+		return 0;
+	}
+	for (;;) {
+		int ready = wait_ready(fd, POLLIN, wake);
+		if (ready <= 0) {
+			if (ready < 0) {
+				throw_io_exception(env, "poll");
+			}
+			return -1;
+		}
+		n = read(fd, buf, (length < (jint) sizeof(buf)) ? length : (jint) sizeof(buf));
+		if (n > 0) {
+			(*env)->SetByteArrayRegion(env, buffer, offset, n, buf);
+			return n;
+		}
+		if (n == 0 || errno == EIO) {
+			return -1;
+		}
+		if (errno != EINTR && errno != EAGAIN) {
+			throw_io_exception(env, "read");
+			return -1;
+		}
+	}
+}
+
+/*
+ * void write(int fd, int wake, byte[] buffer, int offset, int length)
+ */
+JNIEXPORT void JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_write(JNIEnv *env, jclass clazz,
+		jint fd, jint wake, jbyteArray buffer, jint offset, jint length)
+{
+	jbyte buf[8192];
+
+	while (length > 0) {
+		jint count = (length < (jint) sizeof(buf)) ? length : (jint) sizeof(buf);
+		jint done = 0;
+
+		(*env)->GetByteArrayRegion(env, buffer, offset, count, buf);
+		while (done < count) {
+			ssize_t n;
+			int ready = wait_ready(fd, POLLOUT, wake);
+			if (ready <= 0) {
+				if (ready == 0) {
+					errno = EBADF;
+				}
+				throw_io_exception(env, "write");
+				return;
+			}
+			n = write(fd, buf + done, count - done);
+			if (n < 0) {
+				if (errno == EINTR || errno == EAGAIN) {
+					continue;
+				}
+				throw_io_exception(env, "write");
+				return;
+			}
+			done += n;
+		}
+		offset += count;
+		length -= count;
+	}
+}
+
+/*
+ * void setWindowSize(int fd, int rows, int cols)
+ */
+JNIEXPORT void JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_setWindowSize(JNIEnv *env, jclass clazz,
+		jint fd, jint rows, jint cols)
+{
+	struct winsize size;
+
+	memset(&size, 0, sizeof(size));
+	size.ws_row = rows;
+	size.ws_col = cols;
+	ioctl(fd, TIOCSWINSZ, &size);
+}
+
+/*
+ * int waitFor(int pid)
+ */
+JNIEXPORT jint JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_waitFor(JNIEnv *env, jclass clazz, jint pid)
+{
+	int status = 0;
+
+	while (waitpid(pid, &status, 0) < 0) {
+		if (errno != EINTR) {
+			return -1;
+		}
+	}
+	if (WIFEXITED(status)) {
+		return WEXITSTATUS(status);
+	}
+	if (WIFSIGNALED(status)) {
+		return 128 + WTERMSIG(status);
+	}
+	return 0;
+}
+
+/*
+ * void sendSignal(int pid, int signal)
+ */
+JNIEXPORT void JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_sendSignal(JNIEnv *env, jclass clazz,
+		jint pid, jint sig)
+{
+	kill(pid, sig);
+}
+
+/*
+ * void close(int fd)
+ */
+JNIEXPORT void JNICALL
+Java_com_bsapundzhiev_console_ConsolePty_close(JNIEnv *env, jclass clazz, jint fd)
+{
+	close(fd);
+}
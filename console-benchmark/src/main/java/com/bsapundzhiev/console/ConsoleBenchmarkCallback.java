@@ -0,0 +1,55 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Counts the delivered output and lets the benchmark thread wait for the
+ * end of a command
+ */
+class ConsoleBenchmarkCallback implements IConsoleCommandExecuterCallback {
+
+	private final Semaphore ended = new Semaphore(0);
+	private volatile long chars = 0;
+
+	@Override
+	public void onOutput(String output) {
+		chars += output.length();
+	}
+
+	@Override
+	public void onProcessOutput(String line) {
+		chars += line.length();
+	}
+
+	@Override
+	public void onProcessEnd(String workingDirectory) {
+		ended.release();
+	}
+
+	@Override
+	public void onClearScreen() {
+	}
+
+	@Override
+	public void onProcessExit() {
+	}
+
+	/**
+	 * Run a command and wait until its prompt would be shown
+	 * @return chars delivered so far
+	 */
+	long run(ConsoleCommandExecuter executer, String command) throws InterruptedException {
+
+		executer.execute(command, this);
+		ended.acquire();
+		return chars;
+	}
+}
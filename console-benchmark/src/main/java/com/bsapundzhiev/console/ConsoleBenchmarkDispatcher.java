@@ -0,0 +1,46 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for the UI thread of the app: one thread that runs the posted
+ * tasks in order
+ */
+class ConsoleBenchmarkDispatcher implements IConsoleDispatcher {
+
+	private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ui");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	@Override
+	public void post(Runnable task) {
+		thread.execute(task);
+	}
+
+	@Override
+	public void postDelayed(Runnable task, long delayMillis) {
+		thread.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void shutdown() {
+		thread.shutdownNow();
+	}
+}
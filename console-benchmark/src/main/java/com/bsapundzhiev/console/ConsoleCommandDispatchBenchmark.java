@@ -0,0 +1,83 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builtin command latency: parsing and lookup alone, and a whole
+ * {@link ConsoleCommandExecuter#execute} up to the end callback on the
+ * UI thread, which is when the next prompt shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsoleCommandDispatchBenchmark {
+
+	@Param({ "pwd", "echo a b c", "help | wc -l" })
+	public String command;
+
+	private ConsoleBenchmarkDispatcher dispatcher;
+	private ConsoleCommandExecuter executer;
+	private ConsoleCommandFactory factory;
+	private final ConsoleBenchmarkCallback callback = new ConsoleBenchmarkCallback();
+
+	@Setup
+	public void setUp() throws InterruptedException {
+
+		dispatcher = new ConsoleBenchmarkDispatcher();
+		executer = new ConsoleCommandExecuter(dispatcher);
+		executer.setPersistentShell(false);
+		// the app starts in an Android directory
+		callback.run(executer, "cd " + System.getProperty("java.io.tmpdir"));
+		IBtermCommand nop = new IBtermCommand() {
+
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) {
+				return 0;
+			}
+		};
+		factory = new ConsoleCommandFactory();
+		factory.addCommand("pwd", nop);
+		factory.addCommand("echo", nop);
+	}
+
+	@TearDown
+	public void tearDown() {
+		dispatcher.shutdown();
+	}
+
+	@Benchmark
+	public Object lookup() throws ParseException {
+
+		ConsoleCommandLine line = ConsoleCommandParser.parse(command);
+		return line.isSimple() ? factory.getCommandFor(line.commands.get(0).getArgs(), false) : line;
+	}
+
+	@Benchmark
+	public long execute() throws InterruptedException {
+		return callback.run(executer, command);
+	}
+}
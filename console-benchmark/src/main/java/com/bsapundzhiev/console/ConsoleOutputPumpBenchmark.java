@@ -0,0 +1,171 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Output throughput: 4 MB of text decoded by {@link ConsoleOutputPump},
+ * into a sink that drops it and through the per-frame batching of
+ * {@link ConsoleOutputDispatcher} to a callback on the UI thread, where
+ * flood mode sends it to a spool file instead. {@link #byteAtATime} is
+ * the consumer the pump replaced, as the baseline of {@link #decode}.
+ * The text comes from memory or from an unbuffered file stream, which
+ * costs a system call per read like the pipe of a process on Android.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsoleOutputPumpBenchmark {
+
+	private static final int SIZE = 4 * 1024 * 1024;
+
+	/** ascii, or text with two and three byte sequences */
+	@Param({ "ascii", "utf8" })
+	public String text;
+
+	/** memory, or file for a system call per read */
+	@Param({ "memory", "file" })
+	public String source;
+
+	private byte[] data;
+	private File file;
+	private ConsoleBenchmarkDispatcher dispatcher;
+	private final ConsoleBenchmarkCallback consumer = new ConsoleBenchmarkCallback();
+	private final File spoolDir = new File(System.getProperty("java.io.tmpdir"), "spool-benchmark");
+
+	@Setup
+	public void setUp() throws IOException {
+
+		String line = text.equals("ascii") ? "drwxr-xr-x root     root              2014-01-01 12:00 system\n"
+				: "\u0444\u0430\u0439\u043b \u6587\u4ef6 \u03b1\u03c1\u03c7\u03b5\u03af\u03bf fichier \u30d5\u30a1\u30a4\u30eb dosya\n";
+		StringBuilder sb = new StringBuilder(SIZE);
+		while (sb.length() < SIZE) {
+			sb.append(line);
+		}
+		data = sb.toString().getBytes(Charset.forName("UTF-8"));
+		dispatcher = new ConsoleBenchmarkDispatcher();
+		if (source.equals("file")) {
+			file = File.createTempFile("pump-benchmark", null);
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		dispatcher.shutdown();
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	private InputStream open() throws IOException {
+		return (file != null) ? new FileInputStream(file) : new ByteArrayInputStream(data);
+	}
+
+	@Benchmark
+	public void decode(final Blackhole blackhole) throws IOException {
+
+		InputStream in = open();
+		try {
+			new ConsoleOutputPump(in, new IConsoleOutputSink() {
+
+				@Override
+				public void write(char[] chars, int offset, int length) {
+					blackhole.consume(chars);
+				}
+			}).run();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The consumer before the pump: one read() per byte, a char per byte
+	 * without decoding, a String posted whenever available() was 0 or 1024
+	 * chars were collected
+	 */
+	@Benchmark
+	public void byteAtATime(Blackhole blackhole) throws IOException {
+
+		InputStream in = open();
+		try {
+			StringBuilder output = new StringBuilder();
+			for (int c = 0; (c = in.read()) != -1; ) {
+				output.append((char)c);
+				if (in.available() == 0 || output.length() == 1024) {
+					blackhole.consume(output.toString());
+					output.setLength(0);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public void deliver() throws InterruptedException, IOException {
+		deliver(new ConsoleOutputDispatcher(consumer, dispatcher));
+	}
+
+	@Benchmark
+	public void deliverFlood() throws InterruptedException, IOException {
+		deliver(new ConsoleOutputDispatcher(consumer, dispatcher, spoolDir, 24, null));
+	}
+
+	private void deliver(ConsoleOutputDispatcher output) throws InterruptedException, IOException {
+
+		InputStream in = open();
+		try {
+			new ConsoleOutputPump(in, output).run();
+		} finally {
+			in.close();
+		}
+		output.drain();
+		// the UI thread runs the tasks in order, the output is out after this one
+		final CountDownLatch delivered = new CountDownLatch(1);
+		dispatcher.post(new Runnable() {
+
+			@Override
+			public void run() {
+				delivered.countDown();
+			}
+		});
+		delivered.await();
+	}
+}
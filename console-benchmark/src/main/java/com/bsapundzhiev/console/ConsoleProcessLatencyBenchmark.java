@@ -0,0 +1,70 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end latency of an external command: from
+ * {@link ConsoleCommandExecuter#execute} through the process start, its
+ * output and exit to the end callback on the UI thread. With the session
+ * on the command goes to the long-lived shell instead of a new process.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsoleProcessLatencyBenchmark {
+
+	@Param({ "off", "on" })
+	public String session;
+
+	@Param({ "/bin/echo hello", "/bin/sh -c 'echo hello'", "/bin/sh -c 'seq 1 10000'" })
+	public String command;
+
+	private ConsoleBenchmarkDispatcher dispatcher;
+	private ConsoleCommandExecuter executer;
+	private final ConsoleBenchmarkCallback callback = new ConsoleBenchmarkCallback();
+
+	@Setup
+	public void setUp() throws InterruptedException {
+
+		dispatcher = new ConsoleBenchmarkDispatcher();
+		executer = new ConsoleCommandExecuter(dispatcher);
+		executer.setPersistentShell(session.equals("on"));
+		// the app starts in an Android directory
+		callback.run(executer, "cd " + System.getProperty("java.io.tmpdir"));
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		executer.setPersistentShell(false);
+		dispatcher.shutdown();
+	}
+
+	@Benchmark
+	public long execute() throws InterruptedException {
+		return callback.run(executer, command);
+	}
+}
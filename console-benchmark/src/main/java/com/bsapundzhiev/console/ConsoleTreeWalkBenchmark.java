@@ -0,0 +1,121 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The parallel find and grep -r builtins against the external commands
+ * found in PATH, run at the console on a tree of 2048 files of 8 KB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsoleTreeWalkBenchmark {
+
+	private static final int DIRS = 8;
+	private static final int FILES = 32;
+	private static final int LINES = 128;
+
+	@Param({ "builtin", "external" })
+	public String tool;
+
+	@Param({ "find . -name '*7.txt'", "grep -r needle ." })
+	public String command;
+
+	private File tree;
+	private String line;
+	private ConsoleBenchmarkDispatcher dispatcher;
+	private ConsoleCommandExecuter executer;
+	private final ConsoleBenchmarkCallback callback = new ConsoleBenchmarkCallback();
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException {
+
+		tree = File.createTempFile("tree", "");
+		if (!tree.delete() || !tree.mkdir()) {
+			throw new IOException("can not create " + tree);
+		}
+		for (int i = 0; i < DIRS; i++) {
+			for (int j = 0; j < DIRS; j++) {
+				File dir = new File(tree, String.format("d%d/d%d", i, j));
+				if (!dir.mkdirs()) {
+					throw new IOException("can not create " + dir);
+				}
+				for (int k = 0; k < FILES; k++) {
+					OutputStream out = new FileOutputStream(new File(dir, String.format("f%d.txt", k)));
+					try {
+						for (int n = 0; n < LINES; n++) {
+							String s = String.format("%-63s\n", (n % 100 == 0) ? "a needle in line " + n
+									: "line " + n + " of some text");
+							out.write(s.getBytes("US-ASCII"));
+						}
+					} finally {
+						out.close();
+					}
+				}
+			}
+		}
+		line = command;
+		if (tool.equals("external")) {
+			String name = command.substring(0, command.indexOf(' '));
+			String path = new ConsoleProcessBuilder().which(name);
+			if (path == null) {
+				throw new IllegalStateException(name + " not found in PATH");
+			}
+			line = path + command.substring(name.length());
+		}
+		dispatcher = new ConsoleBenchmarkDispatcher();
+		executer = new ConsoleCommandExecuter(dispatcher);
+		executer.setPersistentShell(false);
+		callback.run(executer, "cd " + tree.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		dispatcher.shutdown();
+		delete(tree);
+	}
+
+	private static void delete(File file) {
+
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	@Benchmark
+	public long execute() throws InterruptedException {
+		return callback.run(executer, line);
+	}
+}
@@ -0,0 +1,865 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ * 
+ *  Licensed under GNU General Public License 3.0 or later. 
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Console job producer, runs on the executer thread pool
+ */
+class ConsoleCommandTaskExecuter implements Runnable {
+
+	private final Runnable startTask;
+	private final Runnable endTask;  
+	public  final Object callback;
+	private final IConsoleDispatcher dispatcher;
+	private final Future<?> future;
+	private volatile boolean started = false;
+	private boolean ended = false;
+
+	ConsoleCommandTaskExecuter(ExecutorService executor, IConsoleDispatcher dispatcher,
+			Runnable start, Runnable end, Object callback) {
+
+		this.dispatcher = dispatcher;
+		this.startTask = start;
+		this.endTask = end;  
+		this.callback = callback; 
+		this.future = executor.submit(this);
+	}
+
+	@Override
+	public void run() {
+		started = true;
+		startTask.run();	
+		postEnd();
+	}
+
+	/**
+	 * Interrupt the task, a task still in the queue only runs its end
+	 */
+	public void interrupt() {
+
+		if (!started && future.cancel(false)) {
+			postEnd();
+		} else {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Give the console back while the task is stuck after an interrupt,
+	 * the thread is left to finish on its own
+	 */
+	public void abandon() {
+		postEnd();
+	}
+
+	private void postEnd() {
+
+		synchronized (this) {
+			if (ended) {
+				return;
+			}
+			ended = true;
+		}
+		postCallback(endTask);
+	}
+
+	/**
+	 * Synch UI thread
+	 */
+	public void postCallback(Runnable cb) {
+		dispatcher.post(cb); 
+	}
+}
+
+public class ConsoleCommandExecuter {
+
+	/** background jobs running at once, one more is refused */
+	static final int MAX_BACKGROUND_JOBS = 8;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private String DEBUG_TAG = "CommandExecuter";
+	private final IConsoleDispatcher dispatcher;
+	private ConsoleProcessBuilder consoleProcBuilder = new ConsoleProcessBuilder();
+	/** threads of the background jobs, a job is started when it gets a slot */
+	private final ThreadPoolExecutor backgroundPool = new ThreadPoolExecutor(MAX_BACKGROUND_JOBS,
+			MAX_BACKGROUND_JOBS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	private final Semaphore backgroundSlots = new Semaphore(MAX_BACKGROUND_JOBS);
+	/**
+	 * The foreground command, never queued behind background jobs, so
+	 * jobs, fg and kill always run. A command abandoned after Break keeps
+	 * its thread until it ends.
+	 */
+	private final ExecutorService foregroundPool = Executors.newCachedThreadPool();
+	/**
+	 * Pipeline copy tasks and builtin stages, they may block on each other,
+	 * and the output reader of the shell session
+	 */
+	private final ExecutorService plumbing = Executors.newCachedThreadPool();
+	private final ConsoleJobTable jobs = new ConsoleJobTable(plumbing);
+	/** deadlines of timeout and Break, leftovers of exited commands */
+	private final ConsoleWatchdog watchdog = new ConsoleWatchdog(jobs);
+	/** output of floods, the app cache directory on Android */
+	private final File spoolDir = new File(System.getProperty("java.io.tmpdir"), "spool");
+	private final ConsoleRecorder recorder = new ConsoleRecorder();
+	private volatile ConsoleCommandTaskExecuter currentTask;
+	/** job reading the console input, set on the UI thread */
+	private volatile ConsoleJob foregroundJob;
+	private volatile ConsoleShellSession shellSession = new ConsoleShellSession(consoleProcBuilder, plumbing);
+	
+	private ConsoleCommandFactory _commandFactory = new ConsoleCommandFactory();
+	private final ConsoleCompleter completer;
+	
+	/**
+	 * @param dispatcher runs the callbacks on the UI thread
+	 */
+	public ConsoleCommandExecuter(IConsoleDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+		backgroundPool.allowCoreThreadTimeOut(true);
+		//TODO: init commands
+		_commandFactory.addCommand("cd", new IBtermCommand() {
+			@Override
+			public int exec(String params[], ConsoleCommandIO io) throws InterruptedException {
+				String dir = (params.length == 1) ? File.separator : params[1];
+				try {
+					consoleProcBuilder.changeDir(dir);
+				} catch (Exception e) {
+					io.println(e.getMessage());
+					return 1;
+				}
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("pwd", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				io.println(consoleProcBuilder.getCurrentWorkingDir());
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("echo", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				for(int i=1; i < params.length; i++) {
+					io.print(String.format("%s ", params[i]));
+				}
+				io.print("\n");
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("session", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				if (params.length > 1) {
+					setPersistentShell(params[1].equalsIgnoreCase("on"));
+				}
+				io.println(String.format("session %s", (shellSession != null) ? "on" : "off"));
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("jobs", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				for (ConsoleJob job : jobs.list()) {
+					if (job.isBackground()) {
+						io.println(job.toString());
+					}
+				}
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("fg", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				ConsoleJob job = jobs.find((params.length > 1) ? params[1] : null);
+				if (job == null || !job.isBackground()) {
+					io.println("fg: no such job");
+					return 1;
+				}
+				job.setBackground(false);
+				// console input and Break go to the job until it ends
+				foregroundJob = job;
+				if (job.getState() == ConsoleJob.STOPPED) {
+					job.signal(ConsoleJob.SIGCONT);
+				}
+				return job.waitFor();
+			}
+		});
+		_commandFactory.addCommand("bg", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				ConsoleJob job = jobs.find((params.length > 1) ? params[1] : null);
+				if (job == null || !job.isBackground()) {
+					io.println("bg: no such job");
+				} else if (job.signal(ConsoleJob.SIGCONT)) {
+					io.println(job.toString());
+					return 0;
+				} else {
+					io.println("bg: can not resume job");
+				}
+				return 1;
+			}
+		});
+		_commandFactory.addCommand("kill", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				int signal = ConsoleJob.SIGTERM;
+				int i = 1;
+				if (i < params.length && params[i].equals("-s") && i + 1 < params.length) {
+					signal = ConsoleJob.parseSignal(params[i + 1]);
+					i += 2;
+				} else if (i < params.length && params[i].startsWith("-")) {
+					signal = ConsoleJob.parseSignal(params[i].substring(1));
+					i++;
+				}
+				if (signal < 0 || i == params.length) {
+					io.println("usage: kill [-s SIG | -SIG] %job|pid ...");
+					return 2;
+				}
+				int status = 0;
+				for (; i < params.length; i++) {
+					if (!kill(params[i], signal, io)) {
+						status = 1;
+					}
+				}
+				return status;
+			}
+		});
+		_commandFactory.addCommand("which", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				int status = 0;
+				for (int i = 1; i < params.length; i++) {
+					String executable = consoleProcBuilder.which(params[i]);
+					if (executable != null) {
+						io.println(executable);
+					} else {
+						status = 1;
+					}
+				}
+				return status;
+			}
+		});
+		_commandFactory.addCommand("type", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				int status = 0;
+				for (int i = 1; i < params.length; i++) {
+					String executable;
+					if (_commandFactory.getCommand(params[i]) != null) {
+						io.println(String.format("%s is a shell builtin", params[i]));
+					} else if ((executable = consoleProcBuilder.which(params[i])) != null) {
+						io.println(String.format("%s is %s", params[i], executable));
+					} else {
+						io.println(String.format("type: %s: not found", params[i]));
+						status = 1;
+					}
+				}
+				return status;
+			}
+		});
+		_commandFactory.addCommand("hash", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				if (params.length > 1 && params[1].equals("-r")) {
+					consoleProcBuilder.rehash();
+					return 0;
+				}
+				int status = 0;
+				for (int i = 1; i < params.length; i++) {
+					if (consoleProcBuilder.which(params[i]) == null) {
+						io.println(String.format("hash: %s: not found", params[i]));
+						status = 1;
+					}
+				}
+				return status;
+			}
+		});
+		_commandFactory.addCommand("export", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				if (params.length == 1 || params[1].equals("-p")) {
+					Map<String, String> env = consoleProcBuilder.getEnvironment().asMap();
+					for (Map.Entry<String, String> e : new TreeMap<String, String>(env).entrySet()) {
+						io.println(String.format("export %s=%s", e.getKey(), ConsoleShellSession.quote(e.getValue())));
+					}
+					return 0;
+				}
+				int status = 0;
+				for (int i = 1; i < params.length; i++) {
+					int eq = params[i].indexOf('=');
+					String name = (eq < 0) ? params[i] : params[i].substring(0, eq);
+					if (!ConsoleEnvironment.isName(name)) {
+						io.println(String.format("export: `%s': not a valid identifier", params[i]));
+						status = 1;
+					} else if (eq >= 0) {
+						consoleProcBuilder.setEnv(name, params[i].substring(eq + 1));
+					}
+				}
+				return status;
+			}
+		});
+		_commandFactory.addCommand("unset", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				int status = 0;
+				for (int i = 1; i < params.length; i++) {
+					if (!ConsoleEnvironment.isName(params[i])) {
+						io.println(String.format("unset: `%s': not a valid identifier", params[i]));
+						status = 1;
+					} else {
+						consoleProcBuilder.unsetEnv(params[i]);
+					}
+				}
+				return status;
+			}
+		});
+		_commandFactory.addCommand("env", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				ConsoleEnvironment env = consoleProcBuilder.getEnvironment();
+				for (int i = 1; i < params.length; i++) {
+					int eq = params[i].indexOf('=');
+					if (eq <= 0) {
+						io.println("usage: env [NAME=value ...], use export to change variables");
+						return 2;
+					}
+					env = env.with(params[i].substring(0, eq), params[i].substring(eq + 1));
+				}
+				for (Map.Entry<String, String> e : new TreeMap<String, String>(env.asMap()).entrySet()) {
+					io.println(e.getKey() + "=" + e.getValue());
+				}
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("stats", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				if (params.length == 1) {
+					io.print(ConsoleMetrics.report());
+				} else if (params[1].equals("-r") && params.length == 2) {
+					ConsoleMetrics.reset();
+				} else if (params[1].equals("-o") && params.length == 3) {
+					File file = ConsolePipeline.resolve(consoleProcBuilder.getCurrentWorkingDir(), params[2]);
+					try {
+						ConsoleMetrics.export(file);
+					} catch (IOException e) {
+						io.println(String.format("stats: %s: %s", params[2], e.getMessage()));
+						return 1;
+					}
+				} else {
+					io.println("usage: stats [-r | -o file]");
+					return 2;
+				}
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("record", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				if (params.length == 1) {
+					File file = recorder.getFile();
+					io.println((file != null) ? "recording to " + file : "not recording");
+				} else if (params[1].equals("start") && params.length == 3) {
+					File file = ConsolePipeline.resolve(consoleProcBuilder.getCurrentWorkingDir(), params[2]);
+					try {
+						recorder.start(file, consoleProcBuilder.getRows(), consoleProcBuilder.getColumns());
+					} catch (IOException e) {
+						io.println(String.format("record: %s: %s", params[2], e.getMessage()));
+						return 1;
+					}
+				} else if (params[1].equals("stop") && params.length == 2) {
+					File file = recorder.stop();
+					if (file == null) {
+						io.println("record: not recording");
+						return 1;
+					}
+					io.println("recording saved to " + file);
+				} else {
+					io.println("usage: record [start file | stop]");
+					return 2;
+				}
+				return 0;
+			}
+		});
+		_commandFactory.addCommand("replay", new IBtermCommand() {
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				double speed = 1;
+				double maxIdle = 0;
+				String name = null;
+				try {
+					for (int i = 1; i < params.length; i++) {
+						if (params[i].equals("-s") && i + 1 < params.length) {
+							speed = Double.parseDouble(params[++i]);
+						} else if (params[i].equals("-i") && i + 1 < params.length) {
+							maxIdle = Double.parseDouble(params[++i]);
+						} else if (name == null) {
+							name = params[i];
+						} else {
+							name = null;
+							break;
+						}
+					}
+				} catch (NumberFormatException e) {
+					name = null;
+				}
+				if (name == null || !(speed > 0) || maxIdle < 0) {
+					io.println("usage: replay [-s speed] [-i max-idle-secs] file");
+					return 2;
+				}
+				File file = ConsolePipeline.resolve(consoleProcBuilder.getCurrentWorkingDir(), name);
+				try {
+					int bad = ConsoleRecorder.replay(file, speed, maxIdle, io);
+					if (bad > 0) {
+						io.println(String.format("\r\nreplay: %s: %d lines are not events", name, bad));
+						return 1;
+					}
+				} catch (IOException e) {
+					io.println(String.format("replay: %s: %s", name, e.getMessage()));
+					return 1;
+				}
+				return 0;
+			}
+		});
+		ConsoleScript script = new ConsoleScript(this, consoleProcBuilder);
+		_commandFactory.addCommand("source", script);
+		_commandFactory.addCommand(".", script);
+		_commandFactory.addCommand("timeout", new ConsoleTimeout(this, watchdog, plumbing));
+		ConsoleCoreUtils.register(_commandFactory, consoleProcBuilder);
+		_commandFactory.addCommand("help", new IBtermCommand() {
+			
+			@Override
+			public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+				io.println(_commandFactory.listCommands());
+				return 0;
+			}
+		});
+		completer = new ConsoleCompleter(_commandFactory, consoleProcBuilder);
+	}
+	
+	/**
+	 * Tab completion of the last word, a command or a file name. Does not
+	 * block, call from the UI thread.
+	 * @param line command line up to the cursor
+	 */
+	public ConsoleCompletion complete(String line) {
+		return completer.complete(line);
+	}
+
+	/**
+	 * Add custom command to executer
+	 * @param name
+	 * @param command
+	 */
+	public void addCommand(String name, IBtermCommand command) {
+		_commandFactory.addCommand(name, command);
+	}
+	
+	/**
+	 * Run the commands in one long-lived shell instead of a process each
+	 * @param persistent
+	 */
+	public void setPersistentShell(boolean persistent) {
+
+		if (persistent && shellSession == null) {
+			shellSession = new ConsoleShellSession(consoleProcBuilder, plumbing);
+		} else if (!persistent && shellSession != null) {
+			shellSession.destroy();
+			shellSession = null;
+		}
+	}
+
+	/**
+	 * Terminal size for the commands
+	 * @param rows
+	 * @param columns
+	 */
+	public void setWindowSize(int rows, int columns) {
+		consoleProcBuilder.setWindowSize(rows, columns);
+		if (shellSession != null) {
+			shellSession.onWindowSizeChanged();
+		}
+	}
+
+	/**
+	 * Stop running task. The processes of the job are killed with their
+	 * descendants, a builtin that does not end within
+	 * {@link ConsoleWatchdog#GRACE_MILLIS} is left running and the console
+	 * is given back.
+	 */
+	public void Break() {
+
+		ConsoleJob job = foregroundJob;
+		final ConsoleCommandTaskExecuter task = currentTask;
+		if (job != null) {
+			// a command in the shell session takes the shell with it,
+			// the next one starts a new shell
+			job.kill();
+		}
+		if (task != null) {
+			task.interrupt();
+			watchdog.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					if (currentTask == task) {
+						ConsoleLog.d(DEBUG_TAG, "task ignores Break, console released");
+						task.abandon();
+					}
+				}
+			}, ConsoleWatchdog.GRACE_MILLIS);
+		}
+	}
+	
+	/**
+	 * Send a control char to the foreground job, see
+	 * {@link ConsoleJob#control(char)}. ^C and ^\ stop a job without a pty
+	 * like {@link #Break()}.
+	 * @param c 1 for ^A
+	 */
+	public void sendControl(char c) {
+
+		ConsoleJob job = foregroundJob;
+		if (job == null) {
+			return;
+		}
+		recorder.input(String.valueOf(c));
+		if (!job.control(c) && (c == ConsoleJob.CTRL_C || c == ConsoleJob.CTRL_BACKSLASH)) {
+			Break();
+		}
+	}
+
+	/**
+	 * Create console job 
+	 * @param command
+	 * @param cbCommand
+	 */
+	public void execute(String command,final IConsoleCommandExecuterCallback callback) {
+		
+		final StringBuffer output = new StringBuffer();
+
+		if(foregroundJob != null) {
+			recorder.input(command + "\n");
+			byte[] bytes = (command+"\n").getBytes();
+			if (!writeToCurrentTaskOutput(bytes)) {
+				callback.onOutput(String.format("%d bytes of input dropped, the command is not reading",
+						bytes.length));
+			}
+			return;
+		}
+		recorder.command(consoleProcBuilder.getCurrentWorkingDir(), command);
+
+		final ConsoleShellSession session = shellSession;
+		ConsoleCommandLine parsed = null;
+		try {
+			parsed = ConsoleCommandParser.parse(command);
+		} catch (ParseException e) {
+			// shell syntax is left to the shell session
+			if (session == null) {
+				callback.onOutput(e.getMessage());
+				callback.onProcessEnd(consoleProcBuilder.getCurrentWorkingDir());
+				return;
+			}
+		}
+		if (parsed != null && parsed.commands.isEmpty()) {
+			callback.onProcessEnd(consoleProcBuilder.getCurrentWorkingDir());
+			return;
+		}
+		String line = command.trim();
+		if ((parsed != null) ? parsed.background : line.endsWith("&") && !line.endsWith("&&")) {
+			startBackgroundJob(line.substring(0, line.length() - 1).trim(), callback);
+			return;
+		}
+
+		final String[] params = (parsed != null) ? parsed.commands.get(0).getArgs()
+				: new String[] { line };
+		final IBtermCommand cmd = (parsed != null && parsed.isSimple())
+				? _commandFactory.getCommandFor(params, false) : null;
+		// in-process pipeline when a builtin takes part, or without the shell session
+		final ConsoleCommandLine pipeline = (parsed != null && !parsed.isSimple()
+				&& (session == null || hasBuiltin(parsed))) ? parsed : null;
+		final long started = System.nanoTime();
+		final ConsoleJob job = jobs.add(command, new ConsoleOutputDispatcher(callback, dispatcher,
+				spoolDir, consoleProcBuilder.getRows(), recorder));
+		watchdog.watch();
+		foregroundJob = job;
+		currentTask  = new ConsoleCommandTaskExecuter(foregroundPool, dispatcher, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					if (cmd instanceof IBtermJobCommand) {
+						ConsoleCommandIO io = new ConsoleCommandIO(null, job.getOutput(), true);
+						job.setIO(io);
+						job.finish(((IBtermJobCommand)cmd).run(params, io, job, 0));
+					} else if(cmd != null) {
+						// builtins at the console get no input
+						ConsoleCommandIO io = new ConsoleCommandIO(null, job.getOutput(), true);
+						job.setIO(io);
+						job.finish(cmd.exec(params, io));
+					} else if (pipeline != null) {
+						runJob(job, ConsolePipeline.start(pipeline, _commandFactory,
+								consoleProcBuilder, job.getOutput(), plumbing));
+					} else if (session != null) {
+						job.setSession(session);
+						job.finish(session.execute(job.getCommand(),
+								consoleProcBuilder.getCurrentWorkingDir(), job.getOutput()));
+						syncWorkingDir(session);
+					} else {
+						runJob(job, consoleProcBuilder.spawn(params));
+					}
+	
+				} catch (IOException e) {
+					output.append(String.format("Error running exec(). Command:[%s] %s\n",
+							params[0], e.getMessage()));
+				} catch (InterruptedException ie) {
+					ConsoleLog.d(DEBUG_TAG, "Intr: "+ ie.getMessage());
+				}  
+				finally {
+					endJob(job);
+				}
+
+			}
+		}, new Runnable() {
+
+			@Override
+			public void run() {
+				if(params[0].equalsIgnoreCase("exit")){
+					callback.onProcessExit();
+				}
+				else if(params[0].equalsIgnoreCase("clear")) {
+					callback.onClearScreen();
+				} else {
+					callback.onOutput(output.toString());
+				}
+				foregroundJob = null;
+				currentTask = null;
+				ConsoleMetrics.COMMAND.recordSince(started);
+				callback.onProcessEnd(consoleProcBuilder.getCurrentWorkingDir());
+			}
+		}, callback);
+	}
+
+	/**
+	 * Run a command line with the system shell as a background job, its
+	 * output goes to the console while new commands are accepted. Refused
+	 * when {@link #MAX_BACKGROUND_JOBS} are running.
+	 * @param command
+	 * @param callback
+	 */
+	private void startBackgroundJob(String command, final IConsoleCommandExecuterCallback callback) {
+
+		if (!backgroundSlots.tryAcquire()) {
+			callback.onOutput(String.format("%s: %d background jobs are running, wait for one or kill it",
+					command, MAX_BACKGROUND_JOBS));
+			callback.onProcessEnd(consoleProcBuilder.getCurrentWorkingDir());
+			return;
+		}
+		final ConsoleJob job = jobs.add(command, new ConsoleOutputDispatcher(callback, dispatcher,
+				spoolDir, consoleProcBuilder.getRows(), recorder));
+		final String[] params = { ConsoleShellSession.findShell(), "-c", command };
+		watchdog.watch();
+		job.setBackground(true);
+		jobs.setCurrent(job);
+		callback.onOutput(String.format("[%d] %s", job.getId(), command));
+		callback.onProcessEnd(consoleProcBuilder.getCurrentWorkingDir());
+		backgroundPool.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					runJob(job, consoleProcBuilder.spawn(params));
+				} catch (IOException e) {
+					ConsoleLog.d(DEBUG_TAG, e.getMessage());
+					job.finish(-1);
+				} catch (InterruptedException ie) {
+					ConsoleLog.d(DEBUG_TAG, "Intr: "+ ie.getMessage());
+				} finally {
+					endJob(job);
+					backgroundSlots.release();
+				}
+			}
+		});
+	}
+
+	private boolean hasBuiltin(ConsoleCommandLine line) {
+
+		for (int i = 0; i < line.commands.size(); i++) {
+			ConsoleCommandLine.Command command = line.commands.get(i);
+			if (_commandFactory.getCommandFor(command.getArgs(), i > 0 || command.input != null) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Run a line of a script on the calling thread. Builtins are called
+	 * directly, other commands go where {@link #execute} sends them.
+	 * @param line
+	 * @param job processes are attached to it so that Break stops them,
+	 * may be null
+	 * @param io output of the script
+	 * @param depth of nested scripts
+	 * @return exit status
+	 * @throws IOException when a process can not be started
+	 * @throws InterruptedException when cancelled
+	 */
+	int runLine(String line, ConsoleJob job, ConsoleCommandIO io, int depth)
+			throws IOException, InterruptedException {
+
+		ConsoleShellSession session = shellSession;
+		ConsoleCommandLine parsed = null;
+		try {
+			parsed = ConsoleCommandParser.parse(line);
+		} catch (ParseException e) {
+			if (session == null) {
+				io.println(e.getMessage());
+				return 2;
+			}
+		}
+		if (parsed != null && parsed.commands.isEmpty()) {
+			return 0;
+		}
+		if (parsed != null && parsed.background) {
+			io.println("background jobs are not started by scripts: " + line);
+			return 2;
+		}
+		String[] params = (parsed != null) ? parsed.commands.get(0).getArgs() : null;
+		if (parsed != null && parsed.isSimple()) {
+			IBtermCommand cmd = _commandFactory.getCommandFor(params, false);
+			if (cmd instanceof IBtermJobCommand) {
+				return ((IBtermJobCommand)cmd).run(params, io, job, depth);
+			} else if (cmd != null) {
+				return cmd.exec(params, io);
+			}
+		}
+		if (parsed != null && !parsed.isSimple() && (session == null || hasBuiltin(parsed))) {
+			return runProcess(job, ConsolePipeline.start(parsed, _commandFactory,
+					consoleProcBuilder, io, plumbing), io);
+		}
+		if (session != null) {
+			if (job != null) {
+				job.setSession(session);
+			}
+			int status = session.execute(line, consoleProcBuilder.getCurrentWorkingDir(), io);
+			syncWorkingDir(session);
+			return status;
+		}
+		return runProcess(job, consoleProcBuilder.spawn(params), io);
+	}
+
+	private int runProcess(ConsoleJob job, Process process, IConsoleOutputSink output)
+			throws InterruptedException {
+
+		if (job != null) {
+			job.setSession(null);
+			job.setProcess(process);
+		}
+		try {
+			new ConsoleOutputPump(process.getInputStream(), output).run();
+			return process.waitFor();
+		} finally {
+			if (job == null) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Pump the output of the started job process on this thread
+	 */
+	private void runJob(ConsoleJob job, Process process) throws IOException, InterruptedException {
+
+		job.setProcess(process);
+		new ConsoleOutputPump(process.getInputStream(), job.getOutput()).run();
+		job.finish(process.waitFor());
+	}
+
+	private void endJob(ConsoleJob job) {
+
+		job.release();
+		jobs.remove(job);
+		if (job.isBackground()) {
+			String done = job + "\n";
+			try {
+				job.getOutput().write(done.toCharArray(), 0, done.length());
+			} catch (InterruptedException e) {
+				ConsoleLog.d(DEBUG_TAG, "Intr: "+ e.getMessage());
+			}
+		}
+		job.getOutput().drain();
+	}
+
+	/**
+	 * Signal a job (%n) or a process id
+	 * @return false when the signal was not sent
+	 */
+	private boolean kill(String target, int signal, ConsoleCommandIO io) throws InterruptedException {
+
+		if (target.startsWith("%")) {
+			ConsoleJob job = jobs.find(target);
+			if (job == null) {
+				io.println(String.format("kill: %s: no such job", target));
+			} else if (!job.signal(signal)) {
+				io.println(String.format("kill: %s: signal %d not supported", target, signal));
+			} else {
+				return true;
+			}
+			return false;
+		}
+		try {
+			int pid = Integer.parseInt(target);
+			ConsoleProcesses.send(Collections.singletonList(pid), signal);
+			return true;
+		} catch (NumberFormatException e) {
+			io.println(String.format("kill: %s: arguments must be %%job or process ids", target));
+			return false;
+		}
+	}
+
+	/**
+	 * Follow a cd done in the shell
+	 */
+	private void syncWorkingDir(ConsoleShellSession session) {
+
+		String dir = session.getWorkingDir();
+		if (dir != null && !dir.equals(consoleProcBuilder.getCurrentWorkingDir())) {
+			try {
+				consoleProcBuilder.changeDir(dir);
+			} catch (Exception e) {
+				ConsoleLog.d(DEBUG_TAG, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Queue input for the working Job, does not block
+	 * @param bytes
+	 * @return false when the input was dropped
+	 */
+	private boolean writeToCurrentTaskOutput(byte [] bytes) {
+
+		ConsoleJob job = foregroundJob;
+		return job == null || job.write(bytes);
+	}
+}
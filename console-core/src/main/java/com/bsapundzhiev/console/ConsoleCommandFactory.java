@@ -0,0 +1,134 @@
+package com.bsapundzhiev.console;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The Command interface.<br/>
+ * Output is written to the {@link ConsoleCommandIO} as it is produced,
+ * the input is the console or the previous pipeline stage.
+ */
+interface IBtermCommand {
+
+	/**
+	 * @return exit status
+	 * @throws InterruptedException when cancelled
+	 */
+	public int exec(String params[], ConsoleCommandIO io) throws IOException, InterruptedException;
+}
+
+/**
+ * Command that runs other command lines on the calling thread. Their
+ * processes are attached to the job running it, so that Break and
+ * deadlines reach them.
+ */
+interface IBtermJobCommand extends IBtermCommand {
+
+	/**
+	 * @param params
+	 * @param io
+	 * @param job the processes are attached to, null in a pipeline stage
+	 * @param depth of nested commands
+	 * @return exit status
+	 * @throws InterruptedException when cancelled
+	 */
+	public int run(String[] params, ConsoleCommandIO io, ConsoleJob job, int depth)
+			throws IOException, InterruptedException;
+}
+
+/**
+ * Builtin standing in for the external command of the same name. The
+ * arguments it does not implement, options or glob patterns the shell
+ * would expand, are left to the external command or the shell session.
+ */
+interface IBtermUtility extends IBtermCommand {
+
+	/**
+	 * @param params
+	 * @param hasInput false when stdin is the console, the builtin can not
+	 * read it
+	 * @return true when exec implements all of the arguments
+	 */
+	public boolean accepts(String[] params, boolean hasInput);
+}
+
+public class ConsoleCommandFactory {
+	//private String DEBUG_TAG = "ConsoleCommandFactory";
+	private final HashMap<String, IBtermCommand> commands;
+	/** changes with every command added */
+	private volatile int version = 0;
+		
+	public ConsoleCommandFactory() {
+		this.commands = new HashMap<String, IBtermCommand>();
+	}
+	
+	public void addCommand(String name, IBtermCommand command) {
+		this.commands.put(name, command);
+		version++;
+	}
+
+	/**
+	 * @return a number that changes when the commands change
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	public IBtermCommand getCommand(String name) {
+		return this.commands.get(name);
+	}
+
+	/**
+	 * @param params command name and arguments
+	 * @param hasInput true when stdin is a pipe or a file, false when it is
+	 * the console
+	 * @return the builtin running them, null when there is none or the
+	 * utility leaves them to the external command
+	 */
+	public IBtermCommand getCommandFor(String[] params, boolean hasInput) {
+
+		IBtermCommand command = this.commands.get(params[0]);
+		if (command instanceof IBtermUtility
+				&& !((IBtermUtility)command).accepts(params, hasInput)) {
+			return null;
+		}
+		return command;
+	}
+	
+	public boolean executeCommand(String name, String params[], ConsoleCommandIO io)
+			throws IOException, InterruptedException {
+		IBtermCommand command = this.commands.get(name);
+		if ( command != null ) {
+			command.exec(params, io);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return names of all commands
+	 */
+	public List<String> getCommandNames() {
+		return new ArrayList<String>(this.commands.keySet());
+	}
+	
+	public String listCommands() {
+		StringBuilder buildStr = new StringBuilder();
+		//Log.d(DEBUG_TAG,"Commands enabled :");
+		buildStr.append("Commands enabled :");
+		for (String key : commands.keySet()) {
+		    //Log.d(DEBUG_TAG, key );
+		    buildStr.append("\n"+ key);
+		}
+		
+		return buildStr.toString();
+	}
+	
+	public static ConsoleCommandFactory init() {
+		ConsoleCommandFactory cf = new ConsoleCommandFactory();
+		
+		return cf;
+	}
+}
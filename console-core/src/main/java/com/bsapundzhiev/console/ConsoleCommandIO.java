@@ -0,0 +1,89 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Standard streams of a builtin command.
+ * Output is written as it is produced, to the console or to the next
+ * pipeline stage. A cancelled command fails on its next write, long
+ * running commands should also check {@link #isCancelled()}.
+ */
+class ConsoleCommandIO implements IConsoleOutputSink {
+
+	private static final int CHUNK_LEN = 1024;
+
+	private final InputStream input;
+	private final IConsoleOutputSink output;
+	private final boolean terminal;
+	private final char[] chunk = new char[CHUNK_LEN];
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param input stdin, null for no input
+	 * @param output stdout and stderr
+	 * @param terminal output goes to the console
+	 */
+	ConsoleCommandIO(InputStream input, IConsoleOutputSink output, boolean terminal) {
+		this.input = (input != null) ? input : new ByteArrayInputStream(new byte[0]);
+		this.output = output;
+		this.terminal = terminal;
+	}
+
+	InputStream getInput() {
+		return input;
+	}
+
+	/**
+	 * @return true when the output goes to the console, not to a pipe or file
+	 */
+	boolean isTerminal() {
+		return terminal;
+	}
+
+	void print(String text) throws InterruptedException {
+
+		for (int start = 0, len = text.length(); start < len; start += CHUNK_LEN) {
+			int end = Math.min(len, start + CHUNK_LEN);
+			text.getChars(start, end, chunk, 0);
+			write(chunk, 0, end - start);
+		}
+	}
+
+	void println(String text) throws InterruptedException {
+		print(text + "\n");
+	}
+
+	@Override
+	public void write(char[] chars, int offset, int length) throws InterruptedException {
+
+		checkCancelled();
+		output.write(chars, offset, length);
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws InterruptedException when the command was cancelled
+	 */
+	void checkCancelled() throws InterruptedException {
+
+		if (cancelled) {
+			throw new InterruptedException("cancelled");
+		}
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed command line: a pipeline of simple commands, each with its
+ * arguments and redirections, optionally run in the background.
+ * Built by {@link ConsoleCommandParser}.
+ */
+class ConsoleCommandLine {
+
+	/**
+	 * One stage of the pipeline
+	 */
+	static class Command {
+
+		final List<String> args = new ArrayList<String>();
+		/** file for &lt;, null for the pipe or the console */
+		String input;
+		/** file for &gt; or &gt;&gt;, null for the pipe or the console */
+		String output;
+		boolean appendOutput;
+		/** file for 2&gt; or 2&gt;&gt; */
+		String errorOutput;
+		boolean appendErrorOutput;
+		/** 2&gt;&amp;1 */
+		boolean errorToOutput;
+
+		String[] getArgs() {
+			return args.toArray(new String[args.size()]);
+		}
+
+		String getName() {
+			return args.get(0);
+		}
+
+		boolean hasRedirects() {
+			return input != null || output != null || errorOutput != null || errorToOutput;
+		}
+	}
+
+	final String source;
+	final List<Command> commands = new ArrayList<Command>();
+	boolean background;
+
+	ConsoleCommandLine(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * @return true for one command without redirections
+	 */
+	boolean isSimple() {
+		return commands.size() == 1 && !commands.get(0).hasRedirects();
+	}
+
+	/**
+	 * @return the command line without the trailing &amp;
+	 */
+	String getText() {
+
+		String text = source.trim();
+		return background ? text.substring(0, text.length() - 1).trim() : text;
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.text.ParseException;
+
+/**
+ * Command line tokenizer and parser.
+ * Words may be quoted with '' (literal) or "" (\ escapes " \ $ and `) and
+ * any char may be escaped with \ outside quotes. Operators: | &lt; &gt;
+ * &gt;&gt; 2&gt; 2&gt;&gt; 2&gt;&amp;1 and a trailing &amp;. Lists (; &amp;&amp; ||),
+ * expansions and subshells are shell syntax and are rejected, the
+ * persistent shell session runs such lines as they are.
+ */
+class ConsoleCommandParser {
+
+	private static final int WORD = 0;
+	private static final int PIPE = 1;
+	private static final int INPUT = 2;
+	private static final int OUTPUT = 3;
+	private static final int APPEND = 4;
+	private static final int ERROR = 5;
+	private static final int ERROR_APPEND = 6;
+	private static final int ERROR_TO_OUTPUT = 7;
+	private static final int BACKGROUND = 8;
+	private static final int END = 9;
+
+	private final String line;
+	private int pos = 0;
+	private int tokenStart = 0;
+	private final StringBuilder word = new StringBuilder();
+
+	private ConsoleCommandParser(String line) {
+		this.line = line;
+	}
+
+	/**
+	 * @param line
+	 * @return the pipeline, with no commands for an empty line
+	 * @throws ParseException on a syntax error or unsupported shell syntax
+	 */
+	static ConsoleCommandLine parse(String line) throws ParseException {
+		return new ConsoleCommandParser(line).parseLine();
+	}
+
+	private ConsoleCommandLine parseLine() throws ParseException {
+
+		ConsoleCommandLine result = new ConsoleCommandLine(line);
+		ConsoleCommandLine.Command command = new ConsoleCommandLine.Command();
+		for (;;) {
+			int token = next();
+			switch (token) {
+			case WORD:
+				command.args.add(word.toString());
+				break;
+			case INPUT:
+				command.input = target();
+				break;
+			case OUTPUT:
+			case APPEND:
+				command.output = target();
+				command.appendOutput = (token == APPEND);
+				break;
+			case ERROR:
+			case ERROR_APPEND:
+				command.errorOutput = target();
+				command.appendErrorOutput = (token == ERROR_APPEND);
+				break;
+			case ERROR_TO_OUTPUT:
+				command.errorToOutput = true;
+				break;
+			case PIPE:
+				if (command.args.isEmpty()) {
+					throw error("missing command before |");
+				}
+				result.commands.add(command);
+				command = new ConsoleCommandLine.Command();
+				break;
+			case BACKGROUND:
+				if (next() != END) {
+					throw error("& must end the line");
+				}
+				result.background = true;
+				return end(result, command);
+			case END:
+				return end(result, command);
+			}
+		}
+	}
+
+	/**
+	 * Add the last command
+	 */
+	private ConsoleCommandLine end(ConsoleCommandLine result, ConsoleCommandLine.Command command)
+			throws ParseException {
+
+		if (!command.args.isEmpty()) {
+			result.commands.add(command);
+		} else if (!result.commands.isEmpty() || command.hasRedirects() || result.background) {
+			throw error("missing command");
+		}
+		return result;
+	}
+
+	private String target() throws ParseException {
+
+		if (next() != WORD) {
+			throw error("missing file name");
+		}
+		return word.toString();
+	}
+
+	private ParseException error(String message) {
+		return new ParseException(String.format("syntax error at %d: %s", tokenStart + 1, message),
+				tokenStart);
+	}
+
+	private int next() throws ParseException {
+
+		while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+			pos++;
+		}
+		tokenStart = pos;
+		if (pos == line.length()) {
+			return END;
+		}
+		char c = line.charAt(pos);
+		switch (c) {
+		case '|':
+			if (peek(1) == '|') {
+				throw error("|| is not supported");
+			}
+			pos++;
+			return PIPE;
+		case '<':
+			pos++;
+			return INPUT;
+		case '>':
+			pos++;
+			if (peek(0) == '>') {
+				pos++;
+				return APPEND;
+			}
+			return OUTPUT;
+		case '&':
+			if (peek(1) == '&') {
+				throw error("&& is not supported");
+			}
+			pos++;
+			return BACKGROUND;
+		case ';':
+		case '(':
+		case ')':
+			throw error(c + " is not supported");
+		case '2':
+			if (peek(1) == '>') {
+				pos += 2;
+				if (line.startsWith("&1", pos)) {
+					pos += 2;
+					return ERROR_TO_OUTPUT;
+				}
+				if (peek(0) == '>') {
+					pos++;
+					return ERROR_APPEND;
+				}
+				return ERROR;
+			}
+			break;
+		default:
+			break;
+		}
+		readWord();
+		return WORD;
+	}
+
+	private char peek(int offset) {
+		return (pos + offset < line.length()) ? line.charAt(pos + offset) : 0;
+	}
+
+	private void readWord() throws ParseException {
+
+		word.setLength(0);
+		while (pos < line.length()) {
+			char c = line.charAt(pos);
+			if (Character.isWhitespace(c) || c == '|' || c == '<' || c == '>'
+					|| c == '&' || c == ';' || c == '(' || c == ')') {
+				return;
+			}
+			pos++;
+			if (c == '\\') {
+				if (pos < line.length()) {
+					word.append(line.charAt(pos++));
+				}
+			} else if (c == '\'') {
+				int end = line.indexOf('\'', pos);
+				if (end < 0) {
+					throw error("unterminated '");
+				}
+				word.append(line, pos, end);
+				pos = end + 1;
+			} else if (c == '"') {
+				readDoubleQuoted();
+			} else if (c == '$' || c == '`') {
+				throw error(c + " expansion is not supported");
+			} else {
+				word.append(c);
+			}
+		}
+	}
+
+	private void readDoubleQuoted() throws ParseException {
+
+		while (pos < line.length()) {
+			char c = line.charAt(pos++);
+			if (c == '"') {
+				return;
+			}
+			if (c == '\\' && pos < line.length() && "\"\\$`".indexOf(line.charAt(pos)) >= 0) {
+				word.append(line.charAt(pos++));
+			} else if (c == '$' || c == '`') {
+				throw error(c + " expansion is not supported");
+			} else {
+				word.append(c);
+			}
+		}
+		throw error("unterminated \"");
+	}
+}
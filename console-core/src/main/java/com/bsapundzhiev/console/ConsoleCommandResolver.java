@@ -0,0 +1,128 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Hash table of the executables in PATH.
+ * All PATH directories are listed once, a lookup is then a single hash
+ * probe instead of an exec attempt in every directory. The table is
+ * rebuilt when PATH changes, when the modification time of one of its
+ * directories changes or on {@link #rehash()}. The times are checked at
+ * most every CHECK_INTERVAL_MILLIS, so hits and misses alike cost no
+ * file system access.
+ */
+class ConsoleCommandResolver {
+
+	private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+	private HashMap<String, String> commands = new HashMap<String, String>();
+	private Set<String> names = Collections.emptySet();
+	private String path;
+	private File[] dirs = new File[0];
+	private long[] modified = new long[0];
+	private long checked = 0;
+
+	/**
+	 * @param name command name
+	 * @param path value of PATH
+	 * @return the executable, name itself when it contains a '/',
+	 * null when it is not found
+	 */
+	synchronized String resolve(String name, String path) {
+
+		if (name.indexOf('/') >= 0) {
+			return name;
+		}
+		refresh(path);
+		return commands.get(name);
+	}
+
+	/**
+	 * @param path value of PATH
+	 * @return names of all executables, the same set until the table is
+	 * rebuilt
+	 */
+	synchronized Set<String> getNames(String path) {
+
+		refresh(path);
+		return names;
+	}
+
+	private void refresh(String path) {
+
+		long now = System.currentTimeMillis();
+		if (!String.valueOf(path).equals(this.path)) {
+			index(path);
+			checked = now;
+		} else if (now - checked > CHECK_INTERVAL_MILLIS) {
+			if (isStale()) {
+				index(path);
+			}
+			checked = now;
+		}
+	}
+
+	/**
+	 * Forget all entries, like hash -r
+	 */
+	synchronized void rehash() {
+		this.path = null;
+	}
+
+	/**
+	 * @return number of indexed executables
+	 */
+	synchronized int size() {
+		return commands.size();
+	}
+
+	private boolean isStale() {
+
+		for (int i = 0; i < dirs.length; i++) {
+			if (dirs[i].lastModified() != modified[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void index(String path) {
+
+		this.path = String.valueOf(path);
+		// a new table, readers of the old names set are not disturbed
+		commands = new HashMap<String, String>();
+		String[] entries = (path != null) ? path.split(File.pathSeparator) : new String[0];
+		dirs = new File[entries.length];
+		modified = new long[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			// an empty entry is the working directory, which is not indexed
+			dirs[i] = new File(entries[i].length() > 0 ? entries[i] : ".");
+			modified[i] = dirs[i].lastModified();
+			String[] names = (entries[i].length() > 0) ? dirs[i].list() : null;
+			if (names == null) {
+				continue;
+			}
+			for (String name : names) {
+				// the first directory in PATH wins
+				if (commands.get(name) == null) {
+					File file = new File(dirs[i], name);
+					if (file.canExecute() && !file.isDirectory()) {
+						commands.put(name, file.getPath());
+					}
+				}
+			}
+		}
+		names = Collections.unmodifiableSet(commands.keySet());
+	}
+}
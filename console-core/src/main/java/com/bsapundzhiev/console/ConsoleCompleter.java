@@ -0,0 +1,289 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tab completion of command names (builtins and PATH) and file names.
+ * Lookups run on the UI thread against {@link ConsoleCompletionTrie}s and
+ * never touch the file system apart from one stat of a unique match. The
+ * tries are built on a background thread, a batch of names at a time:
+ * the commands when PATH changes, a directory when it is first completed
+ * in and again when its modification time changes. The last few
+ * directories are kept.
+ */
+class ConsoleCompleter {
+
+	static final int MAX_CANDIDATES = 100;
+	private static final int BATCH_SIZE = 1024;
+	private static final int MAX_DIRECTORIES = 8;
+	/** chars escaped with \ in completed words */
+	private static final String SPECIAL = " \t\\'\"|&;<>()$`";
+
+	private final ConsoleCommandFactory factory;
+	private final ConsoleProcessBuilder builder;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "completion");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+	private volatile ConsoleCompletionTrie commands = new ConsoleCompletionTrie();
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+	/** worker only: sources of the commands trie */
+	private Set<String> executables;
+	private int builtinsVersion = -1;
+	private final Map<String, Directory> directories =
+			new LinkedHashMap<String, Directory>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Directory> eldest) {
+					return size() > MAX_DIRECTORIES;
+				}
+			};
+
+	/**
+	 * Entries of a directory
+	 */
+	private static class Directory {
+
+		final ConsoleCompletionTrie names = new ConsoleCompletionTrie();
+		volatile long modified;
+		volatile boolean checking = false;
+	}
+
+	ConsoleCompleter(ConsoleCommandFactory factory, ConsoleProcessBuilder builder) {
+		this.factory = factory;
+		this.builder = builder;
+		refreshCommands();
+	}
+
+	/**
+	 * Complete the last word of a command line
+	 * @param line
+	 */
+	ConsoleCompletion complete(String line) {
+
+		int start = wordStart(line);
+		String word = unescape(line.substring(start));
+		String before = line.substring(0, start).trim();
+		boolean isCommand = before.length() == 0
+				|| "|&;".indexOf(before.charAt(before.length() - 1)) >= 0;
+		if (isCommand && word.indexOf('/') < 0) {
+			refreshCommands();
+			return complete(commands, word, null);
+		}
+		int slash = word.lastIndexOf('/');
+		String cwd = builder.getCurrentWorkingDir();
+		File dir = (slash < 0) ? new File(cwd) : ConsolePipeline.resolve(cwd, word.substring(0, slash + 1));
+		return complete(directory(dir), word.substring(slash + 1), dir);
+	}
+
+	/**
+	 * @param dir directory of file names, null for commands
+	 */
+	private static ConsoleCompletion complete(ConsoleCompletionTrie trie, String prefix, File dir) {
+
+		List<String> words = new ArrayList<String>();
+		String common = trie.find(prefix, words, MAX_CANDIDATES, dir != null);
+		boolean pending = !trie.isComplete();
+		if (common == null) {
+			return pending ? new ConsoleCompletion("", words, true) : ConsoleCompletion.NONE;
+		}
+		if (pending) {
+			// a unique match may not be unique yet, only show what is there
+			return new ConsoleCompletion("", words, true);
+		}
+		StringBuilder text = new StringBuilder(escape(common.substring(prefix.length())));
+		if (words.size() == 1) {
+			text.append((dir != null && new File(dir, common).isDirectory()) ? '/' : ' ');
+		}
+		return new ConsoleCompletion(text.toString(), words, false);
+	}
+
+	/**
+	 * @return the names of a directory, loading or checking them on the
+	 * background thread
+	 */
+	private ConsoleCompletionTrie directory(final File dir) {
+
+		final String key = dir.getPath();
+		synchronized (directories) {
+			Directory entry = directories.get(key);
+			if (entry == null) {
+				entry = new Directory();
+				directories.put(key, entry);
+				load(dir, entry);
+			} else if (entry.names.isComplete() && !entry.checking) {
+				entry.checking = true;
+				check(key, dir, entry);
+			}
+			return entry.names;
+		}
+	}
+
+	private void load(final File dir, final Directory entry) {
+
+		worker.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				entry.modified = dir.lastModified();
+				String[] names = dir.list();
+				if (names != null) {
+					List<String> all = new ArrayList<String>(names.length);
+					Collections.addAll(all, names);
+					addAll(entry.names, all);
+				}
+				entry.names.setComplete();
+			}
+		});
+	}
+
+	/**
+	 * Reload a directory that changed since it was loaded
+	 */
+	private void check(final String key, final File dir, final Directory entry) {
+
+		worker.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (dir.lastModified() == entry.modified) {
+					entry.checking = false;
+					return;
+				}
+				// the old names serve until the new ones are complete
+				final Directory reloaded = new Directory();
+				load(dir, reloaded);
+				worker.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						synchronized (directories) {
+							directories.put(key, reloaded);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Rebuild the commands on the background thread when PATH or the
+	 * builtins changed
+	 */
+	private void refreshCommands() {
+
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		worker.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Set<String> names = builder.getExecutables();
+					int version = factory.getVersion();
+					if (names == executables && version == builtinsVersion) {
+						return;
+					}
+					List<String> commandNames = factory.getCommandNames();
+					ConsoleCompletionTrie trie = new ConsoleCompletionTrie();
+					if (!commands.isComplete()) {
+						// nothing to keep, show the names as they come
+						commands = trie;
+					}
+					trie.addAll(commandNames);
+					addAll(trie, new ArrayList<String>(names));
+					trie.setComplete();
+					commands = trie;
+					executables = names;
+					builtinsVersion = version;
+				} finally {
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Add in batches, so that a lookup waits for one batch at most
+	 */
+	private static void addAll(ConsoleCompletionTrie trie, List<String> names) {
+
+		for (int i = 0; i < names.size(); i += BATCH_SIZE) {
+			trie.addAll(names.subList(i, Math.min(names.size(), i + BATCH_SIZE)));
+		}
+	}
+
+	/**
+	 * @return start of the last word, words are separated by blanks and
+	 * operators that are not escaped
+	 */
+	private static int wordStart(String line) {
+
+		int start = line.length();
+		while (start > 0) {
+			char c = line.charAt(start - 1);
+			boolean escaped = start > 1 && line.charAt(start - 2) == '\\';
+			if (!escaped && (Character.isWhitespace(c) || "|&;<>".indexOf(c) >= 0)) {
+				break;
+			}
+			start--;
+		}
+		return start;
+	}
+
+	private static String unescape(String word) {
+
+		if (word.indexOf('\\') < 0) {
+			return word;
+		}
+		StringBuilder sb = new StringBuilder(word.length());
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (c == '\\' && i + 1 < word.length()) {
+				c = word.charAt(++i);
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String text) {
+
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (SPECIAL.indexOf(c) >= 0) {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
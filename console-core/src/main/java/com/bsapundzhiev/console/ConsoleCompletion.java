@@ -0,0 +1,54 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a tab completion: text to add to the command line, or the
+ * candidates to show when they have no longer common prefix.
+ */
+public class ConsoleCompletion {
+
+	static final ConsoleCompletion NONE = new ConsoleCompletion("",
+			Collections.<String>emptyList(), false);
+
+	private final String text;
+	private final List<String> candidates;
+	private final boolean pending;
+
+	ConsoleCompletion(String text, List<String> candidates, boolean pending) {
+		this.text = text;
+		this.candidates = candidates;
+		this.pending = pending;
+	}
+
+	/**
+	 * @return text to append to the line, empty for none
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return matching words, more than one when there is no text
+	 */
+	public List<String> getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return true when the words are still being loaded, the result
+	 * may be incomplete
+	 */
+	public boolean isPending() {
+		return pending;
+	}
+}
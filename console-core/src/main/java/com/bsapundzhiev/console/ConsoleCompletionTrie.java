@@ -0,0 +1,210 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.List;
+
+/**
+ * Prefix tree of completion words.
+ * Edges are labeled with strings (a radix tree), so a directory of tens of
+ * thousands of names takes about two nodes per name. Children are kept
+ * sorted by their first char, lookups walk the prefix and list the words
+ * below it in order. Words are added by a background thread while the UI
+ * thread looks them up, all access is synchronized and the writer adds
+ * them in batches.
+ */
+class ConsoleCompletionTrie {
+
+	private static final char[] NO_KEYS = new char[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private static class Node {
+
+		String label;
+		boolean terminal = false;
+		char[] keys = NO_KEYS;
+		Node[] children = NO_CHILDREN;
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		int indexOf(char key) {
+
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid] < key) {
+					low = mid + 1;
+				} else if (keys[mid] > key) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		void insert(int at, Node child) {
+
+			char[] k = new char[keys.length + 1];
+			Node[] c = new Node[children.length + 1];
+			System.arraycopy(keys, 0, k, 0, at);
+			System.arraycopy(children, 0, c, 0, at);
+			k[at] = child.label.charAt(0);
+			c[at] = child;
+			System.arraycopy(keys, at, k, at + 1, keys.length - at);
+			System.arraycopy(children, at, c, at + 1, children.length - at);
+			keys = k;
+			children = c;
+		}
+	}
+
+	private final Node root = new Node("");
+	private int size = 0;
+	private volatile boolean complete = false;
+
+	/**
+	 * @param words
+	 * @return number of new words
+	 */
+	synchronized int addAll(List<String> words) {
+
+		int added = 0;
+		for (String word : words) {
+			if (add(word)) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * @return false when the word was there already
+	 */
+	synchronized boolean add(String word) {
+
+		Node node = root;
+		int i = 0;
+		for (;;) {
+			if (i == word.length()) {
+				if (node.terminal) {
+					return false;
+				}
+				node.terminal = true;
+				size++;
+				return true;
+			}
+			int k = node.indexOf(word.charAt(i));
+			if (k < 0) {
+				Node leaf = new Node(word.substring(i));
+				leaf.terminal = true;
+				node.insert(-(k + 1), leaf);
+				size++;
+				return true;
+			}
+			Node child = node.children[k];
+			String label = child.label;
+			int j = 1;
+			while (j < label.length() && i + j < word.length() && label.charAt(j) == word.charAt(i + j)) {
+				j++;
+			}
+			if (j < label.length()) {
+				// split the edge where the word leaves it
+				Node split = new Node(label.substring(0, j));
+				child.label = label.substring(j);
+				split.keys = new char[] { child.label.charAt(0) };
+				split.children = new Node[] { child };
+				node.children[k] = split;
+				child = split;
+			}
+			node = child;
+			i += j;
+		}
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * All words were added
+	 */
+	void setComplete() {
+		complete = true;
+	}
+
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @param prefix
+	 * @param out receives the words starting with prefix in sorted order
+	 * @param limit at most this many words are listed
+	 * @param skipHidden leave out words starting with '.' when the prefix
+	 * is empty
+	 * @return the longest common prefix of all those words, null when
+	 * there are none
+	 */
+	synchronized String find(String prefix, List<String> out, int limit, boolean skipHidden) {
+
+		Node node = root;
+		StringBuilder word = new StringBuilder(prefix);
+		int i = 0;
+		while (i < prefix.length()) {
+			int k = node.indexOf(prefix.charAt(i));
+			if (k < 0) {
+				return null;
+			}
+			node = node.children[k];
+			int n = Math.min(node.label.length(), prefix.length() - i);
+			if (!node.label.regionMatches(0, prefix, i, n)) {
+				return null;
+			}
+			// the prefix may end inside the edge
+			word.append(node.label, n, node.label.length());
+			i += n;
+		}
+		int base = word.length();
+		collect(node, word, out, limit, skipHidden && prefix.length() == 0);
+		if (out.isEmpty()) {
+			return null;
+		}
+		word.setLength(base);
+		if (skipHidden && prefix.length() == 0 && node.indexOf('.') >= 0) {
+			// the hidden words are not part of the common prefix
+			return word.toString();
+		}
+		while (!node.terminal && node.children.length == 1) {
+			node = node.children[0];
+			word.append(node.label);
+		}
+		return word.toString();
+	}
+
+	private static void collect(Node node, StringBuilder word, List<String> out, int limit,
+			boolean skipHidden) {
+
+		if (node.terminal) {
+			out.add(word.toString());
+		}
+		for (int k = 0; k < node.children.length && out.size() < limit; k++) {
+			if (skipHidden && node.keys[k] == '.') {
+				continue;
+			}
+			Node child = node.children[k];
+			int length = word.length();
+			word.append(child.label);
+			collect(child, word, out, limit, false);
+			word.setLength(length);
+		}
+	}
+}
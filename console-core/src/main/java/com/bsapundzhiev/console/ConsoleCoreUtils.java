@@ -0,0 +1,1386 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * File utilities running in-process: ls, cat, head, tail, wc, grep and find.
+ * Files are read through a FileChannel into one buffer per command
+ * invocation, lines and words are counted and literal patterns matched on
+ * the raw bytes, only the output is decoded. This saves the fork/exec of
+ * a toolbox command and behaves the same on every device. Options they
+ * do not implement, glob patterns and basic regular expressions that
+ * java.util.regex reads differently leave the line to the external
+ * command or the shell session.
+ */
+class ConsoleCoreUtils {
+
+	static final int BUFF_LEN = 64 * 1024;
+	private static final int CHARS_LEN = 4096;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Add the utilities to a command factory
+	 * @param factory
+	 * @param builder supplies the working directory and the terminal width
+	 */
+	static void register(ConsoleCommandFactory factory, ConsoleProcessBuilder builder) {
+
+		factory.addCommand("ls", new Ls(builder));
+		factory.addCommand("cat", new Cat(builder));
+		factory.addCommand("head", new Head(builder));
+		factory.addCommand("tail", new Tail(builder));
+		factory.addCommand("wc", new Wc(builder));
+		factory.addCommand("grep", new Grep(builder));
+		factory.addCommand("find", new Find(builder));
+	}
+
+	static boolean isDigits(String s) {
+
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i))) {
+				return false;
+			}
+		}
+		return !s.isEmpty();
+	}
+
+	/**
+	 * Single letter options and operands. The letters in valueFlags take a
+	 * value, in the same word or the next one; -NUM is -n NUM when n is
+	 * one of them.
+	 */
+	private static class Options {
+
+		final StringBuilder flags = new StringBuilder();
+		final List<String> operands = new ArrayList<String>();
+		private final String[] values = new String[128];
+
+		Options(String[] params, String valueFlags) {
+
+			boolean options = true;
+			for (int i = 1; i < params.length; i++) {
+				String p = params[i];
+				if (options && p.equals("--")) {
+					options = false;
+				} else if (options && p.length() > 1 && p.charAt(0) == '-') {
+					if (valueFlags.indexOf('n') >= 0 && Character.isDigit(p.charAt(1))) {
+						values['n'] = p.substring(1);
+						continue;
+					}
+					for (int j = 1; j < p.length(); j++) {
+						char c = p.charAt(j);
+						if (valueFlags.indexOf(c) >= 0 && c < values.length) {
+							values[c] = (j + 1 < p.length()) ? p.substring(j + 1)
+									: (i + 1 < params.length) ? params[++i] : "";
+							break;
+						}
+						flags.append(c);
+					}
+				} else {
+					operands.add(p);
+				}
+			}
+		}
+
+		boolean has(char flag) {
+			return flags.indexOf(String.valueOf(flag)) >= 0;
+		}
+
+		/**
+		 * @return true when all flags are among the letters
+		 */
+		boolean only(String letters) {
+
+			for (int i = 0; i < flags.length(); i++) {
+				if (letters.indexOf(flags.charAt(i)) < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return true when the flag is not given or its value is a number
+		 */
+		boolean isNumber(char flag) {
+			return values[flag] == null || isDigits(values[flag]);
+		}
+
+		/**
+		 * @return the value of a flag as a positive number, or the default
+		 */
+		int number(char flag, int defaultValue) {
+
+			if (values[flag] == null) {
+				return defaultValue;
+			}
+			try {
+				return Math.abs(Integer.parseInt(values[flag]));
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+	}
+
+	/**
+	 * Decodes UTF-8 output for the console, a sequence split between two
+	 * blocks is kept in the caller's buffer
+	 */
+	private static class TextOutput {
+
+		private final ConsoleCommandIO io;
+		private final CharsetDecoder decoder = UTF8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(CHARS_LEN);
+		private ByteBuffer view;
+
+		TextOutput(ConsoleCommandIO io) {
+			this.io = io;
+		}
+
+		/**
+		 * Decode a block, without endOfInput an incomplete trailing
+		 * sequence is left in bytes
+		 */
+		void decode(ByteBuffer bytes, boolean endOfInput) throws InterruptedException {
+
+			while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+				flush();
+			}
+			if (endOfInput) {
+				while (decoder.flush(chars).isOverflow()) {
+					flush();
+				}
+				decoder.reset();
+			}
+			flush();
+		}
+
+		/**
+		 * Write complete text, e.g. a line
+		 */
+		void write(byte[] bytes, int offset, int length) throws InterruptedException {
+
+			if (view == null || view.array() != bytes) {
+				view = ByteBuffer.wrap(bytes);
+			}
+			view.clear();
+			view.position(offset);
+			view.limit(offset + length);
+			decode(view, true);
+		}
+
+		void print(String text) throws InterruptedException {
+			io.print(text);
+		}
+
+		private void flush() throws InterruptedException {
+
+			if (chars.position() > 0) {
+				io.write(chars.array(), 0, chars.position());
+				chars.clear();
+			}
+		}
+	}
+
+	/**
+	 * Splits input into lines in one buffer, which grows only for a line
+	 * longer than the buffer. A subclass may search the whole buffer for
+	 * candidates, lines without one are skipped without being split.
+	 */
+	private abstract static class LineScanner {
+
+		private byte[] buffer;
+
+		LineScanner(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @param bytes the buffer
+		 * @param start first byte of the line
+		 * @param end end of the line, the '\n' when newline is true
+		 * @param newline the line is terminated
+		 * @return false to stop reading
+		 */
+		abstract boolean line(byte[] bytes, int start, int end, boolean newline)
+				throws InterruptedException;
+
+		/**
+		 * @return position of the next possible match in [start, end),
+		 * -1 for none. Every line is a candidate by default.
+		 */
+		int candidate(byte[] bytes, int start, int end) {
+			return start;
+		}
+
+		/**
+		 * Complete lines in [start, end) were skipped
+		 */
+		void skipped(byte[] bytes, int start, int end) {
+		}
+
+		void scan(ReadableByteChannel channel, ConsoleCommandIO io)
+				throws IOException, InterruptedException {
+
+			ByteBuffer buf = ByteBuffer.wrap(buffer);
+			int scanned = 0;
+			for (;;) {
+				io.checkCancelled();
+				if (channel.read(buf) < 0) {
+					break;
+				}
+				byte[] a = buffer;
+				int end = buf.position();
+				int start = 0;
+				// [start, from) of the current line has no '\n'
+				int from = scanned;
+				for (;;) {
+					int hit = candidate(a, start, end);
+					int lineStart = lastIndexOf(a, start, (hit < 0) ? end : hit) + 1;
+					if (lineStart > start) {
+						skipped(a, start, lineStart);
+						start = lineStart;
+					}
+					if (hit < 0) {
+						break;
+					}
+					int newline = indexOf(a, Math.max(hit, from), end);
+					if (newline < 0) {
+						break;
+					}
+					if (!line(a, start, newline, true)) {
+						return;
+					}
+					start = newline + 1;
+					from = start;
+				}
+				int rest = end - start;
+				if (start == 0 && end == a.length) {
+					buffer = Arrays.copyOf(a, a.length * 2);
+					buf = ByteBuffer.wrap(buffer);
+				} else {
+					System.arraycopy(a, start, a, 0, rest);
+					buf.clear();
+				}
+				buf.position(rest);
+				scanned = rest;
+			}
+			if (buf.position() > 0) {
+				line(buffer, 0, buf.position(), false);
+			}
+		}
+
+		private static int indexOf(byte[] a, int start, int end) {
+
+			for (int i = start; i < end; i++) {
+				if (a[i] == '\n') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the last '\n' in [start, end), start - 1 when there is none
+		 */
+		private static int lastIndexOf(byte[] a, int start, int end) {
+
+			for (int i = end - 1; i >= start; i--) {
+				if (a[i] == '\n') {
+					return i;
+				}
+			}
+			return start - 1;
+		}
+	}
+
+	/**
+	 * Base of the commands reading files or the input
+	 */
+	private abstract static class FileCommand implements IBtermUtility {
+
+		protected final ConsoleProcessBuilder builder;
+		private final String name;
+
+		FileCommand(ConsoleProcessBuilder builder, String name) {
+			this.builder = builder;
+			this.name = name;
+		}
+
+		File file(String path) {
+			return ConsolePipeline.resolve(builder.getCurrentWorkingDir(), path);
+		}
+
+		/**
+		 * @param path file name, "-" for the input
+		 * @return the channel or null after printing the error
+		 */
+		ReadableByteChannel open(String path, ConsoleCommandIO io) throws InterruptedException {
+
+			if (path.equals("-")) {
+				return Channels.newChannel(io.getInput());
+			}
+			File f = file(path);
+			if (f.isDirectory()) {
+				error(io, path, "Is a directory");
+				return null;
+			}
+			try {
+				return new FileInputStream(f).getChannel();
+			} catch (FileNotFoundException e) {
+				error(io, path, f.exists() ? "Permission denied" : "No such file or directory");
+				return null;
+			}
+		}
+
+		void error(ConsoleCommandIO io, String path, String message) throws InterruptedException {
+			io.println(String.format("%s: %s: %s", name, path, message));
+		}
+
+		/**
+		 * @return true when a path has a character the shell expands
+		 */
+		static boolean hasGlob(List<String> paths) {
+
+			for (String path : paths) {
+				if (path.indexOf('*') >= 0 || path.indexOf('?') >= 0 || path.indexOf('[') >= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		static List<String> sources(Options options) {
+
+			List<String> sources = options.operands;
+			if (sources.isEmpty()) {
+				sources.add("-");
+			}
+			return sources;
+		}
+
+		/**
+		 * @return true when the operands name stdin, or there are none
+		 */
+		static boolean readsInput(List<String> operands) {
+			return operands.isEmpty() || operands.contains("-");
+		}
+
+		static void close(ReadableByteChannel channel) {
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * ls [-a] [-l] [-1] [file...]
+	 */
+	private static class Ls extends FileCommand {
+
+		Ls(ConsoleProcessBuilder builder) {
+			super(builder, "ls");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+
+			Options options = new Options(params, "");
+			return options.only("al1") && !hasGlob(options.operands);
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+
+			Options options = new Options(params, "");
+			List<String> paths = options.operands;
+			if (paths.isEmpty()) {
+				paths.add(".");
+			}
+			Listing listing = new Listing(io, options, builder.getColumns());
+			int status = 0;
+			List<String> dirs = new ArrayList<String>();
+			for (String path : paths) {
+				File f = file(path);
+				if (!f.exists()) {
+					error(io, path, "No such file or directory");
+					status = 1;
+				} else if (f.isDirectory()) {
+					dirs.add(path);
+				} else {
+					listing.add(f, path);
+				}
+			}
+			listing.print();
+			for (String path : dirs) {
+				if (paths.size() > 1) {
+					io.println(String.format("\n%s:", path));
+				}
+				File dir = file(path);
+				String[] names = dir.list();
+				if (names == null) {
+					error(io, path, "Permission denied");
+					status = 1;
+					continue;
+				}
+				Arrays.sort(names);
+				for (String name : names) {
+					if (options.has('a') || !name.startsWith(".")) {
+						listing.add(new File(dir, name), name);
+					}
+				}
+				listing.print();
+			}
+			return status;
+		}
+	}
+
+	/**
+	 * Output of ls: columns on the console, one per line otherwise
+	 */
+	private static class Listing {
+
+		private final ConsoleCommandIO io;
+		private final boolean longFormat;
+		private final boolean columns;
+		private final int width;
+		private final List<File> files = new ArrayList<File>();
+		private final List<String> names = new ArrayList<String>();
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+		Listing(ConsoleCommandIO io, Options options, int width) {
+			this.io = io;
+			this.longFormat = options.has('l');
+			this.columns = io.isTerminal() && !options.has('1');
+			this.width = width;
+		}
+
+		void add(File file, String name) {
+			files.add(file);
+			names.add(name);
+		}
+
+		void print() throws InterruptedException {
+
+			int count = names.size();
+			if (longFormat) {
+				for (int i = 0; i < count; i++) {
+					File f = files.get(i);
+					// the permissions are the ones of this app
+					io.println(String.format("%c%c%c%c %10d %s %s",
+							f.isDirectory() ? 'd' : '-', f.canRead() ? 'r' : '-',
+							f.canWrite() ? 'w' : '-', f.canExecute() ? 'x' : '-',
+							f.length(), dateFormat.format(new Date(f.lastModified())), names.get(i)));
+				}
+			} else if (!columns) {
+				for (String name : names) {
+					io.println(name);
+				}
+			} else if (count > 0) {
+				int longest = 0;
+				for (String name : names) {
+					longest = Math.max(longest, name.length());
+				}
+				int columnWidth = longest + 2;
+				int perRow = Math.max(1, width / columnWidth);
+				int rows = (count + perRow - 1) / perRow;
+				StringBuilder line = new StringBuilder();
+				for (int row = 0; row < rows; row++) {
+					line.setLength(0);
+					for (int i = row; i < count; i += rows) {
+						String name = names.get(i);
+						line.append(name);
+						if (i + rows < count) {
+							for (int pad = name.length(); pad < columnWidth; pad++) {
+								line.append(' ');
+							}
+						}
+					}
+					io.println(line.toString());
+				}
+			}
+			files.clear();
+			names.clear();
+		}
+	}
+
+	/**
+	 * cat [file...]
+	 */
+	private static class Cat extends FileCommand {
+
+		Cat(ConsoleProcessBuilder builder) {
+			super(builder, "cat");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+
+			Options options = new Options(params, "");
+			return options.only("") && !hasGlob(options.operands)
+					&& (hasInput || !readsInput(options.operands));
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			TextOutput out = new TextOutput(io);
+			ByteBuffer buf = ByteBuffer.allocate(BUFF_LEN);
+			int status = 0;
+			for (String path : sources(new Options(params, ""))) {
+				ReadableByteChannel channel = open(path, io);
+				if (channel == null) {
+					status = 1;
+					continue;
+				}
+				try {
+					copy(channel, buf, out, io);
+				} finally {
+					close(channel);
+				}
+			}
+			return status;
+		}
+
+		static void copy(ReadableByteChannel channel, ByteBuffer buf, TextOutput out,
+				ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			buf.clear();
+			while (channel.read(buf) >= 0) {
+				io.checkCancelled();
+				buf.flip();
+				out.decode(buf, false);
+				buf.compact();
+			}
+			buf.flip();
+			out.decode(buf, true);
+		}
+	}
+
+	/**
+	 * head [-n count] [file...]
+	 */
+	private static class Head extends FileCommand {
+
+		Head(ConsoleProcessBuilder builder) {
+			super(builder, "head");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+
+			Options options = new Options(params, "n");
+			return options.only("") && options.isNumber('n') && !hasGlob(options.operands)
+					&& (hasInput || !readsInput(options.operands));
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			Options options = new Options(params, "n");
+			final int count = options.number('n', 10);
+			final TextOutput out = new TextOutput(io);
+			byte[] buffer = new byte[BUFF_LEN];
+			List<String> sources = sources(options);
+			int status = 0;
+			for (String path : sources) {
+				ReadableByteChannel channel = open(path, io);
+				if (channel == null) {
+					status = 1;
+					continue;
+				}
+				if (sources.size() > 1) {
+					io.println(String.format("==> %s <==", path));
+				}
+				try {
+					if (count > 0) {
+						new LineScanner(buffer) {
+
+							private int lines = 0;
+
+							@Override
+							boolean line(byte[] bytes, int start, int end, boolean newline)
+									throws InterruptedException {
+								out.write(bytes, start, end - start + (newline ? 1 : 0));
+								return ++lines < count;
+							}
+						}.scan(channel, io);
+					}
+				} finally {
+					close(channel);
+				}
+			}
+			return status;
+		}
+	}
+
+	/**
+	 * tail [-n count] [file...]
+	 * A file is read backwards from the end, the input is kept in a
+	 * window of the last count lines.
+	 */
+	private static class Tail extends FileCommand {
+
+		Tail(ConsoleProcessBuilder builder) {
+			super(builder, "tail");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+			// -n +NUM counts from the start, -f follows the file
+			Options options = new Options(params, "n");
+			return options.only("") && options.isNumber('n') && !hasGlob(options.operands)
+					&& (hasInput || !readsInput(options.operands));
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			Options options = new Options(params, "n");
+			int count = options.number('n', 10);
+			TextOutput out = new TextOutput(io);
+			ByteBuffer buf = ByteBuffer.allocate(BUFF_LEN);
+			List<String> sources = sources(options);
+			int status = 0;
+			for (String path : sources) {
+				ReadableByteChannel channel = open(path, io);
+				if (channel == null) {
+					status = 1;
+					continue;
+				}
+				if (sources.size() > 1) {
+					io.println(String.format("==> %s <==", path));
+				}
+				try {
+					if (count == 0) {
+						continue;
+					}
+					// files of /proc and /sys have a size of 0, they are read through
+					if (channel instanceof FileChannel && ((FileChannel)channel).size() > 0) {
+						FileChannel file = (FileChannel)channel;
+						file.position(lastLines(file, count, buf, io));
+						Cat.copy(file, buf, out, io);
+					} else {
+						tailStream(channel, count, buf.array(), out, io);
+					}
+				} finally {
+					close(channel);
+				}
+			}
+			return status;
+		}
+
+		/**
+		 * @return offset of the first of the last count lines
+		 */
+		private static long lastLines(FileChannel file, int count, ByteBuffer buf,
+				ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			long size = file.size();
+			long pos = size;
+			int lines = 0;
+			while (pos > 0) {
+				io.checkCancelled();
+				int len = (int)Math.min(buf.capacity(), pos);
+				pos -= len;
+				buf.clear();
+				buf.limit(len);
+				while (buf.hasRemaining() && file.read(buf, pos + buf.position()) > 0) {
+					// fill the block
+				}
+				byte[] a = buf.array();
+				for (int i = buf.position() - 1; i >= 0; i--) {
+					// the newline ending the last line does not start a line
+					if (a[i] == '\n' && pos + i != size - 1 && ++lines == count) {
+						return pos + i + 1;
+					}
+				}
+			}
+			return 0;
+		}
+
+		private static void tailStream(ReadableByteChannel channel, final int count, byte[] buffer,
+				TextOutput out, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			final ArrayDeque<byte[]> window = new ArrayDeque<byte[]>(Math.min(count, 1024));
+			new LineScanner(buffer) {
+
+				@Override
+				boolean line(byte[] bytes, int start, int end, boolean newline) {
+					if (window.size() == count) {
+						window.removeFirst();
+					}
+					window.addLast(Arrays.copyOfRange(bytes, start, end + (newline ? 1 : 0)));
+					return true;
+				}
+			}.scan(channel, io);
+			for (byte[] line : window) {
+				out.write(line, 0, line.length);
+			}
+		}
+	}
+
+	/**
+	 * wc [-l] [-w] [-c] [file...]
+	 */
+	private static class Wc extends FileCommand {
+
+		Wc(ConsoleProcessBuilder builder) {
+			super(builder, "wc");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+
+			Options options = new Options(params, "");
+			return options.only("lwc") && !hasGlob(options.operands)
+					&& (hasInput || !readsInput(options.operands));
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			Options options = new Options(params, "");
+			boolean all = !options.has('l') && !options.has('w') && !options.has('c');
+			boolean lines = all || options.has('l');
+			boolean words = all || options.has('w');
+			boolean bytes = all || options.has('c');
+			ByteBuffer buf = ByteBuffer.allocate(BUFF_LEN);
+			long[] counts = new long[3];
+			long[] total = new long[3];
+			List<String> sources = sources(options);
+			int status = 0;
+			for (String path : sources) {
+				ReadableByteChannel channel = open(path, io);
+				if (channel == null) {
+					status = 1;
+					continue;
+				}
+				try {
+					if (!lines && !words && channel instanceof FileChannel
+							&& ((FileChannel)channel).size() > 0) {
+						counts[0] = 0;
+						counts[1] = 0;
+						counts[2] = ((FileChannel)channel).size();
+					} else {
+						count(channel, buf, words, counts, io);
+					}
+				} finally {
+					close(channel);
+				}
+				for (int i = 0; i < 3; i++) {
+					total[i] += counts[i];
+				}
+				io.println(format(counts, lines, words, bytes, path.equals("-") ? "" : path));
+			}
+			if (sources.size() > 1) {
+				io.println(format(total, lines, words, bytes, "total"));
+			}
+			return status;
+		}
+
+		private static void count(ReadableByteChannel channel, ByteBuffer buf, boolean words,
+				long[] counts, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			long lineCount = 0;
+			long wordCount = 0;
+			long byteCount = 0;
+			boolean inWord = false;
+			byte[] a = buf.array();
+			buf.clear();
+			int n;
+			while ((n = channel.read(buf)) >= 0) {
+				io.checkCancelled();
+				if (words) {
+					for (int i = 0; i < n; i++) {
+						byte b = a[i];
+						if (b == '\n') {
+							lineCount++;
+						}
+						if (b == ' ' || (b >= '\t' && b <= '\r')) {
+							inWord = false;
+						} else if (!inWord) {
+							inWord = true;
+							wordCount++;
+						}
+					}
+				} else {
+					for (int i = 0; i < n; i++) {
+						if (a[i] == '\n') {
+							lineCount++;
+						}
+					}
+				}
+				byteCount += n;
+				buf.clear();
+			}
+			counts[0] = lineCount;
+			counts[1] = wordCount;
+			counts[2] = byteCount;
+		}
+
+		private static String format(long[] counts, boolean lines, boolean words, boolean bytes,
+				String name) {
+
+			StringBuilder sb = new StringBuilder();
+			boolean[] selected = { lines, words, bytes };
+			for (int i = 0; i < 3; i++) {
+				if (selected[i]) {
+					sb.append(String.format("%7d ", counts[i]));
+				}
+			}
+			if (name.length() > 0) {
+				sb.append(name);
+			} else {
+				sb.setLength(sb.length() - 1);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * find [path...] [-name glob] [-iname glob] [-type f|d] [-maxdepth n] [-j threads]
+	 * The tree is walked in parallel on a {@link ConsoleTreeWalker}.
+	 */
+	private static class Find extends FileCommand {
+
+		private static final String USAGE =
+				"usage: find [path...] [-name glob] [-iname glob] [-type f|d] [-maxdepth n] [-j threads]";
+
+		Find(ConsoleProcessBuilder builder) {
+			super(builder, "find");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+
+			int i = 1;
+			for (; i < params.length && !params[i].startsWith("-"); i++) {
+				if (params[i].equals("!") || params[i].equals("(") || hasGlob(Arrays.asList(params[i]))) {
+					return false;
+				}
+			}
+			for (; i + 1 < params.length; i += 2) {
+				String option = params[i];
+				String value = params[i + 1];
+				if (option.equals("-type")) {
+					if (!value.equals("f") && !value.equals("d")) {
+						return false;
+					}
+				} else if (option.equals("-maxdepth") || option.equals("-j")) {
+					if (!isDigits(value)) {
+						return false;
+					}
+				} else if (!option.equals("-name") && !option.equals("-iname")) {
+					return false;
+				}
+			}
+			return i == params.length;
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+
+			List<String> roots = new ArrayList<String>();
+			int i = 1;
+			while (i < params.length && !params[i].startsWith("-")) {
+				roots.add(params[i++]);
+			}
+			if (roots.isEmpty()) {
+				roots.add(".");
+			}
+			Pattern name = null;
+			char type = 0;
+			int maxDepth = Integer.MAX_VALUE;
+			int threads = Runtime.getRuntime().availableProcessors();
+			for (; i < params.length; i += 2) {
+				String option = params[i];
+				if (i + 1 == params.length) {
+					io.println(USAGE);
+					return 1;
+				}
+				String value = params[i + 1];
+				try {
+					if (option.equals("-name") || option.equals("-iname")) {
+						name = glob(value, option.equals("-iname"));
+					} else if (option.equals("-type") && (value.equals("f") || value.equals("d"))) {
+						type = value.charAt(0);
+					} else if (option.equals("-maxdepth")) {
+						maxDepth = Integer.parseInt(value);
+					} else if (option.equals("-j")) {
+						threads = Integer.parseInt(value);
+					} else {
+						io.println(USAGE);
+						return 1;
+					}
+				} catch (NumberFormatException e) {
+					io.println(String.format("find: %s: invalid number %s", option, value));
+					return 1;
+				}
+			}
+			final Pattern namePattern = name;
+			final char fileType = type;
+			ConsoleTreeWalker walker = new ConsoleTreeWalker("find", new ConsoleTreeWalker.IVisitor() {
+
+				@Override
+				public String visit(File file, String path, boolean isRoot, boolean isDirectory) {
+
+					if ((fileType == 'd' && !isDirectory) || (fileType == 'f' && !file.isFile())) {
+						return null;
+					}
+					if (namePattern != null && !namePattern.matcher(file.getName()).matches()) {
+						return null;
+					}
+					return path + "\n";
+				}
+			}, threads, io);
+			walker.setMaxDepth(maxDepth);
+			List<File> files = new ArrayList<File>(roots.size());
+			for (String root : roots) {
+				files.add(file(root));
+			}
+			return walker.walk(roots, files) ? 0 : 1;
+		}
+
+		/**
+		 * @return the pattern of a shell glob: * ? and [...]
+		 */
+		private static Pattern glob(String glob, boolean ignoreCase) {
+
+			StringBuilder regex = new StringBuilder();
+			for (int i = 0; i < glob.length(); i++) {
+				char c = glob.charAt(i);
+				int close = (c == '[') ? glob.indexOf(']', i + 2) : -1;
+				if (c == '*') {
+					regex.append(".*");
+				} else if (c == '?') {
+					regex.append('.');
+				} else if (close > 0) {
+					String set = glob.substring(i + 1, close);
+					regex.append('[');
+					if (set.startsWith("!")) {
+						regex.append('^');
+						set = set.substring(1);
+					}
+					regex.append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+					i = close;
+				} else {
+					if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+						regex.append('\\');
+					}
+					regex.append(c);
+				}
+			}
+			return Pattern.compile(regex.toString(),
+					ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+		}
+	}
+
+	/**
+	 * grep [-i] [-v] [-c] [-n] [-l] [-F] [-r [-j threads]] pattern [file...]
+	 * A literal pattern is searched on the bytes with Horspool skips,
+	 * regular expressions and -i decode the line first. With -r the
+	 * directories are searched on a {@link ConsoleTreeWalker}.
+	 */
+	private static class Grep extends FileCommand {
+
+		private static final String META = ".[]()*+?{}|^$\\";
+
+		Grep(ConsoleProcessBuilder builder) {
+			super(builder, "grep");
+		}
+
+		@Override
+		public boolean accepts(String[] params, boolean hasInput) {
+
+			Options options = new Options(params, "j");
+			if (!options.only("ivcnlFr") || !options.isNumber('j')) {
+				return false;
+			}
+			List<String> operands = options.operands;
+			if (operands.isEmpty()) {
+				return true;
+			}
+			List<String> paths = operands.subList(1, operands.size());
+			return (options.has('F') || isPortable(operands.get(0))) && !hasGlob(paths)
+					&& (hasInput || options.has('r') || !readsInput(paths));
+		}
+
+		/**
+		 * The basic regular expressions of grep escape the groups,
+		 * alternation and intervals java.util.regex writes plain, and
+		 * take a backslash in brackets literally.
+		 * @return true when the pattern means the same in both
+		 */
+		static boolean isPortable(String pattern) {
+
+			int length = pattern.length();
+			boolean bracket = false;
+			for (int i = 0; i < length; i++) {
+				char c = pattern.charAt(i);
+				if (bracket) {
+					// [:class:], \ and && in a set
+					if (c == '[' || c == '\\' || c == '&') {
+						return false;
+					}
+					bracket = (c != ']');
+				} else if (c == '[') {
+					if (i + 1 < length && pattern.charAt(i + 1) == '^') {
+						i++;
+					}
+					// a leading ] is a member
+					if (i + 1 < length && pattern.charAt(i + 1) == ']') {
+						return false;
+					}
+					bracket = true;
+				} else if (c == '\\') {
+					if (++i == length || ".*[]^$\\".indexOf(pattern.charAt(i)) < 0) {
+						return false;
+					}
+				} else if ("(){}|+?".indexOf(c) >= 0) {
+					return false;
+				} else if (c == '*' && (i == 0 || (i == 1 && pattern.charAt(0) == '^'))) {
+					return false;
+				} else if ((c == '^' && i > 0) || (c == '$' && i < length - 1)) {
+					return false;
+				}
+			}
+			return !bracket;
+		}
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) throws IOException, InterruptedException {
+
+			Options options = new Options(params, "j");
+			if (options.operands.isEmpty()) {
+				io.println("usage: grep [-i] [-v] [-c] [-n] [-l] [-F] [-r [-j threads]] pattern [file...]");
+				return 2;
+			}
+			String pattern = options.operands.remove(0);
+			try {
+				new LineMatcher(pattern, options.has('F'), options.has('i'));
+			} catch (PatternSyntaxException e) {
+				io.println("grep: " + e.getDescription());
+				return 2;
+			}
+			if (options.has('r')) {
+				return searchTree(pattern, options, io);
+			}
+			List<String> sources = sources(options);
+			GrepScanner scanner = newScanner(pattern, options, new TextOutput(io));
+			boolean found = false;
+			int status = 0;
+			for (String path : sources) {
+				ReadableByteChannel channel = open(path, io);
+				if (channel == null) {
+					status = 2;
+					continue;
+				}
+				try {
+					scanner.start(path, sources.size() > 1);
+					scanner.scan(channel, io);
+					found |= scanner.end();
+				} finally {
+					close(channel);
+				}
+			}
+			return (status != 0) ? status : found ? 0 : 1;
+		}
+
+		private static GrepScanner newScanner(String pattern, Options options, TextOutput out) {
+
+			return new GrepScanner(new byte[BUFF_LEN],
+					new LineMatcher(pattern, options.has('F'), options.has('i')), out,
+					options.has('v'), options.has('c'), options.has('n'), options.has('l'));
+		}
+
+		/**
+		 * Search the regular files under the operands in parallel, each
+		 * worker has its own scanner and collects the output of a file
+		 */
+		private int searchTree(final String pattern, final Options options, final ConsoleCommandIO io)
+				throws InterruptedException {
+
+			List<String> roots = options.operands;
+			if (roots.isEmpty()) {
+				roots.add(".");
+			}
+			final AtomicBoolean found = new AtomicBoolean(false);
+			final ThreadLocal<GrepWorker> workers = new ThreadLocal<GrepWorker>() {
+
+				@Override
+				protected GrepWorker initialValue() {
+					return new GrepWorker(pattern, options);
+				}
+			};
+			ConsoleTreeWalker walker = new ConsoleTreeWalker("grep", new ConsoleTreeWalker.IVisitor() {
+
+				@Override
+				public String visit(File file, String path, boolean isRoot, boolean isDirectory)
+						throws IOException, InterruptedException {
+					// devices and fifos could block, links are only followed
+					// for the operands
+					if (isDirectory || !file.isFile() || (!isRoot && ConsoleTreeWalker.isLink(file))) {
+						return null;
+					}
+					FileChannel channel;
+					try {
+						channel = new FileInputStream(file).getChannel();
+					} catch (FileNotFoundException e) {
+						throw new IOException("Permission denied");
+					}
+					GrepWorker worker = workers.get();
+					try {
+						worker.text.setLength(0);
+						worker.scanner.start(path, true);
+						worker.scanner.scan(channel, io);
+						if (worker.scanner.end()) {
+							found.set(true);
+						}
+					} finally {
+						close(channel);
+					}
+					return (worker.text.length() > 0) ? worker.text.toString() : null;
+				}
+			}, options.number('j', Runtime.getRuntime().availableProcessors()), io);
+			List<File> files = new ArrayList<File>(roots.size());
+			for (String root : roots) {
+				files.add(file(root));
+			}
+			boolean complete = walker.walk(roots, files);
+			return !complete ? 2 : found.get() ? 0 : 1;
+		}
+	}
+
+	/**
+	 * Scanner of a grep -r worker thread, writing to a text buffer
+	 */
+	private static class GrepWorker {
+
+		final StringBuilder text = new StringBuilder();
+		final GrepScanner scanner;
+
+		GrepWorker(String pattern, Options options) {
+
+			IConsoleOutputSink sink = new IConsoleOutputSink() {
+
+				@Override
+				public void write(char[] chars, int offset, int length) {
+					text.append(chars, offset, length);
+				}
+			};
+			scanner = Grep.newScanner(pattern, options,
+					new TextOutput(new ConsoleCommandIO(null, sink, false)));
+		}
+	}
+
+	private static class GrepScanner extends LineScanner {
+
+		private final LineMatcher matcher;
+		private final TextOutput out;
+		private final boolean invert;
+		private final boolean countOnly;
+		private final boolean numbers;
+		private final boolean namesOnly;
+		private String name = "";
+		private String prefix = "";
+		private long lineNumber;
+		private long matches;
+
+		GrepScanner(byte[] buffer, LineMatcher matcher, TextOutput out, boolean invert,
+				boolean countOnly, boolean numbers, boolean namesOnly) {
+			super(buffer);
+			this.matcher = matcher;
+			this.out = out;
+			this.invert = invert;
+			this.countOnly = countOnly;
+			this.numbers = numbers;
+			this.namesOnly = namesOnly;
+		}
+
+		/**
+		 * @param name file name
+		 * @param showName prefix the lines with the name
+		 */
+		void start(String name, boolean showName) {
+			this.name = name;
+			this.prefix = showName ? name + ":" : "";
+			lineNumber = 0;
+			matches = 0;
+		}
+
+		/**
+		 * @return true when a line matched
+		 */
+		boolean end() throws InterruptedException {
+
+			if (namesOnly) {
+				if (matches > 0) {
+					out.print(name + "\n");
+				}
+			} else if (countOnly) {
+				out.print(prefix + matches + "\n");
+			}
+			return matches > 0;
+		}
+
+		@Override
+		int candidate(byte[] bytes, int start, int end) {
+			// a literal is searched for across lines
+			return (matcher.isLiteral() && !invert) ? matcher.indexOf(bytes, start, end) : start;
+		}
+
+		@Override
+		void skipped(byte[] bytes, int start, int end) {
+
+			if (numbers) {
+				for (int i = start; i < end; i++) {
+					if (bytes[i] == '\n') {
+						lineNumber++;
+					}
+				}
+			}
+		}
+
+		@Override
+		boolean line(byte[] bytes, int start, int end, boolean newline) throws InterruptedException {
+
+			lineNumber++;
+			if (matcher.matches(bytes, start, end) == invert) {
+				return true;
+			}
+			matches++;
+			if (namesOnly) {
+				return false;
+			}
+			if (!countOnly) {
+				if (prefix.length() > 0 || numbers) {
+					out.print(numbers ? prefix + lineNumber + ":" : prefix);
+				}
+				out.write(bytes, start, end - start);
+				out.print("\n");
+			}
+			return true;
+		}
+	}
+
+	private static class LineMatcher {
+
+		private final byte[] literal;
+		private final int[] skip;
+		private final Matcher regex;
+		private final CharsetDecoder decoder;
+		private CharBuffer chars;
+
+		LineMatcher(String pattern, boolean fixed, boolean ignoreCase) {
+
+			boolean isLiteral = fixed;
+			if (!fixed) {
+				isLiteral = true;
+				for (int i = 0; i < pattern.length(); i++) {
+					if (Grep.META.indexOf(pattern.charAt(i)) >= 0) {
+						isLiteral = false;
+						break;
+					}
+				}
+			}
+			if (isLiteral && !ignoreCase) {
+				literal = pattern.getBytes(UTF8);
+				skip = new int[256];
+				int m = literal.length;
+				Arrays.fill(skip, Math.max(1, m));
+				for (int k = 0; k < m - 1; k++) {
+					skip[literal[k] & 0xff] = m - 1 - k;
+				}
+				regex = null;
+				decoder = null;
+			} else {
+				literal = null;
+				skip = null;
+				int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+				regex = Pattern.compile(isLiteral ? Pattern.quote(pattern) : pattern, flags)
+						.matcher("");
+				decoder = UTF8.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+				chars = CharBuffer.allocate(CHARS_LEN);
+			}
+		}
+
+		boolean isLiteral() {
+			return literal != null;
+		}
+
+		boolean matches(byte[] a, int start, int end) {
+
+			if (literal != null) {
+				return indexOf(a, start, end) >= 0;
+			}
+			int length = end - start;
+			if (chars.capacity() < length) {
+				chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+			}
+			chars.clear();
+			decoder.reset();
+			decoder.decode(ByteBuffer.wrap(a, start, length), chars, true);
+			decoder.flush(chars);
+			chars.flip();
+			return regex.reset(chars).find();
+		}
+
+		/**
+		 * @return position of the literal in [start, end), -1 when not found
+		 */
+		int indexOf(byte[] a, int start, int end) {
+
+			int m = literal.length;
+			if (m == 0) {
+				return start;
+			}
+			for (int i = start, last = end - m; i <= last; i += skip[a[i + m - 1] & 0xff]) {
+				int j = m - 1;
+				while (j >= 0 && a[i + j] == literal[j]) {
+					j--;
+				}
+				if (j < 0) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the environment variables.
+ * A lookup is one hash probe on the exact name. A change makes a new
+ * snapshot and leaves the old one to whoever holds it, so the processes
+ * started between two changes share one snapshot and one envp array,
+ * which is built the first time it is needed.
+ */
+final class ConsoleEnvironment {
+
+	private final Map<String, String> variables;
+	private volatile String[] envp;
+
+	ConsoleEnvironment(Map<String, String> variables) {
+		this.variables = Collections.unmodifiableMap(new HashMap<String, String>(variables));
+	}
+
+	/**
+	 * @return value of the variable, null when it is not set
+	 */
+	String get(String name) {
+		return variables.get(name);
+	}
+
+	/**
+	 * @return read-only view of all variables
+	 */
+	Map<String, String> asMap() {
+		return variables;
+	}
+
+	/**
+	 * @return a snapshot with the variable set, this one when it has the
+	 * value already
+	 */
+	ConsoleEnvironment with(String name, String value) {
+
+		if (value.equals(variables.get(name))) {
+			return this;
+		}
+		Map<String, String> changed = new HashMap<String, String>(variables);
+		changed.put(name, value);
+		return new ConsoleEnvironment(changed);
+	}
+
+	/**
+	 * @return a snapshot without the variable, this one when it is not set
+	 */
+	ConsoleEnvironment without(String name) {
+
+		if (!variables.containsKey(name)) {
+			return this;
+		}
+		Map<String, String> changed = new HashMap<String, String>(variables);
+		changed.remove(name);
+		return new ConsoleEnvironment(changed);
+	}
+
+	/**
+	 * @return NAME=value strings, shared by all callers and not to be
+	 * modified
+	 */
+	String[] toArray() {
+
+		String[] result = envp;
+		if (result == null) {
+			result = new String[variables.size()];
+			int i = 0;
+			for (Map.Entry<String, String> e : variables.entrySet()) {
+				result[i++] = e.getKey() + "=" + e.getValue();
+			}
+			envp = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return true for a valid variable name
+	 */
+	static boolean isName(String name) {
+
+		if (name.length() == 0 || Character.isDigit(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != '_' && !(c < 128 && Character.isLetterOrDigit(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous stdin of a job.
+ * A write from the UI thread only appends to a bounded buffer and
+ * returns, writes made while the previous batch is going out are sent
+ * together. A pooled thread sends the buffer in chunks of {@link #CHUNK}
+ * bytes and flushes once it is empty, so a child that does not read
+ * blocks that thread and not the UI, and a large paste goes out as fast
+ * as the child takes it. Control chars that interrupt the child skip
+ * the queue and drop what is waiting, like a terminal flushes its input
+ * on an interrupt.
+ */
+class ConsoleInputWriter implements Runnable {
+
+	static final int MAX_QUEUED = 1024 * 1024;
+	static final int CHUNK = 4096;
+
+	private static final String DEBUG_TAG = "ConsoleInputWriter";
+	private final OutputStream out;
+	private final Executor executor;
+	private byte[] queued = new byte[256];
+	private int queuedLength = 0;
+	private byte[] writing = new byte[256];
+	private boolean scheduled = false;
+	/** close the stream once the queue is empty */
+	private boolean eof = false;
+	private boolean closed = false;
+	/** counts discards, the batch being written stops at the next chunk */
+	private int discards = 0;
+
+	/**
+	 * @param out blocking stdin of the child
+	 * @param executor runs the writer while there is input
+	 */
+	ConsoleInputWriter(OutputStream out, Executor executor) {
+		this.out = out;
+		this.executor = executor;
+	}
+
+	/**
+	 * Queue input, never blocks
+	 * @return false when it does not fit, nothing is queued then
+	 */
+	synchronized boolean write(byte[] bytes, int offset, int length) {
+
+		if (closed || eof) {
+			return false;
+		}
+		if (queuedLength + length > MAX_QUEUED) {
+			return false;
+		}
+		if (queuedLength + length > queued.length) {
+			byte[] grown = new byte[Math.min(MAX_QUEUED, Math.max(queuedLength + length, queued.length * 2))];
+			System.arraycopy(queued, 0, grown, 0, queuedLength);
+			queued = grown;
+		}
+		System.arraycopy(bytes, offset, queued, queuedLength, length);
+		queuedLength += length;
+		schedule();
+		return true;
+	}
+
+	/**
+	 * Drop the queued input and send a byte ahead of anything else
+	 * @param b
+	 */
+	synchronized void interrupt(final byte b) {
+
+		if (closed) {
+			return;
+		}
+		queuedLength = 0;
+		discards++;
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					out.write(b);
+					out.flush();
+				} catch (IOException e) {
+					ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Close the stream after the queued input, the child reads EOF
+	 */
+	synchronized void closeInput() {
+
+		if (closed || eof) {
+			return;
+		}
+		eof = true;
+		schedule();
+	}
+
+	/**
+	 * Drop the queued input and accept no more, the stream is left to the
+	 * owner of the process
+	 */
+	synchronized void close() {
+
+		closed = true;
+		queuedLength = 0;
+		discards++;
+	}
+
+	private void schedule() {
+
+		if (!scheduled) {
+			scheduled = true;
+			executor.execute(this);
+		}
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			for (;;) {
+				int length;
+				int batch;
+				synchronized (this) {
+					if (queuedLength == 0 || closed) {
+						scheduled = false;
+						if (eof && !closed) {
+							closed = true;
+							out.close();
+						}
+						return;
+					}
+					byte[] swap = queued;
+					queued = writing;
+					writing = swap;
+					length = queuedLength;
+					queuedLength = 0;
+					batch = discards;
+				}
+				for (int off = 0; off < length; off += CHUNK) {
+					synchronized (this) {
+						if (discards != batch) {
+							break;
+						}
+					}
+					out.write(writing, off, Math.min(CHUNK, length - off));
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			// the child is gone or closed its stdin
+			ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			synchronized (this) {
+				closed = true;
+				queuedLength = 0;
+				scheduled = false;
+			}
+		}
+	}
+}
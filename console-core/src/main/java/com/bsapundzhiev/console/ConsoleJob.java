@@ -0,0 +1,407 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Command started by the executer.
+ * The process, the shell session running the command or the streams of
+ * a builtin are set by the worker thread, state changes come from the worker, the UI thread and the
+ * kill/fg/bg builtins, so all of it is guarded by the job monitor.
+ */
+class ConsoleJob {
+
+	static final int RUNNING = 0;
+	static final int STOPPED = 1;
+	static final int DONE = 2;
+
+	static final int SIGHUP = 1;
+	static final int SIGINT = 2;
+	static final int SIGQUIT = 3;
+	static final int SIGKILL = ConsolePty.SIGKILL;
+	static final int SIGTERM = 15;
+	static final int SIGCONT = 18;
+	static final int SIGSTOP = 19;
+	static final int SIGTSTP = 20;
+
+	static final char CTRL_C = 0x03;
+	static final char CTRL_D = 0x04;
+	static final char CTRL_Z = 0x1a;
+	static final char CTRL_BACKSLASH = 0x1c;
+
+	private static final String[] SIGNAL_NAMES = {
+		"HUP", "INT", "QUIT", "KILL", "TERM", "CONT", "STOP", "TSTP"
+	};
+	private static final int[] SIGNALS = {
+		SIGHUP, SIGINT, SIGQUIT, SIGKILL, SIGTERM, SIGCONT, SIGSTOP, SIGTSTP
+	};
+
+	private final int id;
+	private final String command;
+	private final ConsoleOutputDispatcher output;
+	private final ConsoleInputWriter input;
+	private Process process;
+	private ConsoleShellSession session;
+	private ConsoleCommandIO io;
+	private int state = RUNNING;
+	private int exitCode = 0;
+	private boolean background = false;
+
+	/**
+	 * @param id
+	 * @param command
+	 * @param output null for the job of a timeout in a pipeline stage
+	 * @param inputExecutor runs the stdin writer
+	 */
+	ConsoleJob(int id, String command, ConsoleOutputDispatcher output, Executor inputExecutor) {
+		this.id = id;
+		this.command = command;
+		this.output = output;
+		this.input = new ConsoleInputWriter(new Stdin(), inputExecutor);
+	}
+
+	int getId() {
+		return id;
+	}
+
+	String getCommand() {
+		return command;
+	}
+
+	ConsoleOutputDispatcher getOutput() {
+		return output;
+	}
+
+	synchronized int getState() {
+		return state;
+	}
+
+	synchronized int getExitCode() {
+		return exitCode;
+	}
+
+	synchronized boolean isBackground() {
+		return background;
+	}
+
+	synchronized void setBackground(boolean background) {
+		this.background = background;
+	}
+
+	/**
+	 * Attach the started process, a job killed before that kills it now
+	 */
+	synchronized void setProcess(Process process) {
+
+		this.process = process;
+		if (state == DONE) {
+			ConsoleProcesses.destroy(process);
+		}
+	}
+
+	synchronized void setSession(ConsoleShellSession session) {
+		this.session = session;
+	}
+
+	/**
+	 * @return the process of the running command, null for a command in
+	 * the shell session or a builtin
+	 */
+	synchronized Process getProcess() {
+		return (session == null) ? process : null;
+	}
+
+	/**
+	 * Attach the streams of a builtin, a job killed before is cancelled
+	 */
+	synchronized void setIO(ConsoleCommandIO io) {
+
+		this.io = io;
+		if (state == DONE) {
+			io.cancel();
+		}
+	}
+
+	/**
+	 * Mark the job done and wake up fg
+	 * @param status exit status
+	 */
+	synchronized void finish(int status) {
+
+		if (state != DONE) {
+			exitCode = status;
+			state = DONE;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until the job is done
+	 * @return exit status
+	 * @throws InterruptedException
+	 */
+	synchronized int waitFor() throws InterruptedException {
+
+		while (state != DONE) {
+			wait();
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Queue input for the job, does not block
+	 * @param bytes
+	 * @return false when the job is not taking more input
+	 */
+	boolean write(byte[] bytes) {
+		return input.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Send a control char typed at the console. A pty turns ^C, ^\, ^Z
+	 * and ^D into signals and EOF itself. For a pipe only ^D is emulated
+	 * by closing stdin, the caller stops the job on ^C.
+	 * @param c
+	 * @return false when the char was not sent
+	 */
+	boolean control(char c) {
+
+		boolean pty;
+		boolean piped;
+		synchronized (this) {
+			pty = (session != null) ? session.isPty() : process instanceof ConsolePty;
+			piped = !pty && session == null;
+		}
+		if (pty && (c == CTRL_C || c == CTRL_BACKSLASH || c == CTRL_Z)) {
+			input.interrupt((byte)c);
+			return true;
+		}
+		if (pty || (c != CTRL_D && c != CTRL_C && c != CTRL_BACKSLASH && c != CTRL_Z)) {
+			return input.write(new byte[] { (byte)c }, 0, 1);
+		}
+		if (c == CTRL_D && piped) {
+			input.closeInput();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Blocking stdin of the process or of the shell session, used by the
+	 * input writer
+	 */
+	private class Stdin extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+
+			Process p;
+			ConsoleShellSession s;
+			synchronized (ConsoleJob.this) {
+				p = process;
+				s = session;
+			}
+			if (s != null) {
+				s.write(bytes, offset, length);
+			} else if (p != null) {
+				p.getOutputStream().write(bytes, offset, length);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+
+			Process p;
+			synchronized (ConsoleJob.this) {
+				p = (session == null) ? process : null;
+			}
+			if (p != null) {
+				p.getOutputStream().flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			Process p;
+			synchronized (ConsoleJob.this) {
+				p = (session == null) ? process : null;
+			}
+			if (p != null) {
+				p.getOutputStream().close();
+			}
+		}
+	}
+
+	/**
+	 * Stop the job for good
+	 */
+	void kill() {
+
+		Process p;
+		ConsoleShellSession s;
+		synchronized (this) {
+			p = process;
+			s = session;
+			if (io != null) {
+				io.cancel();
+			}
+			finish(-1);
+		}
+		input.close();
+		if (output != null) {
+			output.close();
+		}
+		if (s != null) {
+			s.destroy();
+		} else if (p != null) {
+			ConsoleProcesses.destroy(p);
+		}
+	}
+
+	/**
+	 * @return true while a process or a shell command of the job runs
+	 */
+	boolean isWaitingForCommand() {
+
+		Process p;
+		ConsoleShellSession s;
+		synchronized (this) {
+			p = process;
+			s = session;
+		}
+		if (s != null) {
+			return s.isBusy();
+		}
+		return p != null && !ConsoleProcesses.hasExited(p);
+	}
+
+	/**
+	 * Signal the running command with its descendants, the job goes on
+	 * with what follows it. The shell of a session is spared, SIGKILL
+	 * takes it along for a command that has no process of its own.
+	 * @param signal
+	 */
+	void terminate(int signal) {
+
+		Process p;
+		ConsoleShellSession s;
+		synchronized (this) {
+			p = process;
+			s = session;
+		}
+		if (s != null) {
+			if (s.signalCommand(signal) == 0 && signal == SIGKILL) {
+				s.destroy();
+			}
+		} else if (p != null) {
+			if (signal == SIGKILL) {
+				ConsoleProcesses.destroy(p);
+			} else if (!ConsoleProcesses.signal(p, signal)) {
+				p.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Release the process once the job ended, pending output is kept
+	 */
+	void release() {
+
+		Process p;
+		synchronized (this) {
+			p = (session == null) ? process : null;
+			finish(-1);
+		}
+		input.close();
+		if (p != null) {
+			p.destroy();
+			for (Process stage : ConsoleProcesses.stages(p)) {
+				ConsoleProcesses.closeStreams(stage);
+			}
+		}
+	}
+
+	/**
+	 * Send a signal to the command and its descendants, a pty command
+	 * gets it as a group. When the pid is not known only the terminating
+	 * signals can be delivered, by destroying the process.
+	 * @param signal
+	 * @return false when the signal could not be delivered
+	 */
+	boolean signal(int signal) {
+
+		Process p;
+		boolean resume = false;
+		synchronized (this) {
+			if (state == DONE) {
+				return false;
+			}
+			p = process;
+			if (signal == SIGSTOP || signal == SIGTSTP) {
+				state = STOPPED;
+			} else if (signal == SIGCONT) {
+				state = RUNNING;
+			} else if (state == STOPPED && signal != SIGKILL) {
+				// a stopped process only acts on the signal once resumed
+				resume = true;
+				state = RUNNING;
+			}
+		}
+		if (signal != SIGKILL && p != null && ConsoleProcesses.signal(p, signal)) {
+			if (resume) {
+				ConsoleProcesses.signal(p, SIGCONT);
+			}
+			return true;
+		}
+		if (signal == SIGKILL || signal == SIGTERM || signal == SIGINT || signal == SIGHUP) {
+			kill();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param name signal name with or without SIG, or a number
+	 * @return signal number or -1
+	 */
+	static int parseSignal(String name) {
+
+		String upper = name.toUpperCase();
+		if (upper.startsWith("SIG")) {
+			upper = upper.substring(3);
+		}
+		for (int i = 0; i < SIGNAL_NAMES.length; i++) {
+			if (SIGNAL_NAMES[i].equals(upper)) {
+				return SIGNALS[i];
+			}
+		}
+		try {
+			return Integer.parseInt(upper);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		String stateName = (state == RUNNING) ? "Running"
+				: (state == STOPPED) ? "Stopped" : String.format("Done(%d)", exitCode);
+		return String.format("[%d] %-10s %s", id, stateName, command);
+	}
+}
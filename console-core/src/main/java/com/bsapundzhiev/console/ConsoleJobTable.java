@@ -0,0 +1,85 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Running jobs by job number.
+ * A new job gets the lowest free number, like in sh. Accessed from the UI
+ * thread and the workers, all methods are synchronized.
+ */
+class ConsoleJobTable {
+
+	private final TreeMap<Integer, ConsoleJob> jobs = new TreeMap<Integer, ConsoleJob>();
+	private ConsoleJob last;
+	private final Executor inputExecutor;
+
+	/**
+	 * @param inputExecutor runs the stdin writers of the jobs
+	 */
+	ConsoleJobTable(Executor inputExecutor) {
+		this.inputExecutor = inputExecutor;
+	}
+
+	synchronized ConsoleJob add(String command, ConsoleOutputDispatcher output) {
+
+		int id = 1;
+		while (jobs.containsKey(id)) {
+			id++;
+		}
+		ConsoleJob job = new ConsoleJob(id, command, output, inputExecutor);
+		jobs.put(id, job);
+		return job;
+	}
+
+	synchronized void remove(ConsoleJob job) {
+
+		if (jobs.get(job.getId()) == job) {
+			jobs.remove(job.getId());
+		}
+		if (last == job) {
+			last = null;
+		}
+	}
+
+	/**
+	 * Remember the job %% and %+ refer to
+	 */
+	synchronized void setCurrent(ConsoleJob job) {
+		last = job;
+	}
+
+	/**
+	 * @param spec %n, n, %% or %+ (the current job), null for the current job
+	 * @return the job or null
+	 */
+	synchronized ConsoleJob find(String spec) {
+
+		if (spec == null || spec.equals("%%") || spec.equals("%+") || spec.equals("%")) {
+			if (last != null) {
+				return last;
+			}
+			return jobs.isEmpty() ? null : jobs.lastEntry().getValue();
+		}
+		String number = spec.startsWith("%") ? spec.substring(1) : spec;
+		try {
+			return jobs.get(Integer.parseInt(number));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	synchronized List<ConsoleJob> list() {
+		return new ArrayList<ConsoleJob>(jobs.values());
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+/**
+ * Log of the console engine. Messages are dropped until an
+ * {@link IConsoleLogger} is installed, the app sends them to logcat.
+ */
+public final class ConsoleLog {
+
+	private static final IConsoleLogger NONE = new IConsoleLogger() {
+
+		@Override
+		public void debug(String tag, String message) {
+		}
+	};
+	private static volatile IConsoleLogger logger = NONE;
+
+	private ConsoleLog() {
+	}
+
+	/**
+	 * @param logger null to drop the messages
+	 */
+	public static void setLogger(IConsoleLogger logger) {
+		ConsoleLog.logger = (logger != null) ? logger : NONE;
+	}
+
+	static void d(String tag, String message) {
+		logger.debug(tag, message);
+	}
+}
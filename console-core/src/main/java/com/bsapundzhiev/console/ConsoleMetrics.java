@@ -0,0 +1,226 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime metrics of the command path, printed by the stats builtin.
+ * Counters and histograms are updated with atomic operations only, so
+ * recording costs a few nanoseconds and never blocks the reader or UI
+ * threads. Histograms keep power-of-two buckets, percentiles are the
+ * upper bound of the bucket they fall in.
+ */
+public final class ConsoleMetrics {
+
+	/** process start, us; commands of the shell session start none */
+	public static final Histogram SPAWN = new Histogram("spawn", "us");
+	/** process or session command start to its first output, us */
+	public static final Histogram FIRST_BYTE = new Histogram("first-byte", "us");
+	/** output rate of a command, bytes/s, chars/s of a session command */
+	public static final Histogram READ_RATE = new Histogram("read-rate", "B/s");
+	/** chars delivered to the UI in one callback */
+	public static final Histogram UI_BATCH = new Histogram("ui-batch", "chars");
+	/** chars waiting for the UI after a write */
+	public static final Histogram PENDING = new Histogram("pending", "chars");
+	/** late start of a UI delivery, us */
+	public static final Histogram UI_DELAY = new Histogram("ui-delay", "us");
+	/** drawing of one frame, us */
+	public static final Histogram RENDER = new Histogram("render", "us");
+	/** command start to the prompt, us */
+	public static final Histogram COMMAND = new Histogram("command", "us");
+	public static final Counter BYTES_READ = new Counter("bytes-read");
+	/** writers blocked until the UI caught up */
+	public static final Counter STALLS = new Counter("stalls");
+	/** lines not shown in flood mode */
+	public static final Counter SKIPPED_LINES = new Counter("skipped");
+
+	private static final Histogram[] HISTOGRAMS = { SPAWN, FIRST_BYTE, READ_RATE, UI_BATCH,
+			PENDING, UI_DELAY, RENDER, COMMAND };
+	private static final Counter[] COUNTERS = { BYTES_READ, STALLS, SKIPPED_LINES };
+
+	private ConsoleMetrics() {
+	}
+
+	/**
+	 * Monotonic event count
+	 */
+	public static final class Counter {
+
+		private final String name;
+		private final AtomicLong value = new AtomicLong();
+
+		Counter(String name) {
+			this.name = name;
+		}
+
+		public void add(long delta) {
+			value.addAndGet(delta);
+		}
+
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * Distribution of recorded values in power-of-two buckets
+	 */
+	public static final class Histogram {
+
+		/** bucket b holds values below 2^b, 0 in bucket 0 */
+		private static final int BUCKETS = 64;
+
+		private final String name;
+		private final String unit;
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		Histogram(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		/**
+		 * @param value negative values count as 0
+		 */
+		public void record(long value) {
+
+			value = Math.max(0, value);
+			buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			for (long m = max.get(); value > m && !max.compareAndSet(m, value); m = max.get()) {
+			}
+		}
+
+		/**
+		 * Record the microseconds since a System.nanoTime()
+		 */
+		public void recordSince(long startNanos) {
+			record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getMean() {
+			long n = count.get();
+			return (n == 0) ? 0 : sum.get() / n;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @param fraction 0.5 for the median
+		 * @return upper bound of the bucket the percentile falls in, at
+		 * most the maximum
+		 */
+		public long getPercentile(double fraction) {
+
+			long rank = (long)Math.ceil(count.get() * fraction);
+			long seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += buckets.get(b);
+				if (seen >= rank && seen > 0) {
+					long bound = (b == 0) ? 0 : (b >= 63) ? Long.MAX_VALUE : (1L << b) - 1;
+					return Math.min(bound, max.get());
+				}
+			}
+			return 0;
+		}
+
+		void reset() {
+
+			for (int b = 0; b < BUCKETS; b++) {
+				buckets.set(b, 0);
+			}
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+	}
+
+	/**
+	 * @return one line per metric
+	 */
+	public static String report() {
+
+		StringBuilder sb = new StringBuilder(String.format("%-11s %6s %9s %10s %10s %10s %10s %10s\n",
+				"metric", "unit", "count", "mean", "p50", "p90", "p99", "max"));
+		for (Histogram h : HISTOGRAMS) {
+			sb.append(String.format("%-11s %6s %9d %10d %10d %10d %10d %10d\n", h.name, h.unit,
+					h.getCount(), h.getMean(), h.getPercentile(0.5), h.getPercentile(0.9),
+					h.getPercentile(0.99), h.getMax()));
+		}
+		for (Counter c : COUNTERS) {
+			sb.append(String.format("%-11s %6s %9d\n", c.name, "", c.get()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Append the metrics to a CSV file, one row per metric with the time
+	 * and the bucket counts, so that exports made over time can be
+	 * compared
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void export(File file) throws IOException {
+
+		boolean header = !file.exists() || file.length() == 0;
+		Writer out = new FileWriter(file, true);
+		try {
+			if (header) {
+				out.write("time,metric,unit,count,sum,max");
+				for (int b = 0; b < Histogram.BUCKETS; b++) {
+					out.write(",lt2^" + b);
+				}
+				out.write('\n');
+			}
+			long now = System.currentTimeMillis();
+			for (Histogram h : HISTOGRAMS) {
+				out.write(String.format("%d,%s,%s,%d,%d,%d", now, h.name, h.unit, h.count.get(),
+						h.sum.get(), h.max.get()));
+				for (int b = 0; b < Histogram.BUCKETS; b++) {
+					out.write("," + h.buckets.get(b));
+				}
+				out.write('\n');
+			}
+			for (Counter c : COUNTERS) {
+				out.write(String.format("%d,%s,,%d,,\n", now, c.name, c.get()));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Start counting again
+	 */
+	public static void reset() {
+
+		for (Histogram h : HISTOGRAMS) {
+			h.reset();
+		}
+		for (Counter c : COUNTERS) {
+			c.value.set(0);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Output delivery stage between the reader thread and the UI thread.
+ * Output is gathered into one batch per display frame, so a chatty
+ * process costs one {@link IConsoleCommandExecuterCallback#onProcessOutput}
+ * call per frame instead of one per chunk. When more than
+ * {@link #MAX_PENDING} chars are waiting the UI can not keep up and the
+ * dispatcher switches to flood mode: only the last screen of lines is
+ * kept for each frame, behind a marker with the number of lines skipped,
+ * and the output goes to a spool file as well from then on. Flood mode
+ * ends when a frame gets less than {@link #FLOOD_EXIT_CHARS}. Without a
+ * spool directory the writer blocks until the UI thread catches up.
+ */
+class ConsoleOutputDispatcher implements IConsoleOutputSink {
+
+	static final long FRAME_MILLIS = 16;
+	static final int MAX_PENDING = 64 * 1024;
+	static final int FLOOD_EXIT_CHARS = 4 * 1024;
+
+	private static final String DEBUG_TAG = "ConsoleOutputDispatcher";
+	private final IConsoleDispatcher handler;
+	private final IConsoleCommandExecuterCallback consumer;
+	private final StringBuilder pending = new StringBuilder();
+	private boolean scheduled = false;
+	/** when the scheduled delivery should run, System.nanoTime() */
+	private long due;
+	private boolean closed = false;
+
+	private final File spoolDir;
+	private final ConsoleRecorder recorder;
+	/** lines kept per frame in flood mode */
+	private final int screenLines;
+	private boolean flood = false;
+	private ConsoleSpoolWriter spool;
+	/** newlines in pending, counted in flood mode */
+	private int pendingLines;
+	/** lines dropped since the last frame */
+	private long skipped = 0;
+	/** chars written since the last frame */
+	private long written = 0;
+	/** chars written in all */
+	private long total = 0;
+	private char lastDelivered = '\n';
+
+	private final Runnable deliverTask = new Runnable() {
+
+		@Override
+		public void run() {
+			deliver();
+		}
+	};
+
+	/**
+	 * @param consumer
+	 * @param handler runs the consumer on the UI thread
+	 */
+	ConsoleOutputDispatcher(IConsoleCommandExecuterCallback consumer, IConsoleDispatcher handler) {
+		this(consumer, handler, null, 0, null);
+	}
+
+	/**
+	 * @param consumer
+	 * @param handler runs the consumer on the UI thread
+	 * @param spoolDir spool files of flood mode, null for no flood mode
+	 * @param screenLines lines shown per frame in flood mode
+	 * @param recorder gets all output, null for none
+	 */
+	ConsoleOutputDispatcher(IConsoleCommandExecuterCallback consumer, IConsoleDispatcher handler,
+			File spoolDir, int screenLines, ConsoleRecorder recorder) {
+		this.handler = handler;
+		this.consumer = consumer;
+		this.spoolDir = spoolDir;
+		this.recorder = recorder;
+		this.screenLines = Math.max(1, screenLines);
+	}
+
+	/**
+	 * Queue output for the next frame, called from the reader thread
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @throws InterruptedException when interrupted while waiting for the UI
+	 */
+	@Override
+	public void write(char[] chars, int offset, int length) throws InterruptedException {
+
+		ConsoleSpoolWriter spooling;
+		synchronized (pending) {
+			if (pending.length() >= MAX_PENDING && !flood && !closed) {
+				startFlood();
+				if (!flood) {
+					ConsoleMetrics.STALLS.add(1);
+				}
+			}
+			while (pending.length() >= MAX_PENDING && !flood && !closed) {
+				pending.wait();
+			}
+			if (closed) {
+				return;
+			}
+			pending.append(chars, offset, length);
+			written += length;
+			total += length;
+			if (flood) {
+				trim(chars, offset, length);
+			}
+			ConsoleMetrics.PENDING.record(pending.length());
+			if (!scheduled) {
+				scheduled = true;
+				due = System.nanoTime() + FRAME_MILLIS * 1000000;
+				handler.postDelayed(deliverTask, FRAME_MILLIS);
+			}
+			spooling = spool;
+		}
+		if (spooling != null) {
+			spooling.write(chars, offset, length);
+		}
+		if (recorder != null) {
+			recorder.output(chars, offset, length);
+		}
+	}
+
+	/**
+	 * Deliver what is left ahead of any callback posted after this call,
+	 * and finish the spool file
+	 */
+	void drain() {
+
+		ConsoleSpoolWriter spooling;
+		synchronized (pending) {
+			spooling = spool;
+			spool = null;
+			if (spooling != null) {
+				if (pending.length() > 0 && pending.charAt(pending.length() - 1) != '\n') {
+					pending.append("\r\n");
+				}
+				pending.append(marker(String.format("output saved to %s", spooling.getFile())));
+			}
+			if (pending.length() == 0 && skipped == 0) {
+				return;
+			}
+			scheduled = true;
+			due = System.nanoTime();
+		}
+		if (spooling != null) {
+			spooling.close();
+		}
+		handler.post(deliverTask);
+	}
+
+	/**
+	 * @return chars written so far, -1 while the writer waits for the UI
+	 */
+	long getProgress() {
+
+		synchronized (pending) {
+			return (pending.length() >= MAX_PENDING && !flood && !closed) ? -1 : total;
+		}
+	}
+
+	/**
+	 * Drop pending output and release a blocked writer
+	 */
+	void close() {
+
+		ConsoleSpoolWriter spooling;
+		synchronized (pending) {
+			closed = true;
+			pending.setLength(0);
+			pending.notifyAll();
+			spooling = spool;
+			spool = null;
+		}
+		if (spooling != null) {
+			spooling.close();
+		}
+	}
+
+	/**
+	 * The UI is behind, spool the output from here on, starting with what
+	 * was not shown yet
+	 */
+	private void startFlood() throws InterruptedException {
+
+		if (spoolDir == null) {
+			return;
+		}
+		if (spool == null) {
+			try {
+				spool = ConsoleSpoolWriter.create(spoolDir);
+			} catch (IOException e) {
+				ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+				return;
+			}
+			// an empty queue, this does not wait
+			spool.write(pending);
+		}
+		flood = true;
+		pendingLines = 0;
+		for (int i = 0; i < pending.length(); i++) {
+			if (pending.charAt(i) == '\n') {
+				pendingLines++;
+			}
+		}
+		trim(null, 0, 0);
+	}
+
+	/**
+	 * Keep the last screen of lines in pending
+	 * @param chars just appended
+	 */
+	private void trim(char[] chars, int offset, int length) {
+
+		for (int i = offset; i < offset + length; i++) {
+			if (chars[i] == '\n') {
+				pendingLines++;
+			}
+		}
+		if (pendingLines <= screenLines && pending.length() <= MAX_PENDING) {
+			return;
+		}
+		int target = pendingLines - screenLines;
+		int removed = 0;
+		int cut = 0;
+		while (removed < target) {
+			if (pending.charAt(cut++) == '\n') {
+				removed++;
+			}
+		}
+		int lines = removed;
+		if (pending.length() - cut > MAX_PENDING) {
+			// a very long line, keep its end
+			for (int end = pending.length() - MAX_PENDING / 2; cut < end; cut++) {
+				if (pending.charAt(cut) == '\n') {
+					removed++;
+				}
+			}
+			lines = removed + 1;
+		}
+		pending.delete(0, cut);
+		pendingLines -= removed;
+		skipped += lines;
+		ConsoleMetrics.SKIPPED_LINES.add(lines);
+	}
+
+	private void deliver() {
+
+		final String batch;
+		synchronized (pending) {
+			scheduled = false;
+			if (flood && written < FLOOD_EXIT_CHARS) {
+				// the output calmed down, the spool file goes on to the end
+				flood = false;
+			}
+			written = 0;
+			if (pending.length() == 0 && skipped == 0) {
+				return;
+			}
+			if (skipped > 0) {
+				String note = marker(String.format("%d lines skipped", skipped));
+				pending.insert(0, (lastDelivered != '\n') ? "\r\n" + note : note);
+				skipped = 0;
+			}
+			batch = pending.toString();
+			pending.setLength(0);
+			pendingLines = 0;
+			pending.notifyAll();
+			lastDelivered = batch.charAt(batch.length() - 1);
+			ConsoleMetrics.UI_DELAY.recordSince(due);
+		}
+		ConsoleMetrics.UI_BATCH.record(batch.length());
+		consumer.onProcessOutput(batch);
+	}
+
+	/**
+	 * @return a line in inverse video
+	 */
+	private static String marker(String text) {
+		return "\u001b[7m-- " + text + " --\u001b[27m\r\n";
+	}
+}
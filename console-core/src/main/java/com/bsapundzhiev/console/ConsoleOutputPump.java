@@ -0,0 +1,136 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Process output pump.
+ * Reads the output in blocks into a reusable buffer and decodes it with a
+ * streaming decoder, so multi-byte sequences split between two reads are
+ * carried over to the next one. Decoded text is handed off in chunks of at
+ * most {@link #CHUNK_LEN} chars to an {@link IConsoleOutputSink}.
+ * The pump runs on the caller's thread, a job reads its own output
+ * before waiting for the process.
+ */
+class ConsoleOutputPump implements Runnable {
+
+	static final int BUFF_LEN = 8192;
+	static final int CHUNK_LEN = 4096;
+
+	private final String DEBUG_TAG = "ConsoleOutputPump";
+	private final InputStream inputStream;
+	private final IConsoleOutputSink sink;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes = ByteBuffer.allocate(BUFF_LEN);
+	private final CharBuffer chars = CharBuffer.allocate(CHUNK_LEN);
+	/** the process was started just before */
+	private final long created = System.nanoTime();
+	/** false when the output is of many commands, the sink times them */
+	private final boolean timed;
+	private long total = 0;
+
+	public ConsoleOutputPump(InputStream is, IConsoleOutputSink sink) {
+		this(is, sink, true);
+	}
+
+	/**
+	 * @param is
+	 * @param sink
+	 * @param timed record the first byte and read rate of the process
+	 */
+	ConsoleOutputPump(InputStream is, IConsoleOutputSink sink, boolean timed) {
+		this.inputStream = is;
+		this.sink = sink;
+		this.timed = timed;
+		this.decoder = Charset.forName("UTF-8").newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			for (int n = 0; (n = read()) != -1; ) {
+
+				count(n);
+				bytes.position(bytes.position() + n);
+				bytes.flip();
+				decode(false);
+				// keep an incomplete trailing sequence for the next read
+				bytes.compact();
+				flushChunk();
+			}
+			bytes.flip();
+			decode(true);
+			while (decoder.flush(chars).isOverflow()) {
+				flushChunk();
+			}
+			flushChunk();
+		} catch (Exception e) {
+			ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+		}
+		if (timed && total > 0) {
+			ConsoleMetrics.READ_RATE.record((long)(total * 1e9 / (System.nanoTime() - created)));
+		}
+	}
+
+	private void count(int n) {
+
+		if (n > 0) {
+			if (timed && total == 0) {
+				ConsoleMetrics.FIRST_BYTE.recordSince(created);
+			}
+			total += n;
+			ConsoleMetrics.BYTES_READ.add(n);
+		}
+	}
+
+	/**
+	 * Read into the free part of the buffer. A pty master fails with EIO
+	 * once the slave side is closed, that is the end of output as well.
+	 * @return bytes read or -1 at the end of output
+	 */
+	private int read() {
+
+		try {
+			return inputStream.read(bytes.array(), bytes.position(), bytes.remaining());
+		} catch (IOException e) {
+			ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			return -1;
+		}
+	}
+
+	private void decode(boolean endOfInput) throws InterruptedException {
+
+		for (;;) {
+			CoderResult result = decoder.decode(bytes, chars, endOfInput);
+			if (!result.isOverflow()) {
+				break;
+			}
+			flushChunk();
+		}
+	}
+
+	private void flushChunk() throws InterruptedException {
+
+		if (chars.position() > 0) {
+			sink.write(chars.array(), 0, chars.position());
+			chars.clear();
+		}
+	}
+}
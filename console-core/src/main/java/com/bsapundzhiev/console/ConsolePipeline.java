@@ -0,0 +1,362 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Pipeline of builtins and external commands, run as one process.
+ * External stages are started on pipes. Since ProcessBuilder.Redirect is
+ * not available on Android, every link, file redirection and stderr stream
+ * is copied by a plumbing task through one fixed size buffer, so the
+ * memory used does not depend on the amount of data. Builtins run
+ * in-process and stream to an in-process pipe or straight to the file.
+ * The input stream is the output of the last stage (empty when it is
+ * redirected), the output stream is the input of the first one.
+ */
+class ConsolePipeline extends Process {
+
+	private static final String DEBUG_TAG = "ConsolePipeline";
+	static final int BUFF_LEN = 8192;
+
+	private final ExecutorService plumbing;
+	private final List<Process> processes = new ArrayList<Process>();
+	private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+	private final List<ConsoleCommandIO> builtins = new ArrayList<ConsoleCommandIO>();
+	private InputStream inputStream = new ByteArrayInputStream(new byte[0]);
+	private OutputStream outputStream = new NullOutputStream();
+	/** last stage when it is external, null for a builtin */
+	private Process last;
+	private volatile int builtinStatus = 0;
+	private int exitValue;
+	private boolean exited = false;
+
+	private ConsolePipeline(ExecutorService plumbing) {
+		this.plumbing = plumbing;
+	}
+
+	/**
+	 * Start all stages
+	 * @param line parsed command line
+	 * @param commands builtins
+	 * @param builder directory and environment of the external commands
+	 * @param errors receives stderr of the stages that do not redirect it
+	 * @param plumbing runs the copy tasks and the builtins
+	 * @throws IOException when a command or a file can not be opened
+	 */
+	static ConsolePipeline start(ConsoleCommandLine line, ConsoleCommandFactory commands,
+			ConsoleProcessBuilder builder, IConsoleOutputSink errors, ExecutorService plumbing)
+			throws IOException {
+
+		ConsolePipeline pipeline = new ConsolePipeline(plumbing);
+		try {
+			pipeline.connect(line, commands, builder, errors);
+		} catch (IOException e) {
+			pipeline.destroy();
+			throw e;
+		}
+		return pipeline;
+	}
+
+	private void connect(ConsoleCommandLine line, ConsoleCommandFactory commands,
+			ConsoleProcessBuilder builder, IConsoleOutputSink errors) throws IOException {
+
+		String cwd = builder.getCurrentWorkingDir();
+		// output of the previous stage, null when there is none
+		InputStream upstream = null;
+		int count = line.commands.size();
+		for (int i = 0; i < count; i++) {
+			ConsoleCommandLine.Command command = line.commands.get(i);
+			InputStream source = upstream;
+			if (command.input != null) {
+				close(source);
+				source = new FileInputStream(resolve(cwd, command.input));
+			}
+			IBtermCommand builtin = commands.getCommandFor(command.getArgs(), source != null);
+			InputStream stdout;
+			if (builtin != null) {
+				OutputStream target = (command.output == null) ? null
+						: openOutput(cwd, command.output, command.appendOutput);
+				stdout = startBuiltin(builtin, command.getArgs(), source, target, i == count - 1);
+				last = null;
+				if (command.errorOutput != null) {
+					// builtins write errors to the output, just create the file
+					openOutput(cwd, command.errorOutput, command.appendErrorOutput).close();
+				}
+			} else {
+				Process process = builder.spawnPiped(command.getArgs(), command.errorToOutput);
+				processes.add(process);
+				last = process;
+				if (source != null) {
+					copy(source, process.getOutputStream());
+				} else if (i == 0) {
+					outputStream = process.getOutputStream();
+				} else {
+					// the previous stage writes to a file
+					process.getOutputStream().close();
+				}
+				if (command.errorOutput != null) {
+					copy(process.getErrorStream(),
+							openOutput(cwd, command.errorOutput, command.appendErrorOutput));
+				} else if (!command.errorToOutput) {
+					tasks.add(plumbing.submit(new ConsoleOutputPump(process.getErrorStream(), errors)));
+				}
+				stdout = process.getInputStream();
+				if (command.output != null) {
+					copy(stdout, openOutput(cwd, command.output, command.appendOutput));
+					stdout = null;
+				}
+			}
+			upstream = stdout;
+		}
+		if (upstream != null) {
+			inputStream = upstream;
+		}
+	}
+
+	/**
+	 * Run a builtin on a plumbing thread
+	 * @param source stdin or null
+	 * @param target file to write to, null for a pipe to the next stage
+	 * @param isLast the status of the last stage is the pipeline status
+	 * @return the pipe or null when writing to a file
+	 */
+	private InputStream startBuiltin(final IBtermCommand builtin, final String[] params,
+			final InputStream source, OutputStream target, final boolean isLast) throws IOException {
+
+		PipedInputStream pipe = null;
+		if (target == null) {
+			pipe = new PipedInputStream(BUFF_LEN);
+			target = new PipedOutputStream(pipe);
+		}
+		final StreamSink sink = new StreamSink(target);
+		final ConsoleCommandIO io = new ConsoleCommandIO(source, sink, false);
+		builtins.add(io);
+		tasks.add(plumbing.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					int status = builtin.exec(params, io);
+					if (isLast) {
+						builtinStatus = status;
+					}
+				} catch (IOException e) {
+					ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+				} catch (InterruptedException e) {
+					ConsoleLog.d(DEBUG_TAG, "Intr: " + e.getMessage());
+				} finally {
+					sink.close();
+					close(source);
+				}
+			}
+		}));
+		return pipe;
+	}
+
+	/**
+	 * @return path relative to the working directory unless absolute
+	 */
+	static File resolve(String cwd, String path) {
+
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(cwd, path);
+	}
+
+	private static OutputStream openOutput(String cwd, String path, boolean append)
+			throws IOException {
+		return new FileOutputStream(resolve(cwd, path), append);
+	}
+
+	/**
+	 * Copy in to out on a plumbing thread, both are closed at the end
+	 */
+	private void copy(final InputStream in, final OutputStream out) {
+
+		tasks.add(plumbing.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				ReadableByteChannel from = (in instanceof FileInputStream)
+						? ((FileInputStream)in).getChannel() : Channels.newChannel(in);
+				WritableByteChannel to = (out instanceof FileOutputStream)
+						? ((FileOutputStream)out).getChannel() : Channels.newChannel(out);
+				ByteBuffer buffer = ByteBuffer.allocate(BUFF_LEN);
+				try {
+					while (from.read(buffer) != -1) {
+						buffer.flip();
+						while (buffer.hasRemaining()) {
+							to.write(buffer);
+						}
+						// process stdin is buffered, pass the data on now
+						out.flush();
+						buffer.clear();
+					}
+				} catch (IOException e) {
+					// the reader went away, the writer gets EPIPE
+					ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+				} finally {
+					close(out);
+					close(in);
+				}
+			}
+		}));
+	}
+
+	private static void close(Closeable c) {
+
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			}
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	/**
+	 * Wait for all stages and copy tasks
+	 * @return exit status of the last stage
+	 */
+	@Override
+	public int waitFor() throws InterruptedException {
+
+		int status = 0;
+		for (Process process : processes) {
+			int s = process.waitFor();
+			if (process == last) {
+				status = s;
+			}
+		}
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			} catch (CancellationException e) {
+				ConsoleLog.d(DEBUG_TAG, "cancelled");
+			}
+		}
+		if (last == null) {
+			status = builtinStatus;
+		}
+		synchronized (this) {
+			exitValue = status;
+			exited = true;
+		}
+		return status;
+	}
+
+	@Override
+	public synchronized int exitValue() {
+
+		if (!exited) {
+			throw new IllegalThreadStateException("pipeline has not exited");
+		}
+		return exitValue;
+	}
+
+	/**
+	 * @return the external stages
+	 */
+	List<Process> getProcesses() {
+		return processes;
+	}
+
+	@Override
+	public void destroy() {
+
+		for (Process process : processes) {
+			ConsoleProcesses.destroy(process);
+		}
+		for (ConsoleCommandIO io : builtins) {
+			io.cancel();
+		}
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+		close(outputStream);
+		close(inputStream);
+	}
+
+	/**
+	 * UTF-8 encoding sink of a builtin stage
+	 */
+	private static class StreamSink implements IConsoleOutputSink {
+
+		private final OutputStreamWriter writer;
+
+		StreamSink(OutputStream out) throws IOException {
+			writer = new OutputStreamWriter(out, "UTF-8");
+		}
+
+		@Override
+		public void write(char[] chars, int offset, int length) throws InterruptedException {
+
+			try {
+				writer.write(chars, offset, length);
+				// the next stage sees the output as it is written
+				writer.flush();
+			} catch (IOException e) {
+				// the reader is gone, stop the builtin like SIGPIPE would
+				throw new InterruptedException("broken pipe: " + e.getMessage());
+			}
+		}
+
+		void close() {
+			ConsolePipeline.close(writer);
+		}
+	}
+
+	private static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
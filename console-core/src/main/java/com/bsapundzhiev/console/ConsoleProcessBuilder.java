@@ -0,0 +1,286 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ * 
+ *  Licensed under GNU General Public License 3.0 or later. 
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+interface IConsoleBuilder {
+	void start(String[] params) throws IOException;
+	int waitFor() throws InterruptedException;
+	void destroy();
+}
+
+public class ConsoleProcessBuilder extends Object implements IConsoleBuilder {
+
+	private String DEBUG_TAG = "ConsoleProcessBuilder";
+	private ProcessBuilder processBuilder = new ProcessBuilder();
+	private final ConsoleCommandResolver resolver = new ConsoleCommandResolver();
+	private volatile ConsoleEnvironment environment;
+	/** environment copied into processBuilder */
+	private ConsoleEnvironment applied;
+	private volatile Process process;
+	/** canonical working directory, read without the lock */
+	private volatile String workingDir;
+	private volatile boolean isRunning = false;
+	private volatile int rows = 24;
+	private volatile int columns = 80;
+
+	public ConsoleProcessBuilder() {
+		String initPath ="/data/local/tmp"; //System.getProperty("user.dir");
+		processBuilder.directory(new File(initPath));
+		processBuilder.redirectErrorStream(true);
+		if (!processBuilder.environment().containsKey("TERM")) {
+			processBuilder.environment().put("TERM", "vt100");
+		}
+		environment = new ConsoleEnvironment(processBuilder.environment());
+		applied = environment;
+		workingDir = canonicalPath(processBuilder.directory());
+	}
+
+	public boolean isRunning() {
+		return isRunning;
+	}
+
+	private void set_isRunning(boolean runnig) {
+		isRunning = runnig;
+	}
+
+	/**
+	 * @return the working directory as it was when changed, does not
+	 * wait for a spawn in progress
+	 */
+	String getCurrentWorkingDir() {
+		return workingDir;
+	}
+
+	private String canonicalPath(File dir) {
+
+		try {
+			String cwd = dir.getCanonicalPath();
+			return (cwd.length()  == 0) ?  File.separator: cwd;
+		}catch (Exception e) {
+			ConsoleLog.d(DEBUG_TAG, e.getMessage());
+			return null;
+		}
+	}
+
+	synchronized void changeDir(String path) throws Exception {
+
+		if(!path.startsWith(File.separator)) { 	
+			path = String.format("%s/%s", getCurrentWorkingDir(), path);
+			ConsoleLog.d(DEBUG_TAG, path);
+		}
+
+		File dir = new File(path);
+
+		if(dir.exists()) {
+			processBuilder.directory(dir);
+			workingDir = canonicalPath(dir);
+		} else {
+			throw new Exception(String.format("%s: no such file or directory", path));
+		}
+	}
+
+	/**
+	 * @param key exact variable name
+	 * @return value, null when the variable is not set
+	 */
+	public String getEnv(String key) {
+		return environment.get(key);
+	}
+
+	/**
+	 * Set or add a variable for the processes started from now on
+	 * @param key
+	 * @param val
+	 */
+	public synchronized void setEnv(String key, String val) {
+
+		environment = environment.with(key, val);
+		ConsoleLog.d(DEBUG_TAG, "setEnv: "+ key +" = "+ val);
+	}
+
+	/**
+	 * Remove a variable for the processes started from now on
+	 * @param key
+	 */
+	public synchronized void unsetEnv(String key) {
+		environment = environment.without(key);
+	}
+
+	/**
+	 * @return the current environment, it does not change
+	 */
+	ConsoleEnvironment getEnvironment() {
+		return environment;
+	}
+
+	public Process getProcess () {
+		return process;
+	}
+
+	/**
+	 * Terminal size for pty backed processes
+	 * @param rows
+	 * @param columns
+	 */
+	public void setWindowSize(int rows, int columns) {
+
+		this.rows = rows;
+		this.columns = columns;
+		Process p = process;
+		if (isRunning && p instanceof ConsolePty) {
+			((ConsolePty)p).setWindowSize(rows, columns);
+		}
+	}
+
+	int getColumns() {
+		return columns;
+	}
+
+	int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Start the command on a pseudo-terminal when the native library is
+	 * available, on pipes otherwise
+	 */
+	@Override
+	public void start(String[] params) throws IOException {
+		process = spawn(params);
+		set_isRunning(true);
+	}
+
+	/**
+	 * Start a process with the current directory and environment without
+	 * making it the running process, called from any thread
+	 * @param params
+	 * @throws IOException
+	 */
+	synchronized Process spawn(String[] params) throws IOException {
+
+		long start = System.nanoTime();
+		params = resolve(params);
+		Process p;
+		if (ConsolePty.isAvailable()) {
+			p = ConsolePty.start(params, environment.toArray(),
+					getCurrentWorkingDir(), rows, columns);
+		} else {
+			applyEnvironment();
+			processBuilder.command(params);
+			p = processBuilder.start();
+		}
+		ConsoleMetrics.SPAWN.recordSince(start);
+		return p;
+	}
+
+	/**
+	 * Start a process on pipes, for a pipeline stage
+	 * @param params
+	 * @param mergeErrors stderr goes to stdout
+	 * @throws IOException
+	 */
+	synchronized Process spawnPiped(String[] params, boolean mergeErrors) throws IOException {
+
+		long start = System.nanoTime();
+		params = resolve(params);
+		applyEnvironment();
+		processBuilder.command(params);
+		processBuilder.redirectErrorStream(mergeErrors);
+		try {
+			Process p = processBuilder.start();
+			ConsoleMetrics.SPAWN.recordSince(start);
+			return p;
+		} finally {
+			processBuilder.redirectErrorStream(true);
+		}
+	}
+
+	/**
+	 * Copy the environment into processBuilder when it changed since the
+	 * last process was started
+	 */
+	private void applyEnvironment() {
+
+		ConsoleEnvironment env = environment;
+		if (env != applied) {
+			Map<String, String> target = processBuilder.environment();
+			target.clear();
+			target.putAll(env.asMap());
+			applied = env;
+		}
+	}
+
+	/**
+	 * @param name command name
+	 * @return the executable in PATH, null when there is none
+	 */
+	synchronized String which(String name) {
+		return resolver.resolve(name, getEnv("PATH"));
+	}
+
+	/**
+	 * @return names of the executables in PATH, the same set until they
+	 * change
+	 */
+	synchronized Set<String> getExecutables() {
+		return resolver.getNames(getEnv("PATH"));
+	}
+
+	/**
+	 * Rebuild the table of PATH executables
+	 */
+	void rehash() {
+		resolver.rehash();
+	}
+
+	/**
+	 * Look the command up in PATH here, so that a missing one fails
+	 * without starting a process and the system does not search PATH
+	 */
+	private String[] resolve(String[] params) throws IOException {
+
+		String executable = which(params[0]);
+		if (executable == null) {
+			throw new IOException(String.format("%s: not found", params[0]));
+		}
+		String[] resolved = params.clone();
+		resolved[0] = executable;
+		return resolved;
+	}
+
+	/**
+	 * Resize a process started with {@link #spawn(String[])}
+	 */
+	void setWindowSize(Process p) {
+
+		if (p instanceof ConsolePty) {
+			((ConsolePty)p).setWindowSize(rows, columns);
+		}
+	}
+
+	@Override
+	public void destroy() {
+
+		if(isRunning) {
+			set_isRunning(false);
+			process.destroy();
+		}
+	}
+
+	@Override
+	public int waitFor() throws InterruptedException {
+
+		return process.waitFor();
+	}	
+}
@@ -0,0 +1,365 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process trees of the commands.
+ * Process.destroy() only reaches the child, the processes it started
+ * keep running and keep the output pipe open. A command on a pty leads
+ * its own session and process group, a command on pipes shares the
+ * group of the app, so the descendants are found through the parent
+ * pids in /proc. A tree is stopped before it is killed, so that no
+ * process forks a child the walk has missed.
+ */
+final class ConsoleProcesses {
+
+	private static final String DEBUG_TAG = "ConsoleProcesses";
+
+	/**
+	 * A process as seen in /proc/[pid]/stat
+	 */
+	static class Stat {
+
+		final int pid;
+		final int ppid;
+		final int session;
+		final char state;
+		/** start time in clock ticks since boot, tells a reused pid apart */
+		final long start;
+
+		Stat(int pid, int ppid, int session, char state, long start) {
+			this.pid = pid;
+			this.ppid = ppid;
+			this.session = session;
+			this.state = state;
+			this.start = start;
+		}
+
+		boolean isAlive() {
+			return state != 'Z' && state != 'X';
+		}
+	}
+
+	private ConsoleProcesses() {
+	}
+
+	/**
+	 * @return pid of a child process, -1 when it is not known
+	 */
+	static int getPid(Process process) {
+
+		if (process instanceof ConsolePty) {
+			return ((ConsolePty)process).getPid();
+		}
+		if (process == null || process instanceof ConsolePipeline) {
+			return -1;
+		}
+		try {
+			// Java 9
+			return ((Number)Process.class.getMethod("pid").invoke(process)).intValue();
+		} catch (Exception e) {
+			// older runtimes and Android keep it in a field
+		}
+		try {
+			Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(process);
+		} catch (Exception e) {
+			ConsoleLog.d(DEBUG_TAG, "no pid: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the stages of a pipeline, or the process
+	 */
+	static List<Process> stages(Process process) {
+
+		if (process instanceof ConsolePipeline) {
+			return ((ConsolePipeline)process).getProcesses();
+		}
+		return Collections.singletonList(process);
+	}
+
+	/**
+	 * @return false until the process is reaped
+	 */
+	static boolean hasExited(Process process) {
+
+		try {
+			process.exitValue();
+			return true;
+		} catch (IllegalThreadStateException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Read the processes visible to the app, one pass over /proc
+	 * @return stats by pid, empty when /proc can not be read
+	 */
+	static Map<Integer, Stat> snapshot() {
+
+		Map<Integer, Stat> stats = new HashMap<Integer, Stat>();
+		String[] names = new File("/proc").list();
+		if (names == null) {
+			return stats;
+		}
+		for (String name : names) {
+			if (name.length() == 0 || name.charAt(0) < '1' || name.charAt(0) > '9') {
+				continue;
+			}
+			Stat stat = readStat(name);
+			if (stat != null) {
+				stats.put(stat.pid, stat);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @return stat of one process, null when it is gone
+	 */
+	static Stat stat(int pid) {
+		return readStat(String.valueOf(pid));
+	}
+
+	private static Stat readStat(String pid) {
+
+		String line;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader("/proc/" + pid + "/stat"), 512);
+			try {
+				line = in.readLine();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// exited meanwhile
+			return null;
+		}
+		// the command name may hold spaces and parens, fields follow the last ')'
+		int end = (line == null) ? -1 : line.lastIndexOf(')');
+		if (end < 0) {
+			return null;
+		}
+		String[] fields = line.substring(end + 2).split(" ");
+		try {
+			return new Stat(Integer.parseInt(pid), Integer.parseInt(fields[1]),
+					Integer.parseInt(fields[3]), fields[0].charAt(0), Long.parseLong(fields[19]));
+		} catch (RuntimeException e) {
+			ConsoleLog.d(DEBUG_TAG, "bad stat: " + line);
+			return null;
+		}
+	}
+
+	/**
+	 * @param stats from {@link #snapshot()}
+	 * @param pid
+	 * @return pids of the descendants, parents first
+	 */
+	static List<Integer> descendants(Map<Integer, Stat> stats, int pid) {
+
+		Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+		for (Stat stat : stats.values()) {
+			List<Integer> list = children.get(stat.ppid);
+			if (list == null) {
+				list = new ArrayList<Integer>(2);
+				children.put(stat.ppid, list);
+			}
+			list.add(stat.pid);
+		}
+		List<Integer> found = new ArrayList<Integer>();
+		List<Integer> next = children.get(pid);
+		if (next != null) {
+			found.addAll(next);
+		}
+		for (int i = 0; i < found.size(); i++) {
+			next = children.get(found.get(i));
+			if (next != null) {
+				found.addAll(next);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return pids of the processes in the session led by pid, the leader
+	 * excluded. A pty command keeps them even when their parents are gone.
+	 */
+	static List<Integer> sessionMembers(Map<Integer, Stat> stats, int pid) {
+
+		List<Integer> found = new ArrayList<Integer>();
+		for (Stat stat : stats.values()) {
+			if (stat.session == pid && stat.pid != pid && stat.isAlive()) {
+				found.add(stat.pid);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Signal a command with its descendants, pty commands as a group.
+	 * A reaped process is left alone, its pid may be taken by another.
+	 * @param process
+	 * @param signal
+	 * @return false when no pid is known for the process
+	 */
+	static boolean signal(Process process, int signal) {
+
+		boolean sent = false;
+		for (Process stage : stages(process)) {
+			int pid = getPid(stage);
+			if (pid <= 0) {
+				continue;
+			}
+			sent = true;
+			if (hasExited(stage)) {
+				continue;
+			}
+			List<Integer> tree = tree(pid, stage instanceof ConsolePty, signal == ConsoleJob.SIGKILL);
+			tree.add(0, pid);
+			send(tree, signal);
+			if (stage instanceof ConsolePty) {
+				send(Collections.singletonList(-pid), signal);
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * Signal the descendants of a process, not the process itself. Used
+	 * for the command running in a shell that is kept.
+	 * @param process
+	 * @param signal
+	 * @return number of processes signalled
+	 */
+	static int signalChildren(Process process, int signal) {
+
+		int pid = getPid(process);
+		if (pid <= 0 || hasExited(process)) {
+			return 0;
+		}
+		List<Integer> tree = tree(pid, false, signal == ConsoleJob.SIGKILL);
+		send(tree, signal);
+		return tree.size();
+	}
+
+	/**
+	 * Kill a command with its descendants and release its streams
+	 * @param process
+	 */
+	static void destroy(Process process) {
+
+		signal(process, ConsoleJob.SIGKILL);
+		process.destroy();
+		for (Process stage : stages(process)) {
+			closeStreams(stage);
+		}
+	}
+
+	/**
+	 * Close the pipes of a process. Android wakes up a thread blocked
+	 * reading a closed stream, the fds are freed without waiting for GC.
+	 */
+	static void closeStreams(Process process) {
+
+		if (process instanceof ConsolePty) {
+			((ConsolePty)process).close();
+			return;
+		}
+		close(process.getOutputStream());
+		close(process.getInputStream());
+		close(process.getErrorStream());
+	}
+
+	private static void close(Closeable stream) {
+
+		try {
+			stream.close();
+		} catch (IOException e) {
+			ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+		}
+	}
+
+	/**
+	 * @param pid
+	 * @param session with the members of the session pid leads
+	 * @param stop stop the processes found and walk again, so that
+	 * children forked meanwhile are caught
+	 * @return descendants, they are stopped when stop is set
+	 */
+	private static List<Integer> tree(int pid, boolean session, boolean stop) {
+
+		List<Integer> found = new ArrayList<Integer>();
+		for (int pass = 0; pass < (stop ? 2 : 1); pass++) {
+			Map<Integer, Stat> stats = snapshot();
+			List<Integer> more = new ArrayList<Integer>(descendants(stats, pid));
+			if (session) {
+				more.addAll(sessionMembers(stats, pid));
+			}
+			more.removeAll(found);
+			if (more.isEmpty()) {
+				break;
+			}
+			if (stop) {
+				send(more, ConsoleJob.SIGSTOP);
+			}
+			found.addAll(more);
+		}
+		return found;
+	}
+
+	/**
+	 * Send a signal, with the pty library or with the kill command
+	 * @param pids negative for a process group
+	 * @param signal
+	 */
+	static void send(List<Integer> pids, int signal) {
+
+		if (pids.isEmpty()) {
+			return;
+		}
+		if (ConsolePty.isAvailable()) {
+			for (int pid : pids) {
+				ConsolePty.sendSignal(pid, signal);
+			}
+			return;
+		}
+		List<String> args = new ArrayList<String>();
+		args.add("kill");
+		args.add("-" + signal);
+		args.add("--");
+		for (int pid : pids) {
+			args.add(String.valueOf(pid));
+		}
+		try {
+			Process kill = new ProcessBuilder(args).redirectErrorStream(true).start();
+			kill.getOutputStream().close();
+			kill.getInputStream().close();
+			kill.waitFor();
+		} catch (IOException e) {
+			ConsoleLog.d(DEBUG_TAG, "kill: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Process running on a pseudo-terminal.
+ * The child gets its own session with the pty slave as controlling
+ * terminal, so it sees a tty and line buffers its output. Output and
+ * input go through the master fd, stderr is merged by the terminal.
+ * Reads and writes wait on the master and on a wake pipe, closing the
+ * pty closes the write end of the pipe and so wakes them up. The master
+ * is closed by the last thread leaving it, a thread still inside never
+ * uses an fd number that was reused meanwhile.
+ */
+class ConsolePty extends Process {
+
+	private static final String DEBUG_TAG = "ConsolePty";
+	static final int SIGKILL = 9;
+	private static final boolean available;
+
+	static {
+		boolean loaded;
+		try {
+			System.loadLibrary("bterminal");
+			loaded = true;
+		} catch (UnsatisfiedLinkError e) {
+			ConsoleLog.d(DEBUG_TAG, "pty support not available: " + e.getMessage());
+			loaded = false;
+		}
+		available = loaded;
+	}
+
+	private final int fd;
+	private final int pid;
+	/** wake pipe, read end and write end */
+	private final int[] wake;
+	private final InputStream inputStream = new PtyInputStream();
+	private final OutputStream outputStream = new PtyOutputStream();
+	private int exitValue;
+	private boolean exited = false;
+	private boolean closed = false;
+	/** threads reading or writing the master */
+	private int users = 0;
+
+	private ConsolePty(int fd, int pid, int[] wake) {
+		this.fd = fd;
+		this.pid = pid;
+		this.wake = wake;
+	}
+
+	/**
+	 * @return true when the native library is loaded
+	 */
+	static boolean isAvailable() {
+		return available;
+	}
+
+	/**
+	 * Start a process on a new pseudo-terminal
+	 * @param params command and arguments, the command is searched in PATH
+	 * @param env KEY=value pairs
+	 * @param cwd working directory
+	 * @param rows
+	 * @param columns
+	 * @throws IOException
+	 */
+	static ConsolePty start(String[] params, String[] env, String cwd, int rows, int columns)
+			throws IOException {
+
+		int[] wake = new int[2];
+		createPipe(wake);
+		int[] processId = new int[1];
+		int fd;
+		try {
+			fd = createSubprocess(params[0], params, env, cwd, rows, columns, processId);
+		} catch (IOException e) {
+			close(wake[0]);
+			close(wake[1]);
+			throw e;
+		}
+		return new ConsolePty(fd, processId[0], wake);
+	}
+
+	int getPid() {
+		return pid;
+	}
+
+	/**
+	 * Resize the terminal, the child gets SIGWINCH
+	 * @param rows
+	 * @param columns
+	 */
+	synchronized void setWindowSize(int rows, int columns) {
+
+		if (!closed) {
+			setWindowSize(fd, rows, columns);
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public int waitFor() throws InterruptedException {
+
+		int status = waitFor(pid);
+		synchronized (this) {
+			exitValue = status;
+			exited = true;
+		}
+		return status;
+	}
+
+	@Override
+	public synchronized int exitValue() {
+
+		if (!exited) {
+			throw new IllegalThreadStateException("process has not exited");
+		}
+		return exitValue;
+	}
+
+	@Override
+	public void destroy() {
+
+		synchronized (this) {
+			if (!exited) {
+				sendSignal(pid, SIGKILL);
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Stop using the master. A blocked reader gets the end of output and a
+	 * blocked writer an error, the fd is released once they have returned.
+	 */
+	synchronized void close() {
+
+		if (!closed) {
+			closed = true;
+			close(wake[1]);
+			if (users == 0) {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * @return false when closed, otherwise call {@link #leave()} after
+	 * using the master
+	 */
+	private synchronized boolean enter() {
+
+		if (closed) {
+			return false;
+		}
+		users++;
+		return true;
+	}
+
+	private synchronized void leave() {
+
+		if (--users == 0 && closed) {
+			release();
+		}
+	}
+
+	private void release() {
+
+		close(fd);
+		close(wake[0]);
+	}
+
+	private class PtyInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int offset, int length) throws IOException {
+
+			if (offset < 0 || length < 0 || offset + length > b.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (!enter()) {
+				return -1;
+			}
+			try {
+				return ConsolePty.read(fd, wake[0], b, offset, length);
+			} finally {
+				leave();
+			}
+		}
+
+		/**
+		 * Done with the terminal
+		 */
+		@Override
+		public void close() {
+			ConsolePty.this.close();
+		}
+	}
+
+	private class PtyOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int length) throws IOException {
+
+			if (offset < 0 || length < 0 || offset + length > b.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (!enter()) {
+				throw new IOException("pty closed");
+			}
+			try {
+				ConsolePty.write(fd, wake[0], b, offset, length);
+			} finally {
+				leave();
+			}
+		}
+
+		/**
+		 * The master is shared with the output, it stays open until the
+		 * pty is closed. A terminal reads EOF on ^D.
+		 */
+		@Override
+		public void close() {
+		}
+	}
+
+	private static native int createSubprocess(String cmd, String[] args, String[] env,
+			String cwd, int rows, int columns, int[] processId) throws IOException;
+
+	private static native void createPipe(int[] fds) throws IOException;
+
+	private static native int read(int fd, int wake, byte[] buffer, int offset, int length)
+			throws IOException;
+
+	private static native void write(int fd, int wake, byte[] buffer, int offset, int length)
+			throws IOException;
+
+	private static native void setWindowSize(int fd, int rows, int columns);
+
+	private static native int waitFor(int pid);
+
+	static native void sendSignal(int pid, int signal);
+
+	private static native void close(int fd);
+}
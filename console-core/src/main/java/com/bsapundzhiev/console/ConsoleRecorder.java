@@ -0,0 +1,334 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session recording in the asciinema v2 format, so that recordings can
+ * be played with the usual tools as well. The output of the jobs is
+ * tapped after the pump and the input is what is typed at the console.
+ * Each event is one JSON line with the seconds since the start, the
+ * line is formatted by the caller and queued to a
+ * {@link ConsoleSpoolWriter}, the disk is never on the output path.
+ */
+class ConsoleRecorder {
+
+	private volatile Recording recording;
+
+	private static class Recording {
+
+		final ConsoleSpoolWriter writer;
+		final long start = System.nanoTime();
+		final StringBuilder line = new StringBuilder();
+
+		Recording(ConsoleSpoolWriter writer) {
+			this.writer = writer;
+		}
+
+		synchronized void event(char type, CharSequence text) throws InterruptedException {
+
+			line.setLength(0);
+			long micros = (System.nanoTime() - start) / 1000;
+			String fraction = Long.toString(1000000 + micros % 1000000);
+			line.append('[').append(micros / 1000000).append('.').append(fraction, 1, 7);
+			line.append(", \"").append(type).append("\", \"");
+			escape(line, text, 0, text.length());
+			line.append("\"]\n");
+			writer.write(line);
+		}
+	}
+
+	/**
+	 * Start a new recording, a running one is finished first
+	 * @param file created or truncated
+	 * @param rows
+	 * @param columns
+	 * @throws IOException
+	 */
+	synchronized void start(File file, int rows, int columns) throws IOException {
+
+		stop();
+		ConsoleSpoolWriter writer = new ConsoleSpoolWriter(file);
+		try {
+			writer.write(String.format("{\"version\": 2, \"width\": %d, \"height\": %d, \"timestamp\": %d}\n",
+					columns, rows, System.currentTimeMillis() / 1000));
+		} catch (InterruptedException e) {
+			// an empty queue, this does not wait
+			Thread.currentThread().interrupt();
+		}
+		recording = new Recording(writer);
+	}
+
+	/**
+	 * Finish the recording, what is queued is still written
+	 * @return the file, null when not recording
+	 */
+	synchronized File stop() {
+
+		Recording r = recording;
+		if (r == null) {
+			return null;
+		}
+		recording = null;
+		r.writer.close();
+		return r.writer.getFile();
+	}
+
+	/**
+	 * @return the file being recorded, or null
+	 */
+	File getFile() {
+		Recording r = recording;
+		return (r != null) ? r.writer.getFile() : null;
+	}
+
+	/**
+	 * Record output of a job, called from its reader thread
+	 */
+	void output(char[] chars, int offset, int length) throws InterruptedException {
+
+		Recording r = recording;
+		if (r != null && length > 0) {
+			r.event('o', CharBuffer.wrap(chars, offset, length));
+		}
+	}
+
+	/**
+	 * Record input, called from the UI thread
+	 * @param text
+	 */
+	void input(String text) {
+
+		Recording r = recording;
+		if (r == null || text.isEmpty()) {
+			return;
+		}
+		try {
+			r.event('i', text);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Record a command line as input, and as output the way the console
+	 * echoes it, the prompt is drawn by the view and not part of the output
+	 * @param cwd
+	 * @param command
+	 */
+	void command(String cwd, String command) {
+
+		Recording r = recording;
+		if (r == null) {
+			return;
+		}
+		input(command + "\n");
+		try {
+			r.event('o', cwd + "$ " + command + "\r\n");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Play the output events of a recording with their original timing.
+	 * The file is read a line at a time as it is played.
+	 * @param file
+	 * @param speed 2 plays twice as fast
+	 * @param maxIdle longest pause in seconds, 0 for no limit
+	 * @param io
+	 * @return number of lines that are not events
+	 * @throws IOException
+	 * @throws InterruptedException when cancelled
+	 */
+	static int replay(File file, double speed, double maxIdle, ConsoleCommandIO io)
+			throws IOException, InterruptedException {
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		int bad = 0;
+		try {
+			long start = System.nanoTime();
+			double last = 0;
+			double clock = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty() || line.charAt(0) == '{') {
+					// the header
+					continue;
+				}
+				Event e = Event.parse(line);
+				if (e == null) {
+					bad++;
+					continue;
+				}
+				if (e.type.equals("o")) {
+					double gap = Math.max(0, e.time - last);
+					last = e.time;
+					clock += ((maxIdle > 0) ? Math.min(gap, maxIdle) : gap) / speed;
+					long wait = start + (long)(clock * 1e9) - System.nanoTime();
+					if (wait > 0) {
+						io.checkCancelled();
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					io.print(e.data);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return bad;
+	}
+
+	/**
+	 * One event line, [time, "type", "data"]
+	 */
+	static class Event {
+
+		final double time;
+		final String type;
+		final String data;
+
+		private Event(double time, String type, String data) {
+			this.time = time;
+			this.type = type;
+			this.data = data;
+		}
+
+		/**
+		 * @return null when the line is not an event
+		 */
+		static Event parse(String line) {
+
+			int[] pos = { 0 };
+			if (!skip(line, pos, '[')) {
+				return null;
+			}
+			int comma = line.indexOf(',', pos[0]);
+			if (comma < 0) {
+				return null;
+			}
+			double time;
+			try {
+				time = Double.parseDouble(line.substring(pos[0], comma).trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			pos[0] = comma + 1;
+			String type = string(line, pos);
+			if (type == null || !skip(line, pos, ',')) {
+				return null;
+			}
+			String data = string(line, pos);
+			if (data == null || !skip(line, pos, ']')) {
+				return null;
+			}
+			return new Event(time, type, data);
+		}
+
+		private static boolean skip(String s, int[] pos, char c) {
+
+			int i = pos[0];
+			while (i < s.length() && s.charAt(i) == ' ') {
+				i++;
+			}
+			if (i == s.length() || s.charAt(i) != c) {
+				return false;
+			}
+			pos[0] = i + 1;
+			return true;
+		}
+
+		/**
+		 * @return a JSON string at pos, or null
+		 */
+		private static String string(String s, int[] pos) {
+
+			if (!skip(s, pos, '"')) {
+				return null;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = pos[0]; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '"') {
+					pos[0] = i + 1;
+					return sb.toString();
+				}
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (++i == s.length()) {
+					return null;
+				}
+				switch (c = s.charAt(i)) {
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (i + 4 >= s.length()) {
+						return null;
+					}
+					try {
+						sb.append((char)Integer.parseInt(s.substring(i + 1, i + 5), 16));
+					} catch (NumberFormatException e) {
+						return null;
+					}
+					i += 4;
+					break;
+				default: sb.append(c);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Append text as the inside of a JSON string. A surrogate without its
+	 * pair, split between two reads, is escaped so the line stays valid
+	 * UTF-8.
+	 */
+	static void escape(StringBuilder sb, CharSequence text, int start, int end) {
+
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20 || c == 0x7f) {
+					unicode(sb, c);
+				} else if (Character.isHighSurrogate(c) && i + 1 < end
+						&& Character.isLowSurrogate(text.charAt(i + 1))) {
+					sb.append(c).append(text.charAt(++i));
+				} else if (Character.isSurrogate(c)) {
+					unicode(sb, c);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+	}
+
+	private static void unicode(StringBuilder sb, char c) {
+		String hex = Integer.toHexString(0x10000 | c);
+		sb.append("\\u").append(hex, 1, 5);
+	}
+}
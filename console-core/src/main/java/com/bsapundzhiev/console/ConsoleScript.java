@@ -0,0 +1,144 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * The source builtin, runs a script file line by line on the calling
+ * thread. A line is read when the one before it is done, builtins are
+ * called directly and processes are attached to the job, so the whole
+ * script is one job: its output reaches the UI in frame batches and the
+ * prompt is drawn once at the end, however many lines it has.
+ */
+class ConsoleScript implements IBtermJobCommand {
+
+	static final int MAX_DEPTH = 16;
+
+	private static final String DEBUG_TAG = "ConsoleScript";
+	private final ConsoleCommandExecuter executer;
+	private final ConsoleProcessBuilder processBuilder;
+
+	ConsoleScript(ConsoleCommandExecuter executer, ConsoleProcessBuilder processBuilder) {
+		this.executer = executer;
+		this.processBuilder = processBuilder;
+	}
+
+	/**
+	 * Run in a pipeline, processes are not attached to a job
+	 */
+	@Override
+	public int exec(String[] params, ConsoleCommandIO io) throws InterruptedException {
+		return run(params, io, null, 0);
+	}
+
+	/**
+	 * @param params source [-e] [-x] file
+	 * @param io
+	 * @param job the processes of the script are attached to, may be null
+	 * @param depth of nested scripts
+	 * @return status of the last line, or of exit
+	 * @throws InterruptedException when cancelled
+	 */
+	@Override
+	public int run(String[] params, ConsoleCommandIO io, ConsoleJob job, int depth) throws InterruptedException {
+
+		boolean errexit = false;
+		boolean trace = false;
+		String name = null;
+		for (int i = 1; i < params.length; i++) {
+			if (params[i].equals("-e")) {
+				errexit = true;
+			} else if (params[i].equals("-x")) {
+				trace = true;
+			} else if (name == null) {
+				name = params[i];
+			} else {
+				name = null;
+				break;
+			}
+		}
+		if (name == null) {
+			io.println(String.format("usage: %s [-e] [-x] file", params[0]));
+			return 2;
+		}
+		if (depth >= MAX_DEPTH) {
+			io.println(String.format("%s: %s: too deeply nested", params[0], name));
+			return 2;
+		}
+		File file = ConsolePipeline.resolve(processBuilder.getCurrentWorkingDir(), name);
+		BufferedReader in;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		} catch (IOException e) {
+			io.println(String.format("%s: %s: %s", params[0], name, e.getMessage()));
+			return 1;
+		}
+		int status = 0;
+		int number = 0;
+		try {
+			StringBuilder line = new StringBuilder();
+			for (String text; (text = in.readLine()) != null; ) {
+				number++;
+				io.checkCancelled();
+				if (text.endsWith("\\")) {
+					line.append(text, 0, text.length() - 1);
+					continue;
+				}
+				String command = line.append(text).toString().trim();
+				line.setLength(0);
+				if (command.length() == 0 || command.charAt(0) == '#') {
+					continue;
+				}
+				if (trace) {
+					io.println("+ " + command);
+				}
+				if (command.equals("exit") || command.startsWith("exit ")) {
+					return exitStatus(command, status);
+				}
+				try {
+					status = executer.runLine(command, job, io, depth + 1);
+				} catch (IOException e) {
+					io.println(String.format("%s: %d: %s", name, number, e.getMessage()));
+					status = 127;
+				}
+				if (status != 0 && errexit) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			io.println(String.format("%s: %d: %s", name, number, e.getMessage()));
+			status = 1;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			}
+		}
+		return status;
+	}
+
+	private static int exitStatus(String command, int status) {
+
+		String arg = command.substring(4).trim();
+		if (arg.length() == 0) {
+			return status;
+		}
+		try {
+			return Integer.parseInt(arg);
+		} catch (NumberFormatException e) {
+			return 2;
+		}
+	}
+}
@@ -0,0 +1,410 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Long-lived shell.
+ * Commands are written to one shell process instead of starting a process
+ * per command, so the startup cost is paid once and shell state (variables,
+ * functions, directory) persists. Each command is followed by a printf of a
+ * sentinel line with a per-session nonce, the exit status and $PWD; the
+ * reader strips it from the output and wakes up the waiting command. The
+ * printf resets $?, the next command gets the status back from a
+ * subshell exiting with it. The first output and output rate metrics are
+ * those of each command, up to its sentinel.
+ */
+class ConsoleShellSession implements IConsoleOutputSink {
+
+	private static final String DEBUG_TAG = "ConsoleShellSession";
+	private static final String[] SHELLS = { "/system/bin/sh", "/bin/sh" };
+	private static final char MARK = '\036';
+	private static final int MAX_MARKER_LEN = 4096;
+
+	private final ConsoleProcessBuilder processBuilder;
+	private final Executor executor;
+	private final String marker;
+	private Process process;
+	private OutputStream stdin;
+	/** receiver of the running command output, null while idle */
+	private IConsoleOutputSink target;
+	private final StringBuilder markerBuffer = new StringBuilder();
+	private boolean inMarker = false;
+	private boolean busy = false;
+	private boolean done = false;
+	private int exitCode = 0;
+	/** status of the last command, $? of the next one */
+	private int lastStatus = 0;
+	/** start of the running command, System.nanoTime() */
+	private long commandStart;
+	/** chars forwarded to the running command */
+	private long forwarded;
+	private String workingDir = null;
+	/** variables the shell has, it reads them only when it starts */
+	private ConsoleEnvironment environment;
+
+	/**
+	 * @param processBuilder
+	 * @param executor runs the output reader while the shell lives
+	 */
+	ConsoleShellSession(ConsoleProcessBuilder processBuilder, Executor executor) {
+		this.processBuilder = processBuilder;
+		this.executor = executor;
+		this.marker = "BTERM" + Long.toHexString(new Random().nextLong()) + ":";
+	}
+
+	/**
+	 * Run a command line in the shell and wait for it
+	 * @param command
+	 * @param dir directory to run in, null for the shell's own
+	 * @param output
+	 * @return exit status of the command, -1 when the shell exited
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	int execute(String command, String dir, IConsoleOutputSink output) throws IOException, InterruptedException {
+
+		String exports;
+		int status;
+		synchronized (this) {
+			if (process == null) {
+				start();
+			}
+			target = output;
+			busy = true;
+			ConsoleEnvironment current = processBuilder.getEnvironment();
+			exports = exports(environment, current);
+			environment = current;
+			status = lastStatus;
+			commandStart = System.nanoTime();
+			forwarded = 0;
+		}
+		try {
+			if (exports.length() > 0) {
+				write(exports);
+			}
+			if (dir != null && !dir.equals(getWorkingDir())) {
+				write("cd " + quote(dir) + "\n");
+			}
+			// the braces make the shell read the whole command before
+			// running it, so a command reading stdin can not eat the sentinel.
+			// The sentinel, cd and export have reset $?.
+			status = run(String.format("{\n%s%s\n}",
+					(status > 0) ? "(exit " + status + ")\n" : "", command));
+			return status;
+		} finally {
+			synchronized (this) {
+				target = null;
+				busy = false;
+				lastStatus = Math.max(status, 0);
+				if (forwarded > 0) {
+					ConsoleMetrics.READ_RATE.record((long)(forwarded * 1e9 / (System.nanoTime() - commandStart)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true while a command is running
+	 */
+	synchronized boolean isBusy() {
+		return busy;
+	}
+
+	/**
+	 * @return shell directory after the last command or null
+	 */
+	synchronized String getWorkingDir() {
+		return workingDir;
+	}
+
+	/**
+	 * Send input to the running command
+	 * @param bytes
+	 * @throws IOException
+	 */
+	void write(byte[] bytes) throws IOException {
+		write(bytes, 0, bytes.length);
+	}
+
+	void write(byte[] bytes, int offset, int length) throws IOException {
+
+		OutputStream os;
+		synchronized (this) {
+			os = stdin;
+		}
+		if (os != null) {
+			os.write(bytes, offset, length);
+			os.flush();
+		}
+	}
+
+	/**
+	 * @return true when the shell runs on a pty
+	 */
+	synchronized boolean isPty() {
+		return process instanceof ConsolePty;
+	}
+
+	void onWindowSizeChanged() {
+
+		Process p;
+		synchronized (this) {
+			p = process;
+		}
+		if (p != null) {
+			processBuilder.setWindowSize(p);
+		}
+	}
+
+	/**
+	 * Signal the processes of the running command, not the shell
+	 * @param signal
+	 * @return number of processes signalled
+	 */
+	int signalCommand(int signal) {
+
+		Process p;
+		synchronized (this) {
+			p = busy ? process : null;
+		}
+		return (p == null) ? 0 : ConsoleProcesses.signalChildren(p, signal);
+	}
+
+	/**
+	 * Kill the shell with the commands it started, the next command
+	 * starts a new one
+	 */
+	void destroy() {
+
+		Process p;
+		synchronized (this) {
+			p = process;
+			process = null;
+			stdin = null;
+			finish(-1);
+		}
+		if (p != null) {
+			ConsoleProcesses.destroy(p);
+		}
+	}
+
+	private void start() throws IOException, InterruptedException {
+
+		environment = processBuilder.getEnvironment();
+		final Process p = processBuilder.spawn(new String[] { findShell() });
+		lastStatus = 0;
+		process = p;
+		stdin = p.getOutputStream();
+		inMarker = false;
+		markerBuffer.setLength(0);
+		executor.execute(new ConsoleOutputPump(p.getInputStream(), this, false) {
+
+			@Override
+			public void run() {
+				super.run();
+				onShellExit(p);
+			}
+		});
+		// no prompts on the terminal, the output up to the first
+		// sentinel (the initial prompt) goes nowhere. On a pty the shell
+		// is interactive and ^C would drop the rest of the command line
+		// with the sentinel, with a trap it goes on to the sentinel.
+		run("PS1=''; PS2=''; trap : INT");
+	}
+
+	/**
+	 * Write a command followed by the sentinel and wait for it
+	 */
+	private int run(String command) throws IOException, InterruptedException {
+
+		synchronized (this) {
+			if (process == null) {
+				// the shell died before its exit could wake us up
+				return -1;
+			}
+			done = false;
+		}
+		write(String.format("%s ; printf '\\036%s%%d:%%s\\n' $? \"$PWD\"\n", command, marker));
+		synchronized (this) {
+			while (!done) {
+				wait();
+			}
+			return exitCode;
+		}
+	}
+
+	private void write(String s) throws IOException {
+		write(s.getBytes("UTF-8"));
+	}
+
+	/**
+	 * @return path of the system shell
+	 */
+	static String findShell() {
+
+		for (String path : SHELLS) {
+			if (new File(path).exists()) {
+				return path;
+			}
+		}
+		return SHELLS[SHELLS.length - 1];
+	}
+
+	/**
+	 * @return export and unset commands that make the variables of a
+	 * shell started with one environment those of the other
+	 */
+	static String exports(ConsoleEnvironment from, ConsoleEnvironment to) {
+
+		if (from == to) {
+			return "";
+		}
+		StringBuilder commands = new StringBuilder();
+		for (Map.Entry<String, String> e : to.asMap().entrySet()) {
+			if (!e.getValue().equals(from.get(e.getKey()))) {
+				commands.append(String.format("export %s=%s\n", e.getKey(), quote(e.getValue())));
+			}
+		}
+		for (String name : from.asMap().keySet()) {
+			if (to.get(name) == null) {
+				commands.append(String.format("unset %s\n", name));
+			}
+		}
+		return commands.toString();
+	}
+
+	/**
+	 * Single quote a word for the shell
+	 */
+	static String quote(String word) {
+		return "'" + word.replace("'", "'\\''") + "'";
+	}
+
+	private void onShellExit(Process p) {
+
+		try {
+			p.waitFor();
+		} catch (InterruptedException e) {
+			ConsoleLog.d(DEBUG_TAG, "Intr: " + e.getMessage());
+		}
+		p.destroy();
+		synchronized (this) {
+			// a destroyed shell has been finished already, a new one may
+			// be running its first command by now
+			if (process == p) {
+				process = null;
+				stdin = null;
+				finish(-1);
+			}
+		}
+	}
+
+	private void finish(int status) {
+
+		exitCode = status;
+		done = true;
+		notifyAll();
+	}
+
+	/**
+	 * Shell output, forwarded to the running command without the sentinel
+	 */
+	@Override
+	public void write(char[] chars, int offset, int length) throws InterruptedException {
+
+		int start = offset;
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char c = chars[i];
+			if (inMarker) {
+				if (c == '\n') {
+					inMarker = false;
+					endMarker();
+					start = i + 1;
+				} else if (c != '\r') {
+					markerBuffer.append(c);
+					if (markerBuffer.length() > MAX_MARKER_LEN) {
+						inMarker = false;
+						forward(markerBuffer);
+						start = i + 1;
+					}
+				}
+			} else if (c == MARK) {
+				forward(chars, start, i);
+				inMarker = true;
+				markerBuffer.setLength(0);
+			}
+		}
+		if (!inMarker) {
+			forward(chars, start, end);
+		}
+	}
+
+	private void endMarker() throws InterruptedException {
+
+		String text = markerBuffer.toString();
+		if (!text.startsWith(marker)) {
+			forward(markerBuffer.append('\n'));
+			return;
+		}
+		int status = -1;
+		String dir = null;
+		int sep = text.indexOf(':', marker.length());
+		try {
+			status = Integer.parseInt(text.substring(marker.length(), (sep < 0) ? text.length() : sep));
+			dir = (sep < 0) ? null : text.substring(sep + 1);
+		} catch (NumberFormatException e) {
+			ConsoleLog.d(DEBUG_TAG, "bad sentinel: " + text);
+		}
+		synchronized (this) {
+			if (dir != null && dir.length() > 0) {
+				workingDir = dir;
+			}
+			finish(status);
+		}
+	}
+
+	private void forward(CharSequence text) throws InterruptedException {
+
+		char[] chars = new char[text.length() + 1];
+		chars[0] = MARK;
+		text.toString().getChars(0, text.length(), chars, 1);
+		forward(chars, 0, chars.length);
+	}
+
+	private void forward(char[] chars, int start, int end) throws InterruptedException {
+
+		IConsoleOutputSink out;
+		synchronized (this) {
+			out = target;
+			if (out != null && end > start) {
+				if (forwarded == 0) {
+					ConsoleMetrics.FIRST_BYTE.recordSince(commandStart);
+				}
+				forwarded += end - start;
+			}
+		}
+		if (out != null && end > start) {
+			try {
+				out.write(chars, start, end - start);
+			} catch (InterruptedException e) {
+				// a cancelled command takes no more output, the shell and
+				// this reader go on to the sentinel
+				ConsoleLog.d(DEBUG_TAG, "dropped: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Batched asynchronous writer of command output to a spool file or a
+ * session recording.
+ * The producer appends to a buffer under a short lock, a thread of its
+ * own swaps the buffer for an empty one and writes the whole batch at
+ * once, so the producer waits for the disk only when it is more than
+ * {@link #MAX_QUEUED} chars ahead of it.
+ */
+class ConsoleSpoolWriter implements Runnable {
+
+	static final int MAX_QUEUED = 1024 * 1024;
+	/** older spool files are deleted */
+	static final int MAX_FILES = 8;
+
+	private static final String DEBUG_TAG = "ConsoleSpoolWriter";
+	private final File file;
+	private final Writer out;
+	private StringBuilder queued = new StringBuilder();
+	private StringBuilder writing = new StringBuilder();
+	private boolean closed = false;
+
+	/**
+	 * Create or truncate a file and start writing
+	 * @param file
+	 * @throws IOException
+	 */
+	ConsoleSpoolWriter(File file) throws IOException {
+
+		this.file = file;
+		out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		Thread thread = new Thread(this, "spool");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Create a new spool file in a directory and start writing
+	 * @param dir
+	 * @throws IOException
+	 */
+	static ConsoleSpoolWriter create(File dir) throws IOException {
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(dir + ": can not create directory");
+		}
+		removeOldFiles(dir);
+		return new ConsoleSpoolWriter(File.createTempFile("output-", ".log", dir));
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Queue output, waits while the writer is too far behind
+	 */
+	synchronized void write(CharSequence chars) throws InterruptedException {
+
+		while (queued.length() >= MAX_QUEUED && !closed) {
+			wait();
+		}
+		if (!closed) {
+			queued.append(chars);
+			notifyAll();
+		}
+	}
+
+	synchronized void write(char[] chars, int offset, int length) throws InterruptedException {
+
+		while (queued.length() >= MAX_QUEUED && !closed) {
+			wait();
+		}
+		if (!closed) {
+			queued.append(chars, offset, length);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Write what is queued and close the file
+	 */
+	synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			for (;;) {
+				synchronized (this) {
+					while (queued.length() == 0 && !closed) {
+						wait();
+					}
+					if (queued.length() == 0) {
+						break;
+					}
+					StringBuilder batch = queued;
+					queued = writing;
+					writing = batch;
+					notifyAll();
+				}
+				out.write(writing.toString());
+				writing.setLength(0);
+				out.flush();
+			}
+		} catch (IOException e) {
+			ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+		} catch (InterruptedException e) {
+			ConsoleLog.d(DEBUG_TAG, "Intr: " + e.getMessage());
+		} finally {
+			synchronized (this) {
+				// no more waiting for a writer that is gone
+				closed = true;
+				notifyAll();
+			}
+			try {
+				out.close();
+			} catch (IOException e) {
+				ConsoleLog.d(DEBUG_TAG, String.valueOf(e.getMessage()));
+			}
+		}
+	}
+
+	private static void removeOldFiles(File dir) {
+
+		File[] files = dir.listFiles();
+		if (files == null || files.length < MAX_FILES) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File a, File b) {
+				long d = b.lastModified() - a.lastModified();
+				return (d < 0) ? -1 : (d > 0) ? 1 : 0;
+			}
+		});
+		// make room for the new one
+		for (int i = MAX_FILES - 1; i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+}
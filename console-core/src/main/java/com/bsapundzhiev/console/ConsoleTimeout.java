@@ -0,0 +1,232 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The timeout builtin, runs a command line with a deadline.
+ * The line runs on the calling thread like a line of a script, with its
+ * processes attached to the job. At the deadline the command and its
+ * descendants get the signal and a builtin is cancelled, whatever still
+ * runs after the kill delay is killed. Unlike GNU timeout the kill delay
+ * defaults to {@link ConsoleWatchdog#GRACE_MILLIS}, a command that
+ * ignores SIGTERM does not hang the console.
+ */
+class ConsoleTimeout implements IBtermJobCommand {
+
+	/** exit status when the deadline has passed, as GNU timeout */
+	static final int TIMED_OUT = 124;
+	/** exit status when timeout itself fails */
+	static final int FAILED = 125;
+
+	private final ConsoleCommandExecuter executer;
+	private final ConsoleWatchdog watchdog;
+	private final Executor inputExecutor;
+
+	/**
+	 * @param executer runs the command line
+	 * @param watchdog keeps the deadlines
+	 * @param inputExecutor for the job of a timeout in a pipeline stage
+	 */
+	ConsoleTimeout(ConsoleCommandExecuter executer, ConsoleWatchdog watchdog, Executor inputExecutor) {
+		this.executer = executer;
+		this.watchdog = watchdog;
+		this.inputExecutor = inputExecutor;
+	}
+
+	/**
+	 * Run in a pipeline, the processes get a job of their own
+	 */
+	@Override
+	public int exec(String[] params, ConsoleCommandIO io) throws IOException, InterruptedException {
+		return run(params, io, null, 0);
+	}
+
+	/**
+	 * @param params timeout [-s signal] [-k duration] duration command [args]
+	 * @param io
+	 * @param job the processes are attached to, may be null
+	 * @param depth of nested commands
+	 * @return status of the command, {@link #TIMED_OUT} when it ran out of time
+	 * @throws IOException when the command can not be started
+	 * @throws InterruptedException when cancelled
+	 */
+	@Override
+	public int run(String[] params, ConsoleCommandIO io, ConsoleJob job, int depth)
+			throws IOException, InterruptedException {
+
+		int signal = ConsoleJob.SIGTERM;
+		long killAfter = ConsoleWatchdog.GRACE_MILLIS;
+		int i = 1;
+		for (; i < params.length - 1 && params[i].startsWith("-"); i += 2) {
+			if (params[i].equals("-s")) {
+				signal = ConsoleJob.parseSignal(params[i + 1]);
+			} else if (params[i].equals("-k")) {
+				killAfter = parseDuration(params[i + 1]);
+			} else {
+				signal = -1;
+			}
+			if (signal < 0 || killAfter < 0) {
+				break;
+			}
+		}
+		long millis = (i < params.length) ? parseDuration(params[i]) : -1;
+		if (signal < 0 || killAfter < 0 || millis < 0 || i + 1 >= params.length) {
+			io.println(String.format("usage: %s [-s signal] [-k duration] duration command [args]",
+					params[0]));
+			io.println("durations are seconds, or a number with s, m, h or d");
+			return FAILED;
+		}
+		if (depth >= ConsoleScript.MAX_DEPTH) {
+			io.println(String.format("%s: too deeply nested", params[0]));
+			return FAILED;
+		}
+		StringBuilder line = new StringBuilder();
+		for (int j = i + 1; j < params.length; j++) {
+			line.append((j > i + 1) ? " " : "").append(ConsoleShellSession.quote(params[j]));
+		}
+		ConsoleJob target = (job != null) ? job
+				: new ConsoleJob(0, line.toString(), null, inputExecutor);
+		ConsoleCommandIO child = new ConsoleCommandIO(null, io, io.isTerminal());
+		Deadline deadline = new Deadline(target, child, signal, killAfter);
+		if (millis > 0) {
+			deadline.start(millis);
+		}
+		int status;
+		try {
+			status = executer.runLine(line.toString(), target, child, depth + 1);
+		} catch (InterruptedException e) {
+			if (!deadline.hasExpired() || io.isCancelled()) {
+				throw e;
+			}
+			status = TIMED_OUT;
+		} finally {
+			deadline.end();
+			if (job == null) {
+				target.kill();
+			}
+		}
+		return deadline.hasExpired() ? TIMED_OUT : status;
+	}
+
+	/**
+	 * @param text seconds, or a number with s, m, h or d
+	 * @return milliseconds, -1 when not a duration
+	 */
+	static long parseDuration(String text) {
+
+		long unit = 1000;
+		String number = text;
+		if (text.length() > 1) {
+			switch (text.charAt(text.length() - 1)) {
+			case 's':
+				unit = 1000;
+				break;
+			case 'm':
+				unit = 60 * 1000;
+				break;
+			case 'h':
+				unit = 60 * 60 * 1000;
+				break;
+			case 'd':
+				unit = 24 * 60 * 60 * 1000;
+				break;
+			default:
+				unit = 0;
+				break;
+			}
+			if (unit != 0) {
+				number = text.substring(0, text.length() - 1);
+			} else {
+				unit = 1000;
+			}
+		}
+		try {
+			double value = Double.parseDouble(number);
+			return (value >= 0 && !Double.isInfinite(value)) ? (long)(value * unit) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Fires on the watchdog thread, first with the signal, then with
+	 * SIGKILL after the kill delay
+	 */
+	private class Deadline implements Runnable {
+
+		private final ConsoleJob job;
+		private final ConsoleCommandIO io;
+		private final Thread thread = Thread.currentThread();
+		private final int signal;
+		private final long killAfter;
+		private ScheduledFuture<?> future;
+		private boolean expired = false;
+		private boolean interrupted = false;
+		private boolean ended = false;
+
+		Deadline(ConsoleJob job, ConsoleCommandIO io, int signal, long killAfter) {
+			this.job = job;
+			this.io = io;
+			this.signal = signal;
+			this.killAfter = killAfter;
+		}
+
+		synchronized void start(long millis) {
+			future = watchdog.schedule(this, millis);
+		}
+
+		synchronized boolean hasExpired() {
+			return expired;
+		}
+
+		/**
+		 * Signals are sent holding the lock, once the command has returned
+		 * the processes of what follows it are not hit
+		 */
+		@Override
+		public synchronized void run() {
+
+			if (ended) {
+				return;
+			}
+			int send = expired ? ConsoleJob.SIGKILL : signal;
+			if (!expired) {
+				expired = true;
+				io.cancel();
+				// a builtin may sleep or wait, the thread of a process
+				// or of a shell command waits for it to end instead
+				if (!job.isWaitingForCommand()) {
+					thread.interrupt();
+					interrupted = true;
+				}
+				future = watchdog.schedule(this, killAfter);
+			}
+			job.terminate(send);
+		}
+
+		/**
+		 * The command has returned, cancel what is left
+		 */
+		synchronized void end() {
+
+			ended = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+			if (interrupted) {
+				// the interrupt was for the command, not for what follows
+				Thread.interrupted();
+			}
+		}
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parallel directory tree walk with ordered output.
+ * Directories are listed and entries visited on a pool of worker threads,
+ * a work-stealing ForkJoinPool where available (API 21), a plain thread
+ * pool before. Each entry is a node of the tree, the command thread
+ * prints the nodes depth-first in sorted name order as soon as the next
+ * one is done, so the output is the same as a sequential walk. At most
+ * {@link #MAX_PENDING} nodes visited by the workers wait to be printed,
+ * the command thread visits the node it needs itself when they are
+ * blocked.
+ */
+class ConsoleTreeWalker {
+
+	/** wake up to check for cancellation while waiting for a node */
+	private static final long POLL_MILLIS = 100;
+	/** visited nodes kept with their output and children until printed */
+	static final int MAX_PENDING = 1024;
+	/** the fork-join classes came with API 21 on Android */
+	private static final boolean FORK_JOIN = hasClass("java.util.concurrent.ForkJoinPool");
+
+	/**
+	 * Visits an entry on a worker thread
+	 */
+	interface IVisitor {
+		/**
+		 * @param file
+		 * @param path the name to print
+		 * @param isRoot the entry is one of the operands
+		 * @param isDirectory
+		 * @return text to print for the entry, null for none
+		 */
+		String visit(File file, String path, boolean isRoot, boolean isDirectory)
+				throws IOException, InterruptedException;
+	}
+
+	private final String name;
+	private final IVisitor visitor;
+	private final ConsoleCommandIO io;
+	private final int threads;
+	private final Semaphore pending = new Semaphore(MAX_PENDING);
+	private int maxDepth = Integer.MAX_VALUE;
+	private volatile boolean failed = false;
+
+	/**
+	 * @param name command name for error messages
+	 * @param visitor called for every entry, on several threads at once
+	 * @param threads pool size
+	 * @param io output and cancellation of the command
+	 */
+	ConsoleTreeWalker(String name, IVisitor visitor, int threads, ConsoleCommandIO io) {
+		this.name = name;
+		this.visitor = visitor;
+		this.threads = Math.max(1, threads);
+		this.io = io;
+	}
+
+	/**
+	 * @param maxDepth 0 visits the roots only
+	 */
+	void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Walk the trees one after another and print the results
+	 * @param roots
+	 * @param files resolved roots
+	 * @return false when an entry could not be read
+	 */
+	boolean walk(List<String> roots, List<File> files) throws InterruptedException {
+
+		boolean forkJoin = FORK_JOIN;
+		ExecutorService pool = forkJoin ? ForkJoinWalk.createPool(threads)
+				: new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>());
+		try {
+			for (int i = 0; i < roots.size(); i++) {
+				Node root = new Node(files.get(i), roots.get(i), 0);
+				if (!root.file.exists()) {
+					io.println(String.format("%s: %s: No such file or directory", name, root.path));
+					failed = true;
+					continue;
+				}
+				if (forkJoin) {
+					ForkJoinWalk.submit(pool, this, root);
+				} else {
+					submit(pool, root);
+				}
+				print(root);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return !failed;
+	}
+
+	/**
+	 * Print the tree depth-first, waiting for each node in turn
+	 */
+	private void print(Node root) throws InterruptedException {
+
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			if (node.claim(false)) {
+				visit(node);
+			}
+			String output = node.take(io);
+			if (node.holdsPermit()) {
+				pending.release();
+			}
+			if (output != null) {
+				io.print(output);
+			}
+			List<Node> children = node.children;
+			if (children != null) {
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Visit a node on a worker unless the command thread took it, the
+	 * worker waits for a permit first
+	 * @return the children to walk, null for none
+	 */
+	List<Node> process(Node node) {
+
+		try {
+			while (!pending.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (io.isCancelled()) {
+					return null;
+				}
+			}
+			if (!node.claim(true)) {
+				pending.release();
+				return node.awaitChildren(io);
+			}
+		} catch (InterruptedException e) {
+			return null;
+		}
+		return visit(node);
+	}
+
+	/**
+	 * Visit a node and list its children
+	 * @return the children to walk, null for none
+	 */
+	private List<Node> visit(Node node) {
+
+		StringBuilder output = new StringBuilder();
+		List<Node> children = null;
+		try {
+			if (io.isCancelled()) {
+				return null;
+			}
+			boolean isDirectory = node.file.isDirectory();
+			String text = visitor.visit(node.file, node.path, node.depth == 0, isDirectory);
+			if (text != null) {
+				output.append(text);
+			}
+			if (isDirectory && node.depth < maxDepth && (node.depth == 0 || !isLink(node.file))) {
+				// the entries are under the canonical directory, see isLink
+				File dir = (node.depth == 0) ? node.file.getCanonicalFile() : node.file;
+				String[] names = dir.list();
+				if (names == null) {
+					error(output, node.path, "Permission denied");
+				} else {
+					Arrays.sort(names);
+					children = new ArrayList<Node>(names.length);
+					String prefix = node.path.endsWith("/") ? node.path : node.path + "/";
+					for (String child : names) {
+						children.add(new Node(new File(dir, child), prefix + child, node.depth + 1));
+					}
+				}
+			}
+		} catch (IOException e) {
+			error(output, node.path, e.getMessage());
+		} catch (InterruptedException e) {
+			// cancelled, the command thread stops waiting
+		} finally {
+			node.complete(output.length() > 0 ? output.toString() : null, children);
+		}
+		return children;
+	}
+
+	private void error(StringBuilder output, String path, String message) {
+
+		failed = true;
+		output.append(String.format("%s: %s: %s\n", name, path, message));
+	}
+
+	/**
+	 * Symbolic links to directories are not followed, they could loop.
+	 * The entries below the roots are files of their canonical directory,
+	 * so that one canonicalization tells a link.
+	 */
+	static boolean isLink(File file) throws IOException {
+		return !file.getCanonicalFile().equals(file.getAbsoluteFile());
+	}
+
+	private static boolean hasClass(String name) {
+
+		try {
+			Class.forName(name);
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Thread pool walk, each task queues the children it found
+	 */
+	private void submit(final ExecutorService pool, final Node node) {
+
+		try {
+			pool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					List<Node> children = process(node);
+					if (children != null) {
+						for (Node child : children) {
+							submit(pool, child);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the walk was cancelled
+		}
+	}
+
+	/**
+	 * Work-stealing walk, kept apart so that older devices never load
+	 * the fork-join classes
+	 */
+	private static class ForkJoinWalk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final ConsoleTreeWalker walker;
+		private final Node node;
+
+		private ForkJoinWalk(ConsoleTreeWalker walker, Node node) {
+			this.walker = walker;
+			this.node = node;
+		}
+
+		static ExecutorService createPool(int threads) {
+			return new ForkJoinPool(threads);
+		}
+
+		static void submit(ExecutorService pool, ConsoleTreeWalker walker, Node node) {
+			((ForkJoinPool)pool).execute(new ForkJoinWalk(walker, node));
+		}
+
+		@Override
+		protected void compute() {
+
+			List<Node> children = walker.process(node);
+			if (children != null && !children.isEmpty()) {
+				List<ForkJoinWalk> tasks = new ArrayList<ForkJoinWalk>(children.size());
+				for (Node child : children) {
+					tasks.add(new ForkJoinWalk(walker, child));
+				}
+				invokeAll(tasks);
+			}
+		}
+	}
+
+	/**
+	 * Entry of the tree, filled in by a worker
+	 */
+	static class Node {
+
+		final File file;
+		final String path;
+		final int depth;
+		private String output;
+		private List<Node> children;
+		private boolean done = false;
+		private boolean claimed = false;
+		private boolean permit = false;
+
+		Node(File file, String path, int depth) {
+			this.file = file;
+			this.path = path;
+			this.depth = depth;
+		}
+
+		/**
+		 * @param permit the visiting worker holds a pending permit
+		 * @return false when the node was taken already
+		 */
+		synchronized boolean claim(boolean permit) {
+
+			if (claimed) {
+				return false;
+			}
+			claimed = true;
+			this.permit = permit;
+			return true;
+		}
+
+		synchronized boolean holdsPermit() {
+			return permit;
+		}
+
+		synchronized void complete(String output, List<Node> children) {
+
+			this.output = output;
+			this.children = children;
+			done = true;
+			notifyAll();
+		}
+
+		/**
+		 * Wait until the node is done
+		 * @return its output, which is not kept any longer
+		 */
+		synchronized String take(ConsoleCommandIO io) throws InterruptedException {
+
+			while (!done) {
+				io.checkCancelled();
+				wait(POLL_MILLIS);
+			}
+			String result = output;
+			output = null;
+			return result;
+		}
+
+		/**
+		 * Wait until the node is done
+		 * @return its children
+		 */
+		synchronized List<Node> awaitChildren(ConsoleCommandIO io) throws InterruptedException {
+
+			while (!done) {
+				io.checkCancelled();
+				wait(POLL_MILLIS);
+			}
+			return children;
+		}
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlines of the commands and cleanup after them, on one daemon thread.
+ * While jobs run their processes are looked at in intervals from
+ * {@link #SCAN_MILLIS} doubling up to {@link #MAX_IDLE_MILLIS}, every
+ * {@link #SCAN_MILLIS} while a deadline is pending. A pty command costs
+ * one stat read, all of /proc is scanned for piped processes and while
+ * a deadline is pending, the descendants seen are remembered. A command
+ * that has exited while its output is still open was left behind by a
+ * child that holds the pipe, after {@link #GRACE_MILLIS} the remembered
+ * descendants and the rest of a pty session are killed, so the reader
+ * gets EOF. When the output has not moved for one more grace period the
+ * streams are closed, which frees the fds and on Android the reader
+ * thread. The scan sleeps until the end of these grace periods.
+ */
+class ConsoleWatchdog {
+
+	static final long SCAN_MILLIS = 1000;
+	/** longest sleep while no deadline is pending */
+	static final long MAX_IDLE_MILLIS = 30000;
+	/** between SIGTERM and SIGKILL, and before leftovers are reclaimed */
+	static final long GRACE_MILLIS = 2000;
+
+	private static final String DEBUG_TAG = "ConsoleWatchdog";
+
+	/**
+	 * What the scans found out about a process
+	 */
+	private static class Watch {
+
+		final int pid;
+		final boolean pty;
+		/** read by the job, null for a pipeline stage read by a copy task */
+		final ConsoleOutputDispatcher output;
+		long start = -1;
+		/** descendants seen, by pid with their start time */
+		final Map<Integer, Long> seen = new HashMap<Integer, Long>();
+		long exitedAt = 0;
+		long progress = -1;
+		boolean reclaimed = false;
+
+		Watch(int pid, boolean pty, ConsoleOutputDispatcher output) {
+			this.pid = pid;
+			this.pty = pty;
+			this.output = output;
+		}
+	}
+
+	private final ConsoleJobTable jobs;
+	private final ScheduledThreadPoolExecutor timer;
+	/** used on the timer thread only */
+	private final Map<Process, Watch> watches = new IdentityHashMap<Process, Watch>();
+	/** scheduled deadlines, the done ones are dropped by the scan */
+	private final List<ScheduledFuture<?>> deadlines = new CopyOnWriteArrayList<ScheduledFuture<?>>();
+	private final Runnable scanTask = new Runnable() {
+
+		@Override
+		public void run() {
+			scan();
+		}
+	};
+	/** the next scan, null while one runs or there are no jobs */
+	private ScheduledFuture<?> scan;
+	private long scanAt;
+	private boolean scanning = false;
+	private long idleMillis = SCAN_MILLIS;
+
+	/**
+	 * @param jobs watched while there are any
+	 */
+	ConsoleWatchdog(ConsoleJobTable jobs) {
+
+		this.jobs = jobs;
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, DEBUG_TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Run a task once a deadline has passed
+	 * @param task
+	 * @param millis
+	 * @return cancel it when the deadline is met
+	 */
+	ScheduledFuture<?> schedule(Runnable task, long millis) {
+
+		ScheduledFuture<?> deadline = timer.schedule(task, millis, TimeUnit.MILLISECONDS);
+		deadlines.add(deadline);
+		synchronized (this) {
+			// a running scan looks at the deadlines when it is done
+			if (scan != null) {
+				wakeUp(SCAN_MILLIS);
+			}
+		}
+		return deadline;
+	}
+
+	/**
+	 * Start scanning after a job was added, stops by itself once no jobs
+	 * are left
+	 */
+	synchronized void watch() {
+
+		idleMillis = SCAN_MILLIS;
+		if (!scanning) {
+			wakeUp(SCAN_MILLIS);
+		}
+	}
+
+	/**
+	 * Scan within millis, unless the next scan comes sooner
+	 */
+	private void wakeUp(long millis) {
+
+		long at = System.currentTimeMillis() + millis;
+		if (scan != null) {
+			if (scanAt <= at) {
+				return;
+			}
+			scan.cancel(false);
+		}
+		scan = timer.schedule(scanTask, millis, TimeUnit.MILLISECONDS);
+		scanAt = at;
+	}
+
+	private boolean hasDeadline() {
+
+		for (ScheduledFuture<?> deadline : deadlines) {
+			if (deadline.isDone()) {
+				deadlines.remove(deadline);
+			}
+		}
+		return !deadlines.isEmpty();
+	}
+
+	private void scan() {
+
+		synchronized (this) {
+			scan = null;
+			scanning = true;
+		}
+		long delay = MAX_IDLE_MILLIS;
+		try {
+			delay = check();
+		} finally {
+			synchronized (this) {
+				scanning = false;
+				// checked again, a job added meanwhile has called watch()
+				if (jobs.list().isEmpty()) {
+					watches.clear();
+				} else if (delay > idleMillis) {
+					wakeUp(idleMillis);
+					idleMillis = Math.min(idleMillis * 2, MAX_IDLE_MILLIS);
+				} else {
+					wakeUp(delay);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Look at the processes of the jobs
+	 * @return millis until the next scan, ignoring the idle interval
+	 */
+	private long check() {
+
+		List<ConsoleJob> running = jobs.list();
+		if (running.isEmpty()) {
+			return MAX_IDLE_MILLIS;
+		}
+		Map<Process, ConsoleOutputDispatcher> processes = new IdentityHashMap<Process, ConsoleOutputDispatcher>();
+		for (ConsoleJob job : running) {
+			Process process = job.getProcess();
+			if (process != null && job.getState() != ConsoleJob.DONE) {
+				List<Process> stages = ConsoleProcesses.stages(process);
+				for (Process stage : stages) {
+					processes.put(stage, (stages.size() == 1) ? job.getOutput() : null);
+				}
+			}
+		}
+		watches.keySet().retainAll(processes.keySet());
+		if (processes.isEmpty()) {
+			return MAX_IDLE_MILLIS;
+		}
+		for (Map.Entry<Process, ConsoleOutputDispatcher> entry : processes.entrySet()) {
+			Process process = entry.getKey();
+			if (!watches.containsKey(process)) {
+				int pid = ConsoleProcesses.getPid(process);
+				if (pid > 0) {
+					watches.put(process, new Watch(pid, process instanceof ConsolePty, entry.getValue()));
+				}
+			}
+		}
+		boolean deadline = hasDeadline();
+		boolean piped = false;
+		for (Watch watch : watches.values()) {
+			deadline |= (watch.exitedAt != 0);
+			piped |= !watch.pty;
+		}
+		// the children a piped process leaves behind are known from the
+		// scans before it exited, a pty session keeps them. Otherwise the
+		// first processes are enough to see one exit.
+		Map<Integer, ConsoleProcesses.Stat> stats;
+		if (deadline || piped) {
+			stats = ConsoleProcesses.snapshot();
+		} else {
+			stats = new HashMap<Integer, ConsoleProcesses.Stat>();
+			for (Watch watch : watches.values()) {
+				ConsoleProcesses.Stat stat = ConsoleProcesses.stat(watch.pid);
+				if (stat != null) {
+					stats.put(stat.pid, stat);
+				}
+			}
+		}
+		long now = System.currentTimeMillis();
+		long delay = deadline ? SCAN_MILLIS : MAX_IDLE_MILLIS;
+		for (Map.Entry<Process, Watch> entry : watches.entrySet()) {
+			Watch watch = entry.getValue();
+			check(entry.getKey(), watch, stats, now);
+			if (watch.exitedAt != 0) {
+				// sleep until its grace period is over
+				delay = Math.min(delay, Math.max(watch.exitedAt + GRACE_MILLIS - now, 1));
+			}
+		}
+		return delay;
+	}
+
+	private void check(Process process, Watch watch, Map<Integer, ConsoleProcesses.Stat> stats, long now) {
+
+		ConsoleProcesses.Stat root = stats.get(watch.pid);
+		if (watch.start < 0 && root != null) {
+			watch.start = root.start;
+		}
+		boolean alive = root != null && root.start == watch.start && root.isAlive();
+		if (alive) {
+			for (int pid : ConsoleProcesses.descendants(stats, watch.pid)) {
+				watch.seen.put(pid, stats.get(pid).start);
+			}
+			return;
+		}
+		if (watch.exitedAt == 0) {
+			watch.exitedAt = now;
+			return;
+		}
+		if (now - watch.exitedAt < GRACE_MILLIS) {
+			return;
+		}
+		if (!watch.reclaimed) {
+			Set<Integer> leftovers = new HashSet<Integer>();
+			for (Map.Entry<Integer, Long> entry : watch.seen.entrySet()) {
+				ConsoleProcesses.Stat stat = stats.get(entry.getKey());
+				if (stat != null && stat.start == entry.getValue() && stat.isAlive()) {
+					leftovers.add(stat.pid);
+				}
+			}
+			if (watch.pty) {
+				leftovers.addAll(ConsoleProcesses.sessionMembers(stats, watch.pid));
+			}
+			ConsoleLog.d(DEBUG_TAG, String.format("pid %d exited, killing %d leftovers",
+					watch.pid, leftovers.size()));
+			ConsoleProcesses.send(new ArrayList<Integer>(leftovers), ConsoleJob.SIGKILL);
+			watch.reclaimed = true;
+			watch.exitedAt = now;
+			watch.progress = (watch.output == null) ? -1 : watch.output.getProgress();
+			return;
+		}
+		// a stage read by a copy task may hold output for the next stage,
+		// the job's own reader is closed once its output has stopped
+		long progress = (watch.output == null) ? -1 : watch.output.getProgress();
+		if (progress >= 0 && progress == watch.progress) {
+			ConsoleLog.d(DEBUG_TAG, String.format("pid %d: output still open, closing", watch.pid));
+			ConsoleProcesses.closeStreams(process);
+			watch.progress = -1;
+			watch.exitedAt = now;
+		} else {
+			watch.progress = progress;
+			watch.exitedAt = now;
+		}
+	}
+}
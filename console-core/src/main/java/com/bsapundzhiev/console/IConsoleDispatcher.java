@@ -0,0 +1,25 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+/**
+ * Runs tasks on the UI thread, in the order they were posted. All
+ * {@link IConsoleCommandExecuterCallback} calls go through it.
+ */
+public interface IConsoleDispatcher {
+	/**
+	 * @param task
+	 */
+	void post(Runnable task);
+	/**
+	 * @param task
+	 * @param delayMillis
+	 */
+	void postDelayed(Runnable task, long delayMillis);
+}
@@ -0,0 +1,20 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+/**
+ * Debug log of the console engine, see {@link ConsoleLog#setLogger}
+ */
+public interface IConsoleLogger {
+	/**
+	 * @param tag source of the message
+	 * @param message
+	 */
+	void debug(String tag, String message);
+}
@@ -0,0 +1,22 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+/**
+ * Receiver of decoded command output
+ */
+interface IConsoleOutputSink {
+	/**
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @throws InterruptedException when interrupted while blocked
+	 */
+	void write(char[] chars, int offset, int length) throws InterruptedException;
+}
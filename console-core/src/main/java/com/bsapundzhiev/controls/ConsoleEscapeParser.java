@@ -0,0 +1,361 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+/**
+ * VT100/ANSI escape sequence parser.
+ * A state machine feeding a {@link ConsoleScreen}. The state survives
+ * between calls, so a sequence may be split at any chunk boundary. Runs of
+ * printable chars are passed to the screen in one call and no objects are
+ * allocated while parsing.
+ * Handled: C0 controls, CSI cursor movement (A-H, d, f), erase (J, K),
+ * SGR colors and attributes (m), cursor save/restore and ESC M, D, E, c.
+ * Other CSI, OSC and charset sequences are consumed and ignored.
+ */
+public class ConsoleEscapeParser {
+
+	private static final int GROUND = 0;
+	private static final int ESCAPE = 1;
+	private static final int CSI = 2;
+	private static final int OSC = 3;
+	private static final int OSC_ESCAPE = 4;
+	private static final int CHARSET = 5;
+
+	private static final int MAX_PARAMS = 16;
+	private static final int MAX_PARAM_VALUE = 9999;
+	private static final int CHUNK_LEN = 1024;
+
+	private static final char ESC = 0x1b;
+	private static final char BEL = 0x07;
+	private static final char CAN = 0x18;
+	private static final char SUB = 0x1a;
+	private static final char DEL = 0x7f;
+
+	private final ConsoleScreen _screen;
+	private final int[] _params = new int[MAX_PARAMS];
+	private int _paramCount = 0;
+	/** CSI with a private marker, e.g. ESC [ ? 25 h */
+	private boolean _private = false;
+	private int _state = GROUND;
+	private final char[] _chunk = new char[CHUNK_LEN];
+
+	public ConsoleEscapeParser(ConsoleScreen screen) {
+		_screen = screen;
+	}
+
+	public ConsoleScreen getScreen() {
+		return _screen;
+	}
+
+	public void append(CharSequence text) {
+
+		if (text instanceof String) {
+			String s = (String)text;
+			for (int start = 0, len = s.length(); start < len; start += CHUNK_LEN) {
+				int end = Math.min(len, start + CHUNK_LEN);
+				s.getChars(start, end, _chunk, 0);
+				append(_chunk, 0, end - start);
+			}
+			return;
+		}
+		for (int i = 0, len = text.length(); i < len; i++) {
+			process(text.charAt(i));
+		}
+	}
+
+	public void append(char[] chars, int offset, int length) {
+
+		int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			if (_state == GROUND && isPrintable(chars[i])) {
+				int run = i + 1;
+				while (run < end && isPrintable(chars[run])) {
+					run++;
+				}
+				_screen.print(chars, i, run);
+				i = run;
+			} else {
+				process(chars[i++]);
+			}
+		}
+	}
+
+	/**
+	 * Drop a partial sequence
+	 */
+	public void reset() {
+
+		_state = GROUND;
+		_screen.setStyle(ConsoleStyle.DEFAULT);
+	}
+
+	private static boolean isPrintable(char c) {
+		return c >= 0x20 && c != DEL;
+	}
+
+	private void process(char c) {
+
+		switch (_state) {
+		case GROUND:
+			if (isPrintable(c)) {
+				_screen.print(c);
+			} else {
+				control(c);
+			}
+			break;
+		case ESCAPE:
+			escape(c);
+			break;
+		case CSI:
+			csi(c);
+			break;
+		case OSC:
+			if (c == BEL) {
+				_state = GROUND;
+			} else if (c == ESC) {
+				_state = OSC_ESCAPE;
+			}
+			break;
+		case OSC_ESCAPE:
+			// ESC \ terminates, anything else keeps skipping
+			_state = (c == '\\') ? GROUND : OSC;
+			break;
+		case CHARSET:
+			_state = GROUND;
+			break;
+		}
+	}
+
+	private void control(char c) {
+
+		switch (c) {
+		case '\n':
+		case 0x0b:
+		case 0x0c:
+			_screen.lineFeed();
+			break;
+		case '\r':
+			_screen.carriageReturn();
+			break;
+		case '\b':
+			_screen.backspace();
+			break;
+		case '\t':
+			_screen.tab();
+			break;
+		case ESC:
+			_state = ESCAPE;
+			break;
+		case CAN:
+		case SUB:
+			_state = GROUND;
+			break;
+		default:
+			// BEL and the other controls are ignored
+			break;
+		}
+	}
+
+	private void escape(char c) {
+
+		_state = GROUND;
+		switch (c) {
+		case '[':
+			_state = CSI;
+			_paramCount = 0;
+			_private = false;
+			_params[0] = 0;
+			break;
+		case ']':
+			_state = OSC;
+			break;
+		case '(':
+		case ')':
+		case '*':
+		case '+':
+			_state = CHARSET;
+			break;
+		case '7':
+			_screen.saveCursor();
+			break;
+		case '8':
+			_screen.restoreCursor();
+			break;
+		case 'D':
+			_screen.moveCursor(1, 0);
+			break;
+		case 'E':
+			_screen.lineFeed();
+			break;
+		case 'M':
+			_screen.reverseLineFeed();
+			break;
+		case 'c':
+			// home first, the rows below the cursor are dropped
+			_screen.setStyle(ConsoleStyle.DEFAULT);
+			_screen.setCursor(0, 0);
+			_screen.eraseScreen(2);
+			break;
+		case ESC:
+			_state = ESCAPE;
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void csi(char c) {
+
+		if (c >= '0' && c <= '9') {
+			if (_paramCount < MAX_PARAMS) {
+				int value = _params[_paramCount] * 10 + (c - '0');
+				_params[_paramCount] = Math.min(value, MAX_PARAM_VALUE);
+			}
+		} else if (c == ';' || c == ':') {
+			nextParam();
+		} else if (c >= '<' && c <= '?') {
+			_private = true;
+		} else if (c >= 0x20 && c <= 0x2f) {
+			// intermediate bytes are ignored
+		} else if (c >= 0x40 && c <= 0x7e) {
+			nextParam();
+			_state = GROUND;
+			if (!_private) {
+				dispatch(c);
+			}
+		} else if (c == ESC) {
+			_state = ESCAPE;
+		} else if (c == CAN || c == SUB) {
+			_state = GROUND;
+		} else if (c < 0x20) {
+			// controls are executed in the middle of a sequence
+			control(c);
+		}
+	}
+
+	private void nextParam() {
+
+		if (_paramCount < MAX_PARAMS) {
+			_paramCount++;
+			if (_paramCount < MAX_PARAMS) {
+				_params[_paramCount] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return parameter i, or def when missing or 0
+	 */
+	private int param(int i, int def) {
+		return (i < _paramCount && _params[i] != 0) ? _params[i] : def;
+	}
+
+	private void dispatch(char c) {
+
+		switch (c) {
+		case 'A':
+			_screen.moveCursor(-param(0, 1), 0);
+			break;
+		case 'B':
+		case 'e':
+			_screen.moveCursor(param(0, 1), 0);
+			break;
+		case 'C':
+		case 'a':
+			_screen.moveCursor(0, param(0, 1));
+			break;
+		case 'D':
+			_screen.moveCursor(0, -param(0, 1));
+			break;
+		case 'E':
+			_screen.setCursor(_screen.getCursorRow() + param(0, 1), 0);
+			break;
+		case 'F':
+			_screen.setCursor(_screen.getCursorRow() - param(0, 1), 0);
+			break;
+		case 'G':
+		case '`':
+			_screen.setCursor(_screen.getCursorRow(), param(0, 1) - 1);
+			break;
+		case 'd':
+			_screen.setCursor(param(0, 1) - 1, _screen.getCursorColumn());
+			break;
+		case 'H':
+		case 'f':
+			_screen.setCursor(param(0, 1) - 1, param(1, 1) - 1);
+			break;
+		case 'J':
+			_screen.eraseScreen(param(0, 0));
+			break;
+		case 'K':
+			_screen.eraseLine(param(0, 0));
+			break;
+		case 's':
+			_screen.saveCursor();
+			break;
+		case 'u':
+			_screen.restoreCursor();
+			break;
+		case 'm':
+			selectGraphicRendition();
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void selectGraphicRendition() {
+
+		int style = _screen.getStyle();
+		if (_paramCount == 0) {
+			style = ConsoleStyle.DEFAULT;
+		}
+		for (int i = 0; i < _paramCount; i++) {
+			int p = _params[i];
+			if (p == 0) {
+				style = ConsoleStyle.DEFAULT;
+			} else if (p == 1) {
+				style |= ConsoleStyle.BOLD;
+			} else if (p == 4) {
+				style |= ConsoleStyle.UNDERLINE;
+			} else if (p == 7) {
+				style |= ConsoleStyle.INVERSE;
+			} else if (p == 22) {
+				style &= ~ConsoleStyle.BOLD;
+			} else if (p == 24) {
+				style &= ~ConsoleStyle.UNDERLINE;
+			} else if (p == 27) {
+				style &= ~ConsoleStyle.INVERSE;
+			} else if (p >= 30 && p <= 37) {
+				style = ConsoleStyle.withForeground(style, p - 30);
+			} else if (p == 39) {
+				style = ConsoleStyle.withForeground(style, -1);
+			} else if (p >= 40 && p <= 47) {
+				style = ConsoleStyle.withBackground(style, p - 40);
+			} else if (p == 49) {
+				style = ConsoleStyle.withBackground(style, -1);
+			} else if (p >= 90 && p <= 97) {
+				style = ConsoleStyle.withForeground(style, p - 90 + 8);
+			} else if (p >= 100 && p <= 107) {
+				style = ConsoleStyle.withBackground(style, p - 100 + 8);
+			} else if ((p == 38 || p == 48) && i + 2 < _paramCount && _params[i + 1] == 5) {
+				// 256 colors: 38;5;n and 48;5;n
+				int index = Math.min(255, _params[i + 2]);
+				style = (p == 38) ? ConsoleStyle.withForeground(style, index)
+						: ConsoleStyle.withBackground(style, index);
+				i += 2;
+			} else if ((p == 38 || p == 48) && i + 1 < _paramCount && _params[i + 1] == 2) {
+				// true color is not supported, skip 38;2;r;g;b
+				i += 4;
+			}
+		}
+		_screen.setStyle(style);
+	}
+}
@@ -0,0 +1,436 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+/**
+ * Screen model.
+ * The last {@link #getRows()} lines are editable and addressed by the
+ * cursor, lines scrolled off the top are committed to the
+ * {@link ConsoleScrollback}. Lines are logical, wrapping is left to the
+ * view. Both parts are exposed as one list of lines, the scrollback first.
+ */
+public class ConsoleScreen {
+
+	public static final int DEFAULT_ROWS = 24;
+	private static final int TAB_WIDTH = 8;
+
+	private final ConsoleScrollback _history;
+	/** screen line ring, _top is the first row */
+	private char[][] _chars;
+	private int[][] _styles;
+	private int[] _lengths;
+	private int _top = 0;
+	private int _rows;
+	/** rows in use, the ones below are not part of the output yet */
+	private int _used = 1;
+	private int _cursorRow = 0;
+	private int _cursorColumn = 0;
+	private int _savedRow = 0;
+	private int _savedColumn = 0;
+	private int _style = ConsoleStyle.DEFAULT;
+	/** changed rows since the last {@link #clearDirty()} */
+	private int _dirtyFrom = Integer.MAX_VALUE;
+	private int _dirtyTo = -1;
+
+	public ConsoleScreen(ConsoleScrollback history) {
+		this(history, DEFAULT_ROWS);
+	}
+
+	public ConsoleScreen(ConsoleScrollback history, int rows) {
+
+		_history = history;
+		_rows = Math.max(1, rows);
+		_chars = new char[_rows][];
+		_styles = new int[_rows][];
+		_lengths = new int[_rows];
+		for (int i = 0; i < _rows; i++) {
+			_chars[i] = new char[80];
+			_styles[i] = new int[80];
+		}
+	}
+
+	public ConsoleScrollback getHistory() {
+		return _history;
+	}
+
+	public int getRows() {
+		return _rows;
+	}
+
+	/**
+	 * @return lines in the scrollback and on screen
+	 */
+	public int getLineCount() {
+		return historyLines() + _used;
+	}
+
+	/**
+	 * @return absolute number of the first line
+	 */
+	public long getFirstLine() {
+		return _history.getFirstLine();
+	}
+
+	public int getLineLength(int line) {
+
+		int h = historyLines();
+		return (line < h) ? _history.getLineLength(line) : _lengths[slot(line - h)];
+	}
+
+	public int getLine(int line, char[] dst, int dstOffset) {
+
+		int h = historyLines();
+		if (line < h) {
+			return _history.getLine(line, dst, dstOffset);
+		}
+		int slot = slot(line - h);
+		System.arraycopy(_chars[slot], 0, dst, dstOffset, _lengths[slot]);
+		return _lengths[slot];
+	}
+
+	public int getStyles(int line, int[] dst, int dstOffset) {
+
+		int h = historyLines();
+		if (line < h) {
+			return _history.getStyles(line, dst, dstOffset);
+		}
+		int slot = slot(line - h);
+		System.arraycopy(_styles[slot], 0, dst, dstOffset, _lengths[slot]);
+		return _lengths[slot];
+	}
+
+	/**
+	 * @return line index of the cursor
+	 */
+	public int getCursorLine() {
+		return historyLines() + _cursorRow;
+	}
+
+	public int getCursorColumn() {
+		return _cursorColumn;
+	}
+
+	/**
+	 * @return first changed line index or -1 when nothing changed
+	 */
+	public int getDirtyFrom() {
+		return (_dirtyTo < 0) ? -1 : historyLines() + _dirtyFrom;
+	}
+
+	/**
+	 * @return last changed line index or -1 when nothing changed
+	 */
+	public int getDirtyTo() {
+		return (_dirtyTo < 0) ? -1 : historyLines() + _dirtyTo;
+	}
+
+	public void clearDirty() {
+
+		_dirtyFrom = Integer.MAX_VALUE;
+		_dirtyTo = -1;
+	}
+
+	/**
+	 * Change the screen height, rows that no longer fit go to the scrollback
+	 * @param rows
+	 */
+	public void resize(int rows) {
+
+		rows = Math.max(1, rows);
+		if (rows == _rows) {
+			return;
+		}
+		int drop = Math.max(0, _used - rows);
+		for (int i = 0; i < drop; i++) {
+			int slot = slot(i);
+			_history.appendLine(_chars[slot], _styles[slot], _lengths[slot]);
+			_lengths[slot] = 0;
+		}
+		_top = slot(drop);
+		_used -= drop;
+		_cursorRow = Math.max(0, _cursorRow - drop);
+		char[][] chars = new char[rows][];
+		int[][] styles = new int[rows][];
+		int[] lengths = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			if (i < _rows) {
+				int slot = slot(i);
+				chars[i] = _chars[slot];
+				styles[i] = _styles[slot];
+				lengths[i] = (i < _used) ? _lengths[slot] : 0;
+			} else {
+				chars[i] = new char[80];
+				styles[i] = new int[80];
+			}
+		}
+		_chars = chars;
+		_styles = styles;
+		_lengths = lengths;
+		_top = 0;
+		_rows = rows;
+		_cursorRow = Math.min(_cursorRow, rows - 1);
+		_savedRow = Math.min(_savedRow, rows - 1);
+		markDirty(0, rows - 1);
+	}
+
+	/**
+	 * Clear screen and scrollback
+	 */
+	public void clear() {
+
+		_history.clear();
+		for (int i = 0; i < _rows; i++) {
+			_lengths[i] = 0;
+		}
+		_used = 1;
+		_cursorRow = 0;
+		_cursorColumn = 0;
+		markDirty(0, _rows - 1);
+	}
+
+	public void setStyle(int style) {
+		_style = style;
+	}
+
+	public int getStyle() {
+		return _style;
+	}
+
+	public void print(char c) {
+
+		int slot = slot(_cursorRow);
+		reserve(slot, _cursorColumn + 1);
+		_chars[slot][_cursorColumn] = c;
+		_styles[slot][_cursorColumn] = _style;
+		_cursorColumn++;
+		if (_lengths[slot] < _cursorColumn) {
+			_lengths[slot] = _cursorColumn;
+		}
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	/**
+	 * Print a run of printable chars
+	 */
+	public void print(char[] chars, int start, int end) {
+
+		int count = end - start;
+		int slot = slot(_cursorRow);
+		reserve(slot, _cursorColumn + count);
+		System.arraycopy(chars, start, _chars[slot], _cursorColumn, count);
+		int[] styles = _styles[slot];
+		for (int i = _cursorColumn, last = _cursorColumn + count; i < last; i++) {
+			styles[i] = _style;
+		}
+		_cursorColumn += count;
+		if (_lengths[slot] < _cursorColumn) {
+			_lengths[slot] = _cursorColumn;
+		}
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	/**
+	 * Next line, the column is reset as well
+	 */
+	public void lineFeed() {
+
+		if (_cursorRow == _rows - 1) {
+			scrollUp();
+		} else {
+			markDirty(_cursorRow, _cursorRow + 1);
+			_cursorRow++;
+			touchRow(_cursorRow);
+		}
+		_cursorColumn = 0;
+	}
+
+	/**
+	 * Previous line, scrolls the screen down at the top row
+	 */
+	public void reverseLineFeed() {
+
+		if (_cursorRow > 0) {
+			markDirty(_cursorRow - 1, _cursorRow);
+			_cursorRow--;
+			return;
+		}
+		_top = (_top + _rows - 1) % _rows;
+		_lengths[_top] = 0;
+		_used = Math.min(_rows, _used + 1);
+		markDirty(0, _rows - 1);
+	}
+
+	public void carriageReturn() {
+
+		_cursorColumn = 0;
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	public void backspace() {
+
+		if (_cursorColumn > 0) {
+			_cursorColumn--;
+		}
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	public void tab() {
+
+		_cursorColumn = (_cursorColumn / TAB_WIDTH + 1) * TAB_WIDTH;
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	public void moveCursor(int rowDelta, int columnDelta) {
+		setCursor(_cursorRow + rowDelta, _cursorColumn + columnDelta);
+	}
+
+	/**
+	 * @param row 0 based screen row
+	 * @param column 0 based column
+	 */
+	public void setCursor(int row, int column) {
+
+		markDirty(_cursorRow, _cursorRow);
+		_cursorRow = Math.max(0, Math.min(_rows - 1, row));
+		_cursorColumn = Math.max(0, column);
+		touchRow(_cursorRow);
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	public int getCursorRow() {
+		return _cursorRow;
+	}
+
+	public void saveCursor() {
+
+		_savedRow = _cursorRow;
+		_savedColumn = _cursorColumn;
+	}
+
+	public void restoreCursor() {
+		setCursor(_savedRow, _savedColumn);
+	}
+
+	/**
+	 * @param mode 0 to the end, 1 to the start, 2 the whole line
+	 */
+	public void eraseLine(int mode) {
+
+		int slot = slot(_cursorRow);
+		switch (mode) {
+		case 0:
+			_lengths[slot] = Math.min(_lengths[slot], _cursorColumn);
+			break;
+		case 1:
+			blank(slot, Math.min(_cursorColumn + 1, _lengths[slot]));
+			break;
+		default:
+			_lengths[slot] = 0;
+			break;
+		}
+		markDirty(_cursorRow, _cursorRow);
+	}
+
+	/**
+	 * @param mode 0 below the cursor, 1 above, 2 the whole screen,
+	 * 3 the screen and the scrollback
+	 */
+	public void eraseScreen(int mode) {
+
+		switch (mode) {
+		case 0:
+			eraseLine(0);
+			for (int i = _cursorRow + 1; i < _rows; i++) {
+				_lengths[slot(i)] = 0;
+			}
+			_used = _cursorRow + 1;
+			markDirty(_cursorRow, _rows - 1);
+			break;
+		case 1:
+			eraseLine(1);
+			for (int i = 0; i < _cursorRow; i++) {
+				_lengths[slot(i)] = 0;
+			}
+			markDirty(0, _cursorRow);
+			break;
+		default:
+			if (mode == 3) {
+				_history.clear();
+			}
+			for (int i = 0; i < _rows; i++) {
+				_lengths[i] = 0;
+			}
+			_used = _cursorRow + 1;
+			markDirty(0, _rows - 1);
+			break;
+		}
+	}
+
+	private int historyLines() {
+		// the open line of the scrollback is always empty
+		return _history.getLineCount() - 1;
+	}
+
+	private int slot(int row) {
+		return (_top + row) % _rows;
+	}
+
+	/**
+	 * Commit the top row to the scrollback
+	 */
+	private void scrollUp() {
+
+		_history.appendLine(_chars[_top], _styles[_top], _lengths[_top]);
+		_lengths[_top] = 0;
+		_top = (_top + 1) % _rows;
+		_used = _rows;
+		markDirty(0, _rows - 1);
+	}
+
+	private void touchRow(int row) {
+
+		if (_used <= row) {
+			_used = row + 1;
+		}
+	}
+
+	/**
+	 * Make room for length cells, a gap before the cursor is blank
+	 */
+	private void reserve(int slot, int length) {
+
+		if (_chars[slot].length < length) {
+			int size = Math.max(length, _chars[slot].length * 2);
+			char[] chars = new char[size];
+			int[] styles = new int[size];
+			System.arraycopy(_chars[slot], 0, chars, 0, _lengths[slot]);
+			System.arraycopy(_styles[slot], 0, styles, 0, _lengths[slot]);
+			_chars[slot] = chars;
+			_styles[slot] = styles;
+		}
+		for (int i = _lengths[slot]; i < _cursorColumn; i++) {
+			_chars[slot][i] = ' ';
+			_styles[slot][i] = ConsoleStyle.DEFAULT;
+		}
+	}
+
+	private void blank(int slot, int count) {
+
+		for (int i = 0; i < count; i++) {
+			_chars[slot][i] = ' ';
+			_styles[slot][i] = ConsoleStyle.DEFAULT;
+		}
+	}
+
+	private void markDirty(int from, int to) {
+
+		_dirtyFrom = Math.min(_dirtyFrom, from);
+		_dirtyTo = Math.max(_dirtyTo, to);
+	}
+}
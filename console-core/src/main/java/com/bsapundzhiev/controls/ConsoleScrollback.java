@@ -0,0 +1,318 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+/**
+ * Bounded scrollback store.
+ * Text is kept in a circular char buffer and lines in a circular table of
+ * start offsets, so evicting the oldest line only moves two indexes. Offsets
+ * and line numbers are absolute (they keep counting across evictions), the
+ * newline chars are not stored and the last line stays open for appending.
+ * A parallel {@link ConsoleStyle} ring is only allocated once styled text
+ * is stored. Changes and {@link #find} are synchronized so that a search
+ * can run on another thread, the writer's thread reads without locking.
+ */
+public class ConsoleScrollback {
+
+	public static final int DEFAULT_MAX_LINES = 2000;
+	private static final int MIN_CAPACITY = 16 * 1024;
+	private static final int MAX_AVG_LINE = 256;
+
+	private int maxLines;
+	private int maxChars;
+	/** text ring, capacity is a power of two */
+	private char[] text = new char[MIN_CAPACITY];
+	/** style ring, null while all stored text is plain */
+	private int[] styles = null;
+	/** absolute offset of the first stored char and of the end of text */
+	private long textStart = 0;
+	private long textEnd = 0;
+	/** line start ring, lineCount entries from lineHead */
+	private long[] lineStarts;
+	private int lineHead = 0;
+	private int lineCount = 1;
+	/** absolute number of the oldest stored line */
+	private long firstLine = 0;
+
+	public ConsoleScrollback() {
+		this(DEFAULT_MAX_LINES);
+	}
+
+	public ConsoleScrollback(int maxLines) {
+		this.lineStarts = new long[1];
+		setMaxLines(maxLines);
+	}
+
+	/**
+	 * Change the line limit, oldest lines are evicted when needed
+	 * @param maxLines
+	 */
+	public synchronized void setMaxLines(int maxLines) {
+
+		if (maxLines < 1) {
+			throw new IllegalArgumentException("maxLines: " + maxLines);
+		}
+		long[] starts = new long[maxLines];
+		int keep = Math.min(lineCount, maxLines);
+		for (int i = 0; i < keep; i++) {
+			starts[i] = lineStart(lineCount - keep + i);
+		}
+		firstLine += lineCount - keep;
+		textStart = starts[0];
+		this.lineStarts = starts;
+		this.lineHead = 0;
+		this.lineCount = keep;
+		this.maxLines = maxLines;
+		this.maxChars = Math.max(MIN_CAPACITY, maxLines * MAX_AVG_LINE);
+	}
+
+	public int getMaxLines() {
+		return maxLines;
+	}
+
+	/**
+	 * @return number of stored lines, including the open last line
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return absolute number of the oldest stored line
+	 */
+	public long getFirstLine() {
+		return firstLine;
+	}
+
+	/**
+	 * @return absolute offset of the oldest stored char
+	 */
+	public long getStartOffset() {
+		return textStart;
+	}
+
+	public int getLineLength(int line) {
+		return (int)(lineEnd(line) - lineStart(line));
+	}
+
+	/**
+	 * Copy a line into dst
+	 * @param line 0 is the oldest stored line
+	 * @param dst
+	 * @param dstOffset
+	 * @return number of chars copied
+	 */
+	public int getLine(int line, char[] dst, int dstOffset) {
+
+		long start = lineStart(line);
+		int length = (int)(lineEnd(line) - start);
+		int mask = text.length - 1;
+		int from = (int)(start & mask);
+		int first = Math.min(length, text.length - from);
+		System.arraycopy(text, from, dst, dstOffset, first);
+		System.arraycopy(text, 0, dst, dstOffset + first, length - first);
+		return length;
+	}
+
+	/**
+	 * Copy the styles of a line into dst
+	 * @param line 0 is the oldest stored line
+	 * @param dst
+	 * @param dstOffset
+	 * @return number of styles copied
+	 */
+	public int getStyles(int line, int[] dst, int dstOffset) {
+
+		long start = lineStart(line);
+		int length = (int)(lineEnd(line) - start);
+		if (styles == null) {
+			for (int i = 0; i < length; i++) {
+				dst[dstOffset + i] = ConsoleStyle.DEFAULT;
+			}
+			return length;
+		}
+		int mask = styles.length - 1;
+		int from = (int)(start & mask);
+		int first = Math.min(length, styles.length - from);
+		System.arraycopy(styles, from, dst, dstOffset, first);
+		System.arraycopy(styles, 0, dst, dstOffset + first, length - first);
+		return length;
+	}
+
+	public String getLine(int line) {
+
+		char[] buf = new char[getLineLength(line)];
+		getLine(line, buf, 0);
+		return new String(buf);
+	}
+
+	public synchronized void append(CharSequence s) {
+
+		for (int i = 0, len = s.length(); i < len; i++) {
+			append(s.charAt(i));
+		}
+	}
+
+	public synchronized void append(char[] chars, int offset, int length) {
+
+		for (int i = offset, end = offset + length; i < end; i++) {
+			append(chars[i]);
+		}
+	}
+
+	public synchronized void append(char c) {
+
+		switch (c) {
+		case '\n':
+			newLine();
+			break;
+		default:
+			put(c, ConsoleStyle.DEFAULT);
+			break;
+		}
+	}
+
+	/**
+	 * Append a complete line
+	 * @param chars
+	 * @param lineStyles styles of chars, may be null for plain text
+	 * @param length
+	 */
+	public synchronized void appendLine(char[] chars, int[] lineStyles, int length) {
+
+		for (int i = 0; i < length; i++) {
+			put(chars[i], (lineStyles == null) ? ConsoleStyle.DEFAULT : lineStyles[i]);
+		}
+		newLine();
+	}
+
+	private void put(char c, int style) {
+
+		ensureCapacity();
+		int index = (int)(textEnd & (text.length - 1));
+		text[index] = c;
+		if (styles == null && style != ConsoleStyle.DEFAULT) {
+			styles = new int[text.length];
+		}
+		if (styles != null) {
+			styles[index] = style;
+		}
+		textEnd++;
+	}
+
+	/**
+	 * Remove the last char of the open line
+	 * @return false when the open line is empty
+	 */
+	public synchronized boolean deleteLast() {
+
+		if (textEnd == lineStart(lineCount - 1)) {
+			return false;
+		}
+		textEnd--;
+		return true;
+	}
+
+	public synchronized void newLine() {
+
+		if (lineCount == maxLines) {
+			evictLine();
+		}
+		lineStarts[(lineHead + lineCount) % maxLines] = textEnd;
+		lineCount++;
+	}
+
+	public synchronized void clear() {
+
+		styles = null;
+		firstLine += lineCount;
+		textStart = textEnd;
+		lineHead = 0;
+		lineCount = 1;
+		lineStarts[0] = textEnd;
+	}
+
+	/**
+	 * Find a pattern in a range of lines, newest line first and right to
+	 * left in a line. Matches do not span lines, lines evicted meanwhile
+	 * are skipped.
+	 * @param pattern
+	 * @param line absolute number of the newest line to search
+	 * @param count lines to search towards the oldest
+	 * @param matches receives the absolute line and column of each match
+	 */
+	public synchronized void find(ConsoleSearchPattern pattern, long line, int count,
+			ConsoleScrollbackSearch.Matches matches) {
+
+		int mask = text.length - 1;
+		int newest = (int)Math.min(line - firstLine, lineCount - 1);
+		int oldest = (int)Math.max(0, line - count + 1 - firstLine);
+		for (int i = newest; i >= oldest; i--) {
+			long start = lineStart(i);
+			long end = lineEnd(i);
+			int first = matches.size();
+			for (long p = start; (p = pattern.indexOf(text, mask, p, end)) >= 0; p += pattern.length()) {
+				matches.add(firstLine + i, (int)(p - start));
+			}
+			matches.reverse(first);
+		}
+	}
+
+	private long lineStart(int line) {
+
+		if (line < 0 || line >= lineCount) {
+			throw new IndexOutOfBoundsException("line: " + line);
+		}
+		return lineStarts[(lineHead + line) % lineStarts.length];
+	}
+
+	private long lineEnd(int line) {
+		return (line + 1 < lineCount) ? lineStart(line + 1) : textEnd;
+	}
+
+	private void evictLine() {
+
+		if (lineCount == 1) {
+			// a single line larger than the store, drop its head
+			textStart++;
+			lineStarts[lineHead] = textStart;
+			return;
+		}
+		lineHead = (lineHead + 1) % maxLines;
+		lineCount--;
+		firstLine++;
+		textStart = lineStarts[lineHead];
+	}
+
+	private void ensureCapacity() {
+
+		if (textEnd - textStart < text.length) {
+			return;
+		}
+		if (text.length < maxChars) {
+			char[] grown = new char[text.length * 2];
+			int[] grownStyles = (styles == null) ? null : new int[grown.length];
+			int mask = text.length - 1;
+			for (long p = textStart; p < textEnd; p++) {
+				int to = (int)(p & (grown.length - 1));
+				grown[to] = text[(int)(p & mask)];
+				if (grownStyles != null) {
+					grownStyles[to] = styles[(int)(p & mask)];
+				}
+			}
+			text = grown;
+			styles = grownStyles;
+			return;
+		}
+		// an empty line frees no chars
+		while (textEnd - textStart >= text.length) {
+			evictLine();
+		}
+	}
+}
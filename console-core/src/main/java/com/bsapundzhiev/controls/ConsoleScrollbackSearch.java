@@ -0,0 +1,243 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.bsapundzhiev.console.IConsoleDispatcher;
+
+/**
+ * Find in the console text, newest match first.
+ * The screen lines are few and change all the time, they are searched on
+ * the UI thread when the search starts. The scrollback lines never change
+ * once committed and are searched on a background thread, in blocks of
+ * {@link #BLOCK_LINES} that hold the scrollback lock briefly, so output
+ * keeps flowing. Matches are handed to the UI thread in batches while
+ * the search goes on; starting another search drops a running one.
+ */
+public class ConsoleScrollbackSearch {
+
+	static final int BLOCK_LINES = 4096;
+	/** matches kept, the search stops there */
+	static final int MAX_MATCHES = 100000;
+	/** batches of matches go to the UI thread at most this often */
+	private static final long POST_NANOS = 50 * 1000000L;
+
+	/**
+	 * UI thread callback
+	 */
+	public interface Listener {
+		void onSearchProgress(ConsoleScrollbackSearch search);
+	}
+
+	/**
+	 * Absolute line numbers and columns of matches
+	 */
+	public static class Matches {
+
+		private long[] lines = new long[64];
+		private int[] columns = new int[64];
+		private int size = 0;
+
+		public int size() {
+			return size;
+		}
+
+		public long getLine(int index) {
+			return lines[index];
+		}
+
+		public int getColumn(int index) {
+			return columns[index];
+		}
+
+		void add(long line, int column) {
+
+			if (size == lines.length) {
+				lines = Arrays.copyOf(lines, size * 2);
+				columns = Arrays.copyOf(columns, size * 2);
+			}
+			lines[size] = line;
+			columns[size] = column;
+			size++;
+		}
+
+		void addAll(Matches other) {
+
+			for (int i = 0; i < other.size; i++) {
+				add(other.lines[i], other.columns[i]);
+			}
+		}
+
+		/**
+		 * Reverse the order of matches from index on
+		 */
+		void reverse(int from) {
+
+			for (int i = from, j = size - 1; i < j; i++, j--) {
+				long line = lines[i];
+				lines[i] = lines[j];
+				lines[j] = line;
+				int column = columns[i];
+				columns[i] = columns[j];
+				columns[j] = column;
+			}
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor();
+	private final ConsoleScreen screen;
+	private final IConsoleDispatcher dispatcher;
+	private final Listener listener;
+	private final Matches matches = new Matches();
+	/** changed on the UI thread, a search ends when it no longer matches */
+	private volatile int generation = 0;
+	private String query = "";
+	private int length = 0;
+	private boolean done = true;
+
+	/**
+	 * @param screen
+	 * @param dispatcher runs the listener on the UI thread
+	 * @param listener
+	 */
+	public ConsoleScrollbackSearch(ConsoleScreen screen, IConsoleDispatcher dispatcher, Listener listener) {
+		this.screen = screen;
+		this.dispatcher = dispatcher;
+		this.listener = listener;
+	}
+
+	/**
+	 * Drop the matches and search again, call from the UI thread
+	 * @param query empty for no search
+	 */
+	public void start(String query) {
+
+		final int gen = ++generation;
+		this.query = query;
+		length = query.length();
+		matches.clear();
+		if (query.length() == 0) {
+			done = true;
+			return;
+		}
+		done = false;
+		final ConsoleSearchPattern pattern = new ConsoleSearchPattern(query);
+		final ConsoleScrollback scrollback = screen.getHistory();
+		final int committed = scrollback.getLineCount() - 1;
+		final long first = screen.getFirstLine();
+		// screen lines, except the command line at the cursor
+		char[] buf = new char[80];
+		for (int i = screen.getLineCount() - 1; i >= committed; i--) {
+			if (i == screen.getCursorLine()) {
+				continue;
+			}
+			int len = screen.getLineLength(i);
+			if (len > buf.length) {
+				buf = new char[len];
+			}
+			screen.getLine(i, buf, 0);
+			int from = matches.size();
+			for (long p = 0; (p = pattern.indexOf(buf, -1, p, len)) >= 0; p += length) {
+				matches.add(first + i, (int)p);
+			}
+			matches.reverse(from);
+		}
+		worker.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				search(gen, pattern, scrollback, first + committed - 1, first);
+			}
+		});
+	}
+
+	/**
+	 * Stop searching and drop the matches
+	 */
+	public void cancel() {
+		start("");
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return length of a match
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return matches found so far, newest first
+	 */
+	public Matches getMatches() {
+		return matches;
+	}
+
+	/**
+	 * @return false while the scrollback is searched
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	private void search(int gen, ConsoleSearchPattern pattern, ConsoleScrollback scrollback,
+			long newest, long oldest) {
+
+		Matches batch = new Matches();
+		int found = 0;
+		long posted = System.nanoTime();
+		for (long line = newest; gen == generation; line -= BLOCK_LINES) {
+			boolean last = line - BLOCK_LINES < oldest || found >= MAX_MATCHES;
+			if (line >= oldest && found < MAX_MATCHES) {
+				int before = batch.size();
+				scrollback.find(pattern, line, BLOCK_LINES, batch);
+				found += batch.size() - before;
+			}
+			long now = System.nanoTime();
+			if (last || (batch.size() > 0 && now - posted > POST_NANOS)) {
+				post(gen, batch, last);
+				batch = new Matches();
+				posted = now;
+			}
+			if (last) {
+				break;
+			}
+		}
+	}
+
+	private void post(final int gen, final Matches batch, final boolean last) {
+
+		dispatcher.post(new Runnable() {
+
+			@Override
+			public void run() {
+				if (gen != generation) {
+					return;
+				}
+				int room = MAX_MATCHES - matches.size();
+				if (batch.size() > room) {
+					batch.size = Math.max(0, room);
+				}
+				matches.addAll(batch);
+				done = last;
+				listener.onSearchProgress(ConsoleScrollbackSearch.this);
+			}
+		});
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+/**
+ * Literal text search with the Boyer-Moore-Horspool skip table.
+ * Matching runs over a ring of chars addressed by absolute offsets, the
+ * way {@link ConsoleScrollback} stores text, so stored lines are searched
+ * in place. A query without capitals ignores case.
+ */
+public class ConsoleSearchPattern {
+
+	private final char[] pattern;
+	private final boolean ignoreCase;
+	/** shift by the last char of the window, chars are hashed to 8 bits */
+	private final int[] shift = new int[256];
+
+	public ConsoleSearchPattern(String query) {
+
+		if (query.length() == 0) {
+			throw new IllegalArgumentException("empty query");
+		}
+		ignoreCase = query.equals(query.toLowerCase());
+		pattern = query.toCharArray();
+		int m = pattern.length;
+		for (int i = 0; i < shift.length; i++) {
+			shift[i] = m;
+		}
+		// colliding chars keep the smaller shift
+		for (int i = 0; i < m - 1; i++) {
+			shift[pattern[i] & 0xff] = m - 1 - i;
+		}
+	}
+
+	public int length() {
+		return pattern.length;
+	}
+
+	/**
+	 * @param text char ring
+	 * @param mask ring length - 1, or -1 for a plain array
+	 * @param from absolute offset to start at
+	 * @param end absolute offset after the last char to search
+	 * @return absolute offset of the first match, or -1
+	 */
+	public long indexOf(char[] text, int mask, long from, long end) {
+
+		final int m = pattern.length;
+		for (long p = from, last = end - m; p <= last; ) {
+			int j = m - 1;
+			while (j >= 0 && fold(text[(int)((p + j) & mask)]) == pattern[j]) {
+				j--;
+			}
+			if (j < 0) {
+				return p;
+			}
+			p += shift[fold(text[(int)((p + m - 1) & mask)]) & 0xff];
+		}
+		return -1;
+	}
+
+	private char fold(char c) {
+
+		if (!ignoreCase) {
+			return c;
+		}
+		if (c < 128) {
+			return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+		}
+		return Character.toLowerCase(c);
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+/**
+ * Packed cell attributes.
+ * Bits 0-8 hold the foreground and bits 9-17 the background as palette
+ * index + 1, 0 meaning the default color, followed by the flags. A zero
+ * filled style array is plain text.
+ */
+public final class ConsoleStyle {
+
+	public static final int DEFAULT = 0;
+	public static final int BOLD = 1 << 18;
+	public static final int UNDERLINE = 1 << 19;
+	public static final int INVERSE = 1 << 20;
+
+	private static final int COLOR_MASK = 0x1ff;
+	private static final int BG_SHIFT = 9;
+
+	/** xterm base colors */
+	private static final int[] BASE_COLORS = {
+		0x000000, 0xcd0000, 0x00cd00, 0xcdcd00, 0x0000ee, 0xcd00cd, 0x00cdcd, 0xe5e5e5,
+		0x7f7f7f, 0xff0000, 0x00ff00, 0xffff00, 0x5c5cff, 0xff00ff, 0x00ffff, 0xffffff,
+	};
+
+	private ConsoleStyle() {
+	}
+
+	/**
+	 * @return palette index of the foreground or -1 for the default
+	 */
+	public static int foreground(int style) {
+		return (style & COLOR_MASK) - 1;
+	}
+
+	/**
+	 * @return palette index of the background or -1 for the default
+	 */
+	public static int background(int style) {
+		return ((style >> BG_SHIFT) & COLOR_MASK) - 1;
+	}
+
+	/**
+	 * @param index palette index or -1 for the default
+	 */
+	public static int withForeground(int style, int index) {
+		return (style & ~COLOR_MASK) | ((index + 1) & COLOR_MASK);
+	}
+
+	/**
+	 * @param index palette index or -1 for the default
+	 */
+	public static int withBackground(int style, int index) {
+		return (style & ~(COLOR_MASK << BG_SHIFT)) | (((index + 1) & COLOR_MASK) << BG_SHIFT);
+	}
+
+	/**
+	 * @param index xterm 256 color palette index
+	 * @return opaque ARGB color
+	 */
+	public static int color(int index) {
+
+		int rgb;
+		if (index < 16) {
+			rgb = BASE_COLORS[index];
+		} else if (index < 232) {
+			// 6x6x6 color cube
+			int i = index - 16;
+			rgb = (cubeLevel(i / 36) << 16) | (cubeLevel((i / 6) % 6) << 8) | cubeLevel(i % 6);
+		} else {
+			int gray = 8 + (index - 232) * 10;
+			rgb = (gray << 16) | (gray << 8) | gray;
+		}
+		return 0xff000000 | rgb;
+	}
+
+	private static int cubeLevel(int level) {
+		return (level == 0) ? 0 : 55 + level * 40;
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ConsoleCommandParserTest {
+
+	private static void assertError(String line) {
+
+		try {
+			ConsoleCommandParser.parse(line);
+			fail(line);
+		} catch (ParseException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void parsesPipelineWithRedirects() throws ParseException {
+
+		ConsoleCommandLine parsed = ConsoleCommandParser.parse("cat < in 'a b' | grep -v \"x y\" >> out 2>&1");
+		assertEquals(2, parsed.commands.size());
+		assertFalse(parsed.background);
+		ConsoleCommandLine.Command cat = parsed.commands.get(0);
+		assertEquals(Arrays.asList("cat", "a b"), cat.args);
+		assertEquals("in", cat.input);
+		ConsoleCommandLine.Command grep = parsed.commands.get(1);
+		assertEquals(Arrays.asList("grep", "-v", "x y"), grep.args);
+		assertEquals("out", grep.output);
+		assertTrue(grep.appendOutput);
+		assertTrue(grep.errorToOutput);
+	}
+
+	@Test
+	public void parsesBackground() throws ParseException {
+
+		ConsoleCommandLine parsed = ConsoleCommandParser.parse("sleep 10 &");
+		assertTrue(parsed.background);
+		assertEquals(Arrays.asList("sleep", "10"), parsed.commands.get(0).args);
+		assertTrue(ConsoleCommandParser.parse("a | b&").background);
+	}
+
+	@Test
+	public void parsesEmptyLine() throws ParseException {
+		assertTrue(ConsoleCommandParser.parse("   ").commands.isEmpty());
+	}
+
+	@Test
+	public void rejectsMissingCommands() {
+
+		assertError("&");
+		assertError("a | &");
+		assertError("a |");
+		assertError("> out");
+		assertError("a & b");
+		assertError("a >");
+	}
+}
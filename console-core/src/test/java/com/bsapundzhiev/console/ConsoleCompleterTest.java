@@ -0,0 +1,81 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ConsoleCompleterTest {
+
+	private static final IBtermCommand NOP = new IBtermCommand() {
+
+		@Override
+		public int exec(String[] params, ConsoleCommandIO io) {
+			return 0;
+		}
+	};
+
+	/**
+	 * Complete until the background thread has loaded the words
+	 */
+	private static ConsoleCompletion complete(ConsoleCompleter completer, String line)
+			throws InterruptedException {
+
+		for (int i = 0; i < 500; i++) {
+			ConsoleCompletion completion = completer.complete(line);
+			if (!completion.isPending()) {
+				return completion;
+			}
+			Thread.sleep(10);
+		}
+		throw new AssertionError("still pending: " + line);
+	}
+
+	@Test
+	public void addedBuiltinsAreCompleted() throws InterruptedException {
+
+		ConsoleCommandFactory factory = new ConsoleCommandFactory();
+		factory.addCommand("zzfirst", NOP);
+		ConsoleCompleter completer = new ConsoleCompleter(factory, new ConsoleProcessBuilder());
+		assertEquals("first ", complete(completer, "zz").getText());
+
+		factory.addCommand("zzsecond", NOP);
+		ConsoleCompletion completion = null;
+		for (int i = 0; i < 500; i++) {
+			completion = complete(completer, "zz");
+			if (completion.getCandidates().size() == 2) {
+				break;
+			}
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList("zzfirst", "zzsecond"), completion.getCandidates());
+	}
+
+	@Test
+	public void filesOfTheWorkingDirectory() throws Exception {
+
+		File dir = File.createTempFile("complete", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		try {
+			assertTrue(new File(dir, "unique.txt").createNewFile());
+			ConsoleProcessBuilder builder = new ConsoleProcessBuilder();
+			builder.changeDir(dir.getPath());
+			assertEquals(dir.getCanonicalPath(), builder.getCurrentWorkingDir());
+			ConsoleCompleter completer = new ConsoleCompleter(new ConsoleCommandFactory(), builder);
+			assertEquals("ique.txt ", complete(completer, "cat un").getText());
+		} finally {
+			new File(dir, "unique.txt").delete();
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ConsoleCoreUtilsTest {
+
+	private static IBtermCommand builtin(String line, boolean hasInput) throws ParseException {
+
+		ConsoleCommandFactory factory = new ConsoleCommandFactory();
+		ConsoleCoreUtils.register(factory, new ConsoleProcessBuilder());
+		return factory.getCommandFor(ConsoleCommandParser.parse(line).commands.get(0).getArgs(), hasInput);
+	}
+
+	private static IBtermCommand builtin(String line) throws ParseException {
+		return builtin(line, true);
+	}
+
+	private static String run(String line) throws Exception {
+
+		final StringBuilder output = new StringBuilder();
+		ConsoleCommandIO io = new ConsoleCommandIO(null, new IConsoleOutputSink() {
+
+			@Override
+			public void write(char[] chars, int offset, int length) {
+				output.append(chars, offset, length);
+			}
+		}, false);
+		assertEquals(0, builtin(line, false).exec(ConsoleCommandParser.parse(line).commands.get(0).getArgs(), io));
+		return output.toString();
+	}
+
+	private static String read(File file) throws IOException {
+
+		StringBuilder text = new StringBuilder();
+		InputStream in = new FileInputStream(file);
+		try {
+			for (int c = in.read(); c >= 0; c = in.read()) {
+				text.append((char)c);
+			}
+		} finally {
+			in.close();
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void implementedArgumentsRunInProcess() throws ParseException {
+
+		String[] lines = {
+			"ls -la /tmp", "ls -1", "cat a - b", "head -n 5 a", "head -20", "tail -n3 a",
+			"wc -lw a", "grep -rn -j 2 foo .", "grep -iv 'a.*b$' a", "grep -F 'a(b' a",
+			"grep '^\\[x\\]' a", "grep '[^a-z]' a", "grep", "find . -name '*.c' -type f -maxdepth 2",
+			"find",
+		};
+		for (String line : lines) {
+			assertNotNull(line, builtin(line));
+		}
+	}
+
+	@Test
+	public void otherArgumentsAreLeftToTheExternalCommand() throws ParseException {
+
+		String[] lines = {
+			"ls -R", "cat -n a", "head -c 10 a", "head -n -5 a", "tail -f a", "tail -n +5 a",
+			"wc -m a", "grep -E 'a|b' a", "grep -o a a", "grep -w a a", "grep -e a a",
+			"cat *.log", "ls a?", "wc [ab]", "grep a *.c", "find *.d", "find . -mtime 1",
+			"find . ! -name x", "find . -type l", "find . -name",
+		};
+		for (String line : lines) {
+			assertNull(line, builtin(line));
+		}
+	}
+
+	@Test
+	public void theConsoleInputIsLeftToTheExternalCommand() throws ParseException {
+
+		String[] lines = { "cat", "cat a - b", "head -20", "tail", "wc", "wc -l - a", "grep foo", "grep foo a -" };
+		for (String line : lines) {
+			assertNotNull(line, builtin(line, true));
+			assertNull(line, builtin(line, false));
+		}
+		String[] files = { "cat a b", "head -n 5 a", "wc -lw a", "grep foo a", "grep -r foo", "grep", "ls", "find" };
+		for (String line : files) {
+			assertNotNull(line, builtin(line, false));
+		}
+	}
+
+	@Test
+	public void filesWithoutSizeAreReadThrough() throws Exception {
+
+		File limits = new File("/proc/self/limits");
+		Assume.assumeTrue(limits.canRead());
+		String text = read(limits);
+		int end = text.lastIndexOf('\n', text.length() - 2);
+		assertEquals(text.substring(end + 1), run("tail -n 1 " + limits));
+		assertEquals(text.length() + " " + limits, run("wc -c " + limits).trim());
+	}
+
+	@Test
+	public void basicRegularExpressions() throws ParseException {
+
+		String[] portable = { "abc", "a.*b", "^ab$", "[abc]", "[^a-z]x", "\\.txt$", "a\\*", "\\\\" };
+		for (String pattern : portable) {
+			assertNotNull(pattern, builtin("grep '" + pattern + "' a"));
+		}
+		String[] basic = {
+			"a\\|b", "\\(x\\)\\1", "a\\{2\\}", "(a)", "a|b", "a+", "a?", "x{2}", "*a", "^*a",
+			"a^b", "a$b", "[[:alpha:]]", "[]a]", "[a\\]", "[a&&b]", "[ab", "\\w", "\\<a\\>", "a\\",
+		};
+		for (String pattern : basic) {
+			assertNull(pattern, builtin("grep '" + pattern + "' a"));
+		}
+	}
+}
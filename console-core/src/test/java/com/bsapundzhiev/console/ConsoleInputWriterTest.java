@@ -0,0 +1,161 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+
+public class ConsoleInputWriterTest {
+
+	/**
+	 * Runs the tasks when the test says so
+	 */
+	private static class Tasks implements Executor {
+
+		final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			queue.add(task);
+		}
+
+		void runAll() {
+
+			for (Runnable task = queue.poll(); task != null; task = queue.poll()) {
+				task.run();
+			}
+		}
+	}
+
+	/**
+	 * stdin of the child, remembers the length of each write
+	 */
+	private static class Stdin extends ByteArrayOutputStream {
+
+		final List<Integer> writes = new ArrayList<Integer>();
+		int flushes = 0;
+		boolean closed = false;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes.add(len);
+			super.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			writes.add(1);
+			super.write(b);
+		}
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private static boolean write(ConsoleInputWriter writer, String text) {
+
+		byte[] bytes = text.getBytes();
+		return writer.write(bytes, 0, bytes.length);
+	}
+
+	@Test
+	public void mergesWritesMadeBeforeTheBatchGoesOut() {
+
+		Tasks tasks = new Tasks();
+		Stdin stdin = new Stdin();
+		ConsoleInputWriter writer = new ConsoleInputWriter(stdin, tasks);
+		assertTrue(write(writer, "ls"));
+		assertTrue(write(writer, " -l"));
+		assertTrue(write(writer, "\n"));
+		assertEquals(1, tasks.queue.size());
+		tasks.runAll();
+		assertEquals("ls -l\n", stdin.toString());
+		assertEquals(Arrays.asList(6), stdin.writes);
+		assertEquals(1, stdin.flushes);
+	}
+
+	@Test
+	public void writesInChunks() {
+
+		Tasks tasks = new Tasks();
+		Stdin stdin = new Stdin();
+		ConsoleInputWriter writer = new ConsoleInputWriter(stdin, tasks);
+		byte[] paste = new byte[2 * ConsoleInputWriter.CHUNK + 10];
+		Arrays.fill(paste, (byte)'x');
+		assertTrue(writer.write(paste, 0, paste.length));
+		tasks.runAll();
+		assertArrayEquals(paste, stdin.toByteArray());
+		assertEquals(Arrays.asList(ConsoleInputWriter.CHUNK, ConsoleInputWriter.CHUNK, 10), stdin.writes);
+		assertEquals(1, stdin.flushes);
+	}
+
+	@Test
+	public void boundsTheQueue() {
+
+		Tasks tasks = new Tasks();
+		Stdin stdin = new Stdin();
+		ConsoleInputWriter writer = new ConsoleInputWriter(stdin, tasks);
+		byte[] paste = new byte[ConsoleInputWriter.MAX_QUEUED - 1];
+		assertTrue(writer.write(paste, 0, paste.length));
+		assertFalse(write(writer, "ab"));
+		assertTrue(write(writer, "a"));
+		assertFalse(write(writer, "b"));
+		tasks.runAll();
+		assertEquals(ConsoleInputWriter.MAX_QUEUED, stdin.size());
+		assertTrue(write(writer, "b"));
+	}
+
+	@Test
+	public void interruptDropsTheQueuedInput() {
+
+		Tasks tasks = new Tasks();
+		Stdin stdin = new Stdin();
+		ConsoleInputWriter writer = new ConsoleInputWriter(stdin, tasks);
+		assertTrue(write(writer, "sleep 10\n"));
+		writer.interrupt((byte)3);
+		tasks.runAll();
+		assertArrayEquals(new byte[] { 3 }, stdin.toByteArray());
+		assertTrue(write(writer, "x"));
+		tasks.runAll();
+		assertEquals("\u0003x", stdin.toString());
+	}
+
+	@Test
+	public void closesTheStreamAfterTheQueuedInput() {
+
+		Tasks tasks = new Tasks();
+		Stdin stdin = new Stdin();
+		ConsoleInputWriter writer = new ConsoleInputWriter(stdin, tasks);
+		assertTrue(write(writer, "abc"));
+		writer.closeInput();
+		assertFalse(write(writer, "d"));
+		assertFalse(stdin.closed);
+		tasks.runAll();
+		assertEquals("abc", stdin.toString());
+		assertTrue(stdin.closed);
+	}
+}
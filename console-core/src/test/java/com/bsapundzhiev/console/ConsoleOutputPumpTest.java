@@ -0,0 +1,112 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import org.junit.Test;
+
+public class ConsoleOutputPumpTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Returns the data in two reads, split at a given offset
+	 */
+	private static class SplitStream extends ByteArrayInputStream {
+
+		private int split;
+
+		SplitStream(byte[] data, int split) {
+			super(data);
+			this.split = split;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+
+			if (split > 0) {
+				len = Math.min(len, split - pos);
+				if (pos + len >= split) {
+					split = 0;
+				}
+			}
+			return super.read(b, off, len);
+		}
+	}
+
+	private static class Collector implements IConsoleOutputSink {
+
+		final StringBuilder text = new StringBuilder();
+		int writes = 0;
+
+		@Override
+		public void write(char[] chars, int offset, int length) {
+			text.append(chars, offset, length);
+			writes++;
+		}
+	}
+
+	private static String pump(InputStream in) {
+
+		Collector out = new Collector();
+		new ConsoleOutputPump(in, out).run();
+		return out.text.toString();
+	}
+
+	@Test
+	public void decodesSequenceSplitBetweenReads() {
+
+		// two, three and four byte sequences
+		String text = "a\u00e9b\u6587c\ud83d\ude00d";
+		byte[] data = text.getBytes(UTF8);
+		for (int split = 1; split < data.length; split++) {
+			assertEquals("split at " + split, text, pump(new SplitStream(data, split)));
+		}
+	}
+
+	@Test
+	public void decodesOneByteReads() {
+
+		String text = "\u0444\u0430\u0439\u043b \u30d5\u30a1\u30a4\u30eb";
+		final byte[] data = text.getBytes(UTF8);
+		InputStream in = new ByteArrayInputStream(data) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		assertEquals(text, pump(in));
+	}
+
+	@Test
+	public void replacesTruncatedSequenceAtEnd() {
+
+		byte[] data = { 'a', (byte)0xe6, (byte)0x96 };
+		assertEquals("a\ufffd", pump(new ByteArrayInputStream(data)));
+	}
+
+	@Test
+	public void handsOffChunks() {
+
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 3 * ConsoleOutputPump.BUFF_LEN) {
+			sb.append("0123456789\u00e9\n");
+		}
+		String text = sb.toString();
+		Collector out = new Collector();
+		new ConsoleOutputPump(new ByteArrayInputStream(text.getBytes(UTF8)), out).run();
+		assertEquals(text, out.text.toString());
+		assertEquals(true, out.writes >= text.length() / ConsoleOutputPump.CHUNK_LEN);
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ConsoleRecorderTest {
+
+	private static String escape(String text) {
+
+		StringBuilder sb = new StringBuilder();
+		ConsoleRecorder.escape(sb, text, 0, text.length());
+		return sb.toString();
+	}
+
+	private static String roundTrip(String text) {
+
+		ConsoleRecorder.Event event = ConsoleRecorder.Event.parse("[1.25, \"o\", \"" + escape(text) + "\"]");
+		assertEquals(1.25, event.time, 0);
+		assertEquals("o", event.type);
+		return event.data;
+	}
+
+	@Test
+	public void escapesControlChars() {
+
+		String text = "a\"b\\c\n\r\t\u0001\u001b[0m\u007f";
+		assertEquals("a\\\"b\\\\c\\n\\r\\t\\u0001\\u001b[0m\\u007f", escape(text));
+		assertEquals(text, roundTrip(text));
+		assertEquals("\b\f/", ConsoleRecorder.Event.parse("[0, \"i\", \"\\b\\f\\/\"]").data);
+	}
+
+	@Test
+	public void escapesSurrogatesWithoutTheirPair() {
+
+		String pair = "x\ud83d\ude00y";
+		assertEquals(pair, escape(pair));
+		assertEquals(pair, roundTrip(pair));
+		// a pair split between two reads
+		assertEquals("x\\ud83d", escape("x\ud83d"));
+		assertEquals("\\ude00y", escape("\ude00y"));
+		assertEquals(pair, roundTrip("x\ud83d") + roundTrip("\ude00y"));
+		assertEquals("\\ude00\\ud83d", escape("\ude00\ud83d"));
+	}
+
+	@Test
+	public void otherLinesAreNoEvents() {
+
+		String[] lines = {
+			"{\"version\": 2, \"width\": 80, \"height\": 24}", "", "[]", "[1.0]", "[x, \"o\", \"a\"]",
+			"[1.0, \"o\"]", "[1.0, \"o\", \"a\"", "[1.0, \"o\", \"a]", "[1.0, o, \"a\"]",
+			"[1.0, \"o\", \"\\u12\"]", "[1.0, \"o\", \"\\uxyzw\"]", "[1.0, \"o\", \"a\\",
+		};
+		for (String line : lines) {
+			assertNull(line, ConsoleRecorder.Event.parse(line));
+		}
+	}
+}
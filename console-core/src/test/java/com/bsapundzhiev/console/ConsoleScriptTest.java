@@ -0,0 +1,115 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsoleScriptTest {
+
+	private File file;
+	private ConsoleScript script;
+	private final StringBuilder output = new StringBuilder();
+	private final ConsoleCommandIO io = new ConsoleCommandIO(null, new IConsoleOutputSink() {
+
+		@Override
+		public void write(char[] chars, int offset, int length) {
+			output.append(chars, offset, length);
+		}
+	}, false);
+
+	@Before
+	public void setUp() throws IOException {
+
+		file = File.createTempFile("script", ".sh");
+		ConsoleCommandExecuter executer = new ConsoleCommandExecuter(new IConsoleDispatcher() {
+
+			@Override
+			public void post(Runnable task) {
+				task.run();
+			}
+
+			@Override
+			public void postDelayed(Runnable task, long delayMillis) {
+				task.run();
+			}
+		});
+		// builtins only, no shell
+		executer.setPersistentShell(false);
+		script = new ConsoleScript(executer, new ConsoleProcessBuilder());
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private int source(String text, String... options) throws Exception {
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		String[] params = new String[options.length + 2];
+		params[0] = "source";
+		System.arraycopy(options, 0, params, 1, options.length);
+		params[params.length - 1] = file.getPath();
+		return script.exec(params, io);
+	}
+
+	@Test
+	public void joinsContinuedLines() throws Exception {
+
+		assertEquals(0, source("# comment\necho a \\\nb\\\n c\n\necho d\n"));
+		assertEquals("a b c \nd \n", output.toString());
+	}
+
+	@Test
+	public void stopsAtTheFirstFailureWithErrexit() throws Exception {
+
+		String text = "echo one\ncat /nonexistent\necho two\n";
+		assertEquals(0, source(text));
+		assertTrue(output.toString(), output.toString().startsWith("one \n")
+				&& output.toString().endsWith("two \n"));
+		output.setLength(0);
+		assertEquals(1, source(text, "-e"));
+		assertTrue(output.toString(), output.toString().startsWith("one \n")
+				&& !output.toString().contains("two"));
+	}
+
+	@Test
+	public void exitEndsTheScript() throws Exception {
+
+		assertEquals(3, source("echo x\nexit 3\necho y\n"));
+		assertEquals("x \n", output.toString());
+		assertEquals(1, source("cat /nonexistent\nexit\n"));
+		assertEquals(2, source("exit three\n"));
+	}
+
+	@Test
+	public void tracesAndLimitsNesting() throws Exception {
+
+		assertEquals(0, source("echo x\n", "-x"));
+		assertEquals("+ echo x\nx \n", output.toString());
+		output.setLength(0);
+		assertEquals(2, source("source " + file.getPath() + "\n"));
+		assertTrue(output.toString(), output.toString().endsWith("too deeply nested\n"));
+		assertEquals(2, source("", "-e", "a", "b"));
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+public class ConsoleShellSessionTest {
+
+	/**
+	 * Output of the commands without the carriage returns of a pty
+	 */
+	private static class Output implements IConsoleOutputSink {
+
+		final StringBuilder text = new StringBuilder();
+
+		@Override
+		public synchronized void write(char[] chars, int offset, int length) {
+
+			for (int i = offset; i < offset + length; i++) {
+				if (chars[i] != '\r') {
+					text.append(chars[i]);
+				}
+			}
+		}
+
+		synchronized String take() {
+
+			String result = text.toString();
+			text.setLength(0);
+			return result;
+		}
+	}
+
+	@Test
+	public void statusOfTheLastCommand() throws Exception {
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		ConsoleProcessBuilder builder = new ConsoleProcessBuilder();
+		builder.changeDir(System.getProperty("java.io.tmpdir"));
+		ConsoleShellSession session = new ConsoleShellSession(builder, executor);
+		Output output = new Output();
+		try {
+			assertEquals(1, session.execute("false", null, output));
+			assertEquals(0, session.execute("echo $?", null, output));
+			assertEquals("1\n", output.take());
+			assertEquals(0, session.execute("echo $?", null, output));
+			assertEquals("0\n", output.take());
+			// a cd and an export written before the command keep it too
+			assertEquals(3, session.execute("sh -c 'exit 3'", null, output));
+			builder.setEnv("BTERM_TEST", "x");
+			assertEquals(0, session.execute("echo $? $BTERM_TEST", "/", output));
+			assertEquals("3 x\n", output.take());
+		} finally {
+			session.destroy();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void timesEachCommand() throws Exception {
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		ConsoleProcessBuilder builder = new ConsoleProcessBuilder();
+		builder.changeDir(System.getProperty("java.io.tmpdir"));
+		ConsoleShellSession session = new ConsoleShellSession(builder, executor);
+		Output output = new Output();
+		try {
+			assertEquals(0, session.execute("true", null, output));
+			long firstBytes = ConsoleMetrics.FIRST_BYTE.getCount();
+			long rates = ConsoleMetrics.READ_RATE.getCount();
+			for (int i = 0; i < 3; i++) {
+				assertEquals(0, session.execute("echo " + i, null, output));
+			}
+			assertEquals(0, session.execute("true", null, output));
+			assertEquals("0\n1\n2\n", output.take());
+			assertEquals(firstBytes + 3, ConsoleMetrics.FIRST_BYTE.getCount());
+			assertEquals(rates + 3, ConsoleMetrics.READ_RATE.getCount());
+		} finally {
+			session.destroy();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void exportsTheChangedVariables() {
+
+		ConsoleEnvironment started = new ConsoleEnvironment(Collections.singletonMap("HOME", "/data"));
+		assertEquals("", ConsoleShellSession.exports(started, started));
+		assertEquals("", ConsoleShellSession.exports(started, started.with("HOME", "/data")));
+
+		ConsoleEnvironment exported = started.with("NAME", "it's a $x");
+		assertEquals("export NAME='it'\\''s a $x'\n", ConsoleShellSession.exports(started, exported));
+		assertEquals("unset NAME\n", ConsoleShellSession.exports(exported, started));
+		assertEquals("export HOME='/sdcard'\nunset NAME\n",
+				ConsoleShellSession.exports(exported, started.with("HOME", "/sdcard")));
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsoleTimeoutTest {
+
+	private ConsoleCommandExecuter executer;
+	private final StringBuilder output = new StringBuilder();
+	private final ConsoleCommandIO io = new ConsoleCommandIO(null, new IConsoleOutputSink() {
+
+		@Override
+		public synchronized void write(char[] chars, int offset, int length) {
+			output.append(chars, offset, length);
+		}
+	}, false);
+
+	@Before
+	public void setUp() throws Exception {
+
+		executer = new ConsoleCommandExecuter(new IConsoleDispatcher() {
+
+			@Override
+			public void post(Runnable task) {
+				task.run();
+			}
+
+			@Override
+			public void postDelayed(Runnable task, long delayMillis) {
+				task.run();
+			}
+		});
+		// a process per command, the deadline signals it
+		executer.setPersistentShell(false);
+		assertEquals(0, executer.runLine("cd " + System.getProperty("java.io.tmpdir"), null, io, 0));
+	}
+
+	/**
+	 * @return milliseconds the line took
+	 */
+	private long run(int status, String line) throws Exception {
+
+		long start = System.nanoTime();
+		assertEquals(line, status, executer.runLine(line, null, io, 0));
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	@Test
+	public void statusOfTheCommandWithinTheDeadline() throws Exception {
+
+		run(0, "timeout 5 sh -c true");
+		run(3, "timeout 5s sh -c 'exit 3'");
+		run(0, "timeout 0 sh -c true");
+	}
+
+	@Test
+	public void timedOutAtTheDeadline() throws Exception {
+
+		long millis = run(ConsoleTimeout.TIMED_OUT, "timeout 0.2 sleep 10");
+		assertTrue(millis + " ms", millis < 5000);
+		millis = run(ConsoleTimeout.TIMED_OUT, "timeout -s KILL 0.2 sleep 10");
+		assertTrue(millis + " ms", millis < 5000);
+	}
+
+	@Test
+	public void killedAfterTheKillDelay() throws Exception {
+
+		long millis = run(ConsoleTimeout.TIMED_OUT, "timeout -k 0.3 0.2 sh -c 'trap \"\" TERM; sleep 10'");
+		assertTrue(millis + " ms", millis < 5000);
+	}
+
+	@Test
+	public void failsOnBadArguments() throws Exception {
+
+		String[] lines = { "timeout", "timeout 5", "timeout x sleep 1", "timeout -s NOPE 1 sleep 1",
+			"timeout -k x 1 sleep 1", "timeout -1 sleep 1" };
+		for (String line : lines) {
+			run(ConsoleTimeout.FAILED, line);
+		}
+		assertTrue(output.toString(), output.toString().startsWith("usage: timeout"));
+	}
+
+	@Test
+	public void parsesDurations() {
+
+		assertEquals(1500, ConsoleTimeout.parseDuration("1.5"));
+		assertEquals(2000, ConsoleTimeout.parseDuration("2s"));
+		assertEquals(120000, ConsoleTimeout.parseDuration("2m"));
+		assertEquals(3600000, ConsoleTimeout.parseDuration("1h"));
+		assertEquals(86400000, ConsoleTimeout.parseDuration("1d"));
+		assertEquals(0, ConsoleTimeout.parseDuration("0"));
+		assertEquals(-1, ConsoleTimeout.parseDuration("-1"));
+		assertEquals(-1, ConsoleTimeout.parseDuration("s"));
+		assertEquals(-1, ConsoleTimeout.parseDuration("1x"));
+		assertEquals(-1, ConsoleTimeout.parseDuration("inf"));
+	}
+}
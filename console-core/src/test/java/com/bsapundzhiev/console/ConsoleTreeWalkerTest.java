@@ -0,0 +1,131 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsoleTreeWalkerTest {
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+
+		root = File.createTempFile("walk", "");
+		assertTrue(root.delete() && root.mkdir());
+		for (int i = 0; i < 3; i++) {
+			File dir = new File(root, "d" + i);
+			assertTrue(dir.mkdir());
+			for (int j = 0; j < ConsoleTreeWalker.MAX_PENDING; j++) {
+				assertTrue(new File(dir, String.format("f%04d", j)).createNewFile());
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		delete(root);
+	}
+
+	private static void delete(File file) {
+
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void printsInOrderWithBoundedPendingNodes() throws InterruptedException {
+
+		final AtomicInteger visited = new AtomicInteger();
+		final AtomicInteger printed = new AtomicInteger();
+		final AtomicInteger maxPending = new AtomicInteger();
+		final StringBuilder output = new StringBuilder();
+		ConsoleCommandIO io = new ConsoleCommandIO(null, new IConsoleOutputSink() {
+
+			@Override
+			public void write(char[] chars, int offset, int length) throws InterruptedException {
+				output.append(chars, offset, length);
+				printed.incrementAndGet();
+				// a slow console
+				if (printed.get() % 64 == 0) {
+					Thread.sleep(1);
+				}
+			}
+		}, false);
+		ConsoleTreeWalker walker = new ConsoleTreeWalker("find", new ConsoleTreeWalker.IVisitor() {
+
+			@Override
+			public String visit(File file, String path, boolean isRoot, boolean isDirectory) {
+
+				int pending = visited.incrementAndGet() - printed.get();
+				while (pending > maxPending.get()) {
+					maxPending.set(pending);
+				}
+				return path + "\n";
+			}
+		}, 4, io);
+		assertTrue(walker.walk(Arrays.asList("r"), Arrays.asList(root)));
+
+		StringBuilder expected = new StringBuilder("r\n");
+		for (int i = 0; i < 3; i++) {
+			expected.append("r/d").append(i).append('\n');
+			for (int j = 0; j < ConsoleTreeWalker.MAX_PENDING; j++) {
+				expected.append(String.format("r/d%d/f%04d\n", i, j));
+			}
+		}
+		assertEquals(expected.toString(), output.toString());
+		assertTrue(maxPending.get() + " pending", maxPending.get() <= ConsoleTreeWalker.MAX_PENDING + 4 + 1);
+	}
+
+	@Test
+	public void linksBelowTheRootAreNotFollowed() throws Exception {
+
+		File link = new File(root, "d0/up");
+		try {
+			Process ln = new ProcessBuilder("ln", "-s", root.getPath(), link.getPath()).start();
+			org.junit.Assume.assumeTrue(ln.waitFor() == 0);
+		} catch (IOException e) {
+			org.junit.Assume.assumeTrue(false);
+		}
+		assertTrue(ConsoleTreeWalker.isLink(new File(root.getCanonicalFile(), "d0/up")));
+		assertTrue(!ConsoleTreeWalker.isLink(new File(root.getCanonicalFile(), "d0")));
+
+		final AtomicInteger visited = new AtomicInteger();
+		ConsoleCommandIO io = new ConsoleCommandIO(null, new IConsoleOutputSink() {
+
+			@Override
+			public void write(char[] chars, int offset, int length) {
+			}
+		}, false);
+		ConsoleTreeWalker walker = new ConsoleTreeWalker("find", new ConsoleTreeWalker.IVisitor() {
+
+			@Override
+			public String visit(File file, String path, boolean isRoot, boolean isDirectory) {
+				visited.incrementAndGet();
+				return null;
+			}
+		}, 2, io);
+		assertTrue(walker.walk(Arrays.asList("r"), Arrays.asList(root)));
+		assertEquals(1 + 3 + 3 * ConsoleTreeWalker.MAX_PENDING + 1, visited.get());
+	}
+}
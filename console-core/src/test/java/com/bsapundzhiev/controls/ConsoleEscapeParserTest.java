@@ -0,0 +1,223 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ConsoleEscapeParserTest {
+
+	private static final String ESC = "\033";
+	private static final String CSI = ESC + "[";
+
+	private static final int RED = ConsoleStyle.withForeground(ConsoleStyle.DEFAULT, 1);
+
+	/**
+	 * Sequences and the screen lines they leave, cursor line and column last
+	 */
+	private static final Object[][] CORPUS = {
+		// SGR
+		{ CSI + "1;31mred" + CSI + "0m plain", "red plain", 0, 9 },
+		{ CSI + "31mA" + CSI + "mB", "AB", 0, 2 },
+		{ CSI + "38;5;208mX" + CSI + "48;5;21mY" + CSI + "39;49mZ", "XYZ", 0, 3 },
+		{ CSI + "38;2;1;2;3mT" + CSI + "4mU" + CSI + "24mV", "TUV", 0, 3 },
+		{ CSI + "1;4;7;92;101mS" + CSI + "22;27mT", "ST", 0, 2 },
+		{ CSI + "31" + "\030x", "x", 0, 1 },
+		// cursor moves
+		{ "abc" + CSI + "2Dx", "axc", 0, 2 },
+		{ "abc" + CSI + "Dx", "abx", 0, 3 },
+		{ "a" + CSI + "3Cb", "a   b", 0, 5 },
+		{ CSI + "3;5Hz", "\n\n    z", 2, 5 },
+		{ CSI + "2;3fz" + CSI + "Hy", "y\n  z", 0, 1 },
+		{ "abc\r\n" + CSI + "Adef", "def\n", 0, 3 },
+		{ "x" + CSI + "2By" + CSI + "A" + CSI + "5Gz", "x\n    z\n y", 1, 5 },
+		{ "a" + CSI + "2Eb" + CSI + "Fc", "a\nc\nb", 1, 1 },
+		{ "abc" + CSI + "d" + CSI + "3d!", "abc\n\n   !", 2, 4 },
+		{ "ab" + ESC + "7cd" + ESC + "8X", "abXd", 0, 3 },
+		{ "ab" + CSI + "scd" + CSI + "uX", "abXd", 0, 3 },
+		{ "ab" + CSI + "1\bDz", "zb", 0, 1 },
+		{ "a\nb" + ESC + "Mc" + ESC + "Dd", "ac\nb d", 1, 3 },
+		// erase line
+		{ "12345" + CSI + "3G" + CSI + "K", "12", 0, 2 },
+		{ "12345" + CSI + "3G" + CSI + "0K", "12", 0, 2 },
+		{ "12345" + CSI + "3G" + CSI + "1K", "   45", 0, 2 },
+		{ "12345" + CSI + "3G" + CSI + "2Kx", "  x", 0, 3 },
+		// erase screen
+		{ "a\nb\nc" + CSI + "2J", "\n\n", 2, 1 },
+		{ "a\nb\nc" + CSI + "2;1H" + CSI + "J", "a\n", 1, 0 },
+		{ "a\nbb\nc" + CSI + "2;1H" + CSI + "1J", "\n b\nc", 1, 0 },
+		{ "a\nb" + ESC + "cz", "z", 0, 1 },
+		// sequences that are skipped
+		{ ESC + "]0;title\007ok", "ok", 0, 2 },
+		{ ESC + "]0;t" + ESC + "\\ok", "ok", 0, 2 },
+		{ CSI + "?25lok" + CSI + "?25h", "ok", 0, 2 },
+		{ ESC + "(Bok", "ok", 0, 2 },
+		{ "a\007\tb", "a       b", 0, 9 },
+	};
+
+	private static ConsoleScreen parse(String... chunks) {
+
+		ConsoleScreen screen = new ConsoleScreen(new ConsoleScrollback(100), 5);
+		ConsoleEscapeParser parser = new ConsoleEscapeParser(screen);
+		for (String chunk : chunks) {
+			char[] chars = ("<" + chunk + ">").toCharArray();
+			// an offset into a larger array, like the pump hands out
+			parser.append(chars, 1, chunk.length());
+		}
+		return screen;
+	}
+
+	/**
+	 * @return lines with their styles, cursor and current style
+	 */
+	private static String dump(ConsoleScreen screen) {
+
+		StringBuilder sb = new StringBuilder();
+		char[] chars = new char[256];
+		int[] styles = new int[256];
+		for (int i = 0; i < screen.getLineCount(); i++) {
+			int length = screen.getLine(i, chars, 0);
+			screen.getStyles(i, styles, 0);
+			sb.append(chars, 0, length).append(Arrays.toString(Arrays.copyOf(styles, length))).append('\n');
+		}
+		return sb.append(screen.getCursorLine()).append(',').append(screen.getCursorColumn())
+				.append(',').append(screen.getStyle()).toString();
+	}
+
+	private static String text(ConsoleScreen screen) {
+
+		StringBuilder sb = new StringBuilder();
+		char[] chars = new char[256];
+		for (int i = 0; i < screen.getLineCount(); i++) {
+			sb.append((i > 0) ? "\n" : "").append(chars, 0, screen.getLine(i, chars, 0));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void corpus() {
+
+		for (Object[] entry : CORPUS) {
+			String input = (String)entry[0];
+			ConsoleScreen screen = parse(input);
+			String name = input.replace(ESC, "ESC");
+			assertEquals(name, entry[1], text(screen));
+			assertEquals(name, entry[2], screen.getCursorLine());
+			assertEquals(name, entry[3], screen.getCursorColumn());
+		}
+	}
+
+	@Test
+	public void corpusSplitAtEveryBoundary() {
+
+		for (Object[] entry : CORPUS) {
+			String input = (String)entry[0];
+			String whole = dump(parse(input));
+			int n = input.length();
+			for (int i = 0; i <= n; i++) {
+				for (int j = i; j <= n; j++) {
+					String split = dump(parse(input.substring(0, i), input.substring(i, j), input.substring(j)));
+					assertEquals(input.replace(ESC, "ESC") + " split at " + i + "," + j, whole, split);
+				}
+			}
+			String[] chars = new String[n];
+			for (int i = 0; i < n; i++) {
+				chars[i] = input.substring(i, i + 1);
+			}
+			assertEquals(whole, dump(parse(chars)));
+		}
+	}
+
+	@Test
+	public void styles() {
+
+		char[] chars = new char[16];
+		int[] styles = new int[16];
+		ConsoleScreen screen = parse(CSI + "1;31mR" + CSI + "0mP" + CSI + "38;5;208mX" + CSI + "48;5;21mY"
+				+ CSI + "39;49mZ" + CSI + "4;7;92;101mS" + CSI + "22;24;27mT" + CSI + "31\030x");
+		screen.getLine(0, chars, 0);
+		screen.getStyles(0, styles, 0);
+		assertEquals(ConsoleStyle.BOLD | RED, styles[0]);
+		assertEquals(ConsoleStyle.DEFAULT, styles[1]);
+		assertEquals(208, ConsoleStyle.foreground(styles[2]));
+		assertEquals(-1, ConsoleStyle.background(styles[2]));
+		assertEquals(208, ConsoleStyle.foreground(styles[3]));
+		assertEquals(21, ConsoleStyle.background(styles[3]));
+		assertEquals(ConsoleStyle.DEFAULT, styles[4]);
+		assertEquals(ConsoleStyle.UNDERLINE | ConsoleStyle.INVERSE, styles[5] & ~0x3ffff);
+		assertEquals(10, ConsoleStyle.foreground(styles[5]));
+		assertEquals(9, ConsoleStyle.background(styles[5]));
+		assertEquals(0, styles[6] & ~0x3ffff);
+		assertEquals(10, ConsoleStyle.foreground(styles[6]));
+		// the cancelled SGR did not apply
+		assertEquals(styles[6], styles[7]);
+		assertEquals("RPXYZSTx", new String(chars, 0, 8));
+	}
+
+	@Test
+	public void truecolorIsSkipped() {
+
+		int[] styles = new int[4];
+		ConsoleScreen screen = parse(CSI + "38;2;1;2;3;4mU");
+		screen.getStyles(0, styles, 0);
+		assertEquals(ConsoleStyle.UNDERLINE, styles[0]);
+	}
+
+	@Test
+	public void linesScrollIntoScrollback() {
+
+		ConsoleScreen screen = parse(CSI + "32m1\n2\n3\n4\n5\n6\n7");
+		assertEquals(7, screen.getLineCount());
+		assertEquals(2, screen.getHistory().getLineCount() - 1);
+		int[] styles = new int[1];
+		screen.getStyles(0, styles, 0);
+		assertEquals(2, ConsoleStyle.foreground(styles[0]));
+	}
+
+	/**
+	 * A colored build log costs no allocation per char once the screen
+	 * rows and the scrollback rings have grown to size
+	 */
+	@Test
+	public void noAllocationPerChar() {
+
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 64 * 1024; i++) {
+			sb.append(CSI).append("1;32m[INFO]").append(CSI).append("0m Compiling ")
+					.append(CSI).append("36mmodule-").append(i).append(CSI).append("0m ")
+					.append(CSI).append("38;5;208mwarning").append(CSI).append("39m: unchecked\r\n")
+					.append(CSI).append("2K").append(i).append('%').append(CSI).append("1G\r");
+		}
+		char[] log = sb.toString().toCharArray();
+		ConsoleScreen screen = new ConsoleScreen(new ConsoleScrollback(2000), 24);
+		ConsoleEscapeParser parser = new ConsoleEscapeParser(screen);
+		for (int i = 0; i < 50; i++) {
+			parser.append(log, 0, log.length);
+		}
+		long id = Thread.currentThread().getId();
+		int rounds = 20;
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < rounds; i++) {
+			parser.append(log, 0, log.length);
+		}
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+		assertTrue(allocated + " bytes for " + (long)rounds * log.length + " chars", allocated < 16 * 1024);
+	}
+}
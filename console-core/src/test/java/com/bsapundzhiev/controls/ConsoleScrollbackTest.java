@@ -0,0 +1,219 @@
+/**
+ * BTerminal - Android terminal emulator
+ *
+ *  Copyright 2014 by Borislav Sapundzhiev <bsapundjiev@gmail.com>
+ *
+ *  Licensed under GNU General Public License 3.0 or later.
+ *  Some rights reserved. See COPYING, AUTHORS.
+ */
+package com.bsapundzhiev.controls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConsoleScrollbackTest {
+
+	private static String line(int number, int length) {
+
+		StringBuilder sb = new StringBuilder(length);
+		sb.append(number).append(':');
+		while (sb.length() < length) {
+			sb.append((char)('a' + sb.length() % 26));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void keepsLinesAndOpenLine() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(10);
+		scrollback.append("one\ntwo\nthre");
+		scrollback.append('e');
+		assertEquals(3, scrollback.getLineCount());
+		assertEquals("one", scrollback.getLine(0));
+		assertEquals("two", scrollback.getLine(1));
+		assertEquals("three", scrollback.getLine(2));
+		assertEquals(0, scrollback.getFirstLine());
+	}
+
+	@Test
+	public void evictsOldestLinesAtLineLimit() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(3);
+		scrollback.append("a\nb\nc\nd");
+		assertEquals(3, scrollback.getLineCount());
+		assertEquals(1, scrollback.getFirstLine());
+		assertEquals("b", scrollback.getLine(0));
+		assertEquals("d", scrollback.getLine(2));
+		for (int i = 0; i < 1000; i++) {
+			scrollback.append("\n" + i);
+		}
+		assertEquals(3, scrollback.getLineCount());
+		assertEquals(1001, scrollback.getFirstLine());
+		assertEquals("997", scrollback.getLine(0));
+		assertEquals("999", scrollback.getLine(2));
+	}
+
+	@Test
+	public void wrapsTextRing() {
+
+		// lines longer than the initial ring, the text wraps around many times
+		ConsoleScrollback scrollback = new ConsoleScrollback(20);
+		int total = 500;
+		for (int i = 0; i < total; i++) {
+			scrollback.append(line(i, 997));
+			scrollback.newLine();
+		}
+		int count = scrollback.getLineCount();
+		assertTrue(count <= 20);
+		// the open last line is empty
+		assertEquals(0, scrollback.getLineLength(count - 1));
+		char[] buf = new char[1000];
+		for (int i = 0; i < count - 1; i++) {
+			int number = total - (count - 1) + i;
+			int length = scrollback.getLine(i, buf, 0);
+			assertEquals(line(number, 997), new String(buf, 0, length));
+		}
+		assertEquals(total - (count - 1), scrollback.getFirstLine());
+	}
+
+	@Test
+	public void evictsWholeLinesAtCharLimit() {
+
+		// 100 lines of 1000 chars do not fit into the chars kept for 100 lines
+		ConsoleScrollback scrollback = new ConsoleScrollback(100);
+		for (int i = 0; i < 100; i++) {
+			scrollback.append(line(i, 1000));
+			scrollback.newLine();
+		}
+		int count = scrollback.getLineCount();
+		assertTrue(count < 100);
+		assertTrue(scrollback.getStartOffset() > 0);
+		for (int i = 0; i < count - 1; i++) {
+			assertEquals(line((int)scrollback.getFirstLine() + i, 1000), scrollback.getLine(i));
+		}
+	}
+
+	@Test
+	public void dropsHeadOfLineLargerThanStore() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(1);
+		String text = line(0, 40000);
+		scrollback.append(text);
+		assertEquals(1, scrollback.getLineCount());
+		String kept = scrollback.getLine(0);
+		assertTrue(kept.length() < text.length());
+		assertTrue(text.endsWith(kept));
+	}
+
+	@Test
+	public void evictsUntilTheCharFits() {
+
+		// evicting the empty line frees nothing, the head of the long line goes
+		ConsoleScrollback scrollback = new ConsoleScrollback(10);
+		scrollback.newLine();
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 16 * 1024 - 1) {
+			text.append((char)('a' + text.length() % 26));
+		}
+		scrollback.append(text);
+		scrollback.append("XY");
+		assertEquals(1, scrollback.getLineCount());
+		assertEquals(text.substring(1) + "XY", scrollback.getLine(0));
+	}
+
+	@Test
+	public void changesLineLimit() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(10);
+		scrollback.append("a\nb\nc\nd\ne");
+		scrollback.setMaxLines(2);
+		assertEquals(2, scrollback.getLineCount());
+		assertEquals(3, scrollback.getFirstLine());
+		assertEquals("d", scrollback.getLine(0));
+		assertEquals("e", scrollback.getLine(1));
+		scrollback.append("\nf");
+		assertEquals("e", scrollback.getLine(0));
+		assertEquals("f", scrollback.getLine(1));
+		scrollback.setMaxLines(5);
+		scrollback.append("\ng\nh");
+		assertEquals(4, scrollback.getLineCount());
+		assertEquals("e", scrollback.getLine(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyLimit() {
+		new ConsoleScrollback(0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectsEvictedLine() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(2);
+		scrollback.append("a\nb\nc");
+		scrollback.getLine(2);
+	}
+
+	@Test
+	public void deletesFromOpenLineOnly() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(10);
+		scrollback.append("ab\nc");
+		assertTrue(scrollback.deleteLast());
+		assertFalse(scrollback.deleteLast());
+		assertEquals("ab", scrollback.getLine(0));
+		assertEquals("", scrollback.getLine(1));
+	}
+
+	@Test
+	public void keepsStylesOnceStyled() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(10);
+		scrollback.append("plain\n");
+		int bold = ConsoleStyle.withForeground(ConsoleStyle.BOLD, 1);
+		scrollback.appendLine("xy".toCharArray(), new int[] { bold, ConsoleStyle.DEFAULT }, 2);
+		int[] styles = new int[8];
+		assertEquals(5, scrollback.getStyles(0, styles, 0));
+		assertEquals(ConsoleStyle.DEFAULT, styles[0]);
+		assertEquals(2, scrollback.getStyles(1, styles, 0));
+		assertEquals(bold, styles[0]);
+		assertEquals(ConsoleStyle.DEFAULT, styles[1]);
+	}
+
+	@Test
+	public void clearKeepsNumbering() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(10);
+		scrollback.append("a\nb\nc");
+		scrollback.clear();
+		assertEquals(1, scrollback.getLineCount());
+		assertEquals(3, scrollback.getFirstLine());
+		assertEquals("", scrollback.getLine(0));
+		scrollback.append("d");
+		assertEquals("d", scrollback.getLine(0));
+	}
+
+	@Test
+	public void findsNewestFirstAcrossWrap() {
+
+		ConsoleScrollback scrollback = new ConsoleScrollback(20);
+		for (int i = 0; i < 100; i++) {
+			scrollback.append(line(i, 900) + " Needle needle\n");
+		}
+		ConsoleScrollbackSearch.Matches matches = new ConsoleScrollbackSearch.Matches();
+		long newest = scrollback.getFirstLine() + scrollback.getLineCount() - 2;
+		scrollback.find(new ConsoleSearchPattern("needle"), newest, 3, matches);
+		assertEquals(6, matches.size());
+		assertEquals(newest, matches.getLine(0));
+		assertEquals(908, matches.getColumn(0));
+		assertEquals(901, matches.getColumn(1));
+		assertEquals(newest - 2, matches.getLine(5));
+		matches.clear();
+		scrollback.find(new ConsoleSearchPattern("Needle"), newest, 1, matches);
+		assertEquals(1, matches.size());
+		assertEquals(901, matches.getColumn(0));
+	}
+}